@@ -32,6 +32,9 @@ public class DataSeeder implements CommandLineRunner {
     @Autowired
     private AppointmentRepository appointmentRepository;
 
+    @Autowired
+    private BucketStore bucketStore;
+
     @Override
     public void run(String... args) throws Exception {
         // Only seed if database is empty
@@ -150,7 +153,6 @@ public class DataSeeder implements CommandLineRunner {
             "INTRAORAL",
             "/storage/images/intraoral_" + patient.getId() + "_2023.jpg"
         ));
-        record.setAttachments(attachments);
         
         // Add sample clinical notes
         List<DentalRecord.ClinicalNote> notes = new ArrayList<>();
@@ -162,9 +164,12 @@ public class DataSeeder implements CommandLineRunner {
             "Tooth #17 shows signs of decay. Treatment plan created for composite filling.",
             dentist.getUsername()
         ));
-        record.setGeneralNotes(notes);
         
         dentalRecordRepository.save(record);
+
+        // Notes and attachments live in buckets, not in the record
+        attachments.forEach(attachment -> bucketStore.append(AttachmentBucket.class, patient.getId(), attachment));
+        notes.forEach(note -> bucketStore.append(ClinicalNoteBucket.class, patient.getId(), note));
     }
 
     private void createTreatmentPlan(PatientProfile patient) {
@@ -13,6 +13,7 @@ public class GlobalCorsConfig implements WebMvcConfigurer {
       .allowedOrigins("http://localhost:5173")
       .allowedMethods("GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS")
       .allowedHeaders("*")
+      .exposedHeaders("X-Next-Cursor")
       .allowCredentials(true); // zezwól na cookie i nagłówki uwierzytelniające
   }
 }
@@ -0,0 +1,38 @@
+package com.dentistplus.config;
+
+import com.dentistplus.repository.BatchingDbRefResolver;
+import com.dentistplus.repository.ReferenceCacheListener;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+/**
+ * Replaces Spring Boot's default converter only to plug in the batching DBRef resolver,
+ * and registers the command listener that invalidates its request cache on writes
+ */
+@Configuration
+public class MongoConfig {
+
+    @Bean
+    public BatchingDbRefResolver batchingDbRefResolver(MongoDatabaseFactory mongoDbFactory) {
+        return new BatchingDbRefResolver(mongoDbFactory);
+    }
+
+    @Bean
+    public MappingMongoConverter mappingMongoConverter(BatchingDbRefResolver dbRefResolver,
+                                                       MongoMappingContext mappingContext,
+                                                       MongoCustomConversions conversions) {
+        MappingMongoConverter converter = new MappingMongoConverter(dbRefResolver, mappingContext);
+        converter.setCustomConversions(conversions);
+        return converter;
+    }
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer referenceCacheInvalidation(ReferenceCacheListener listener) {
+        return settings -> settings.addCommandListener(listener);
+    }
+}
@@ -1,9 +1,14 @@
 package com.dentistplus.controller;
 
 import com.dentistplus.dto.CreateUserRequest;
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
 import com.dentistplus.dto.UpdateUserRequest;
+import com.dentistplus.dto.UserSummary;
+import com.dentistplus.model.InvoiceBatch;
 import com.dentistplus.model.User;
 import com.dentistplus.service.AdminService;
+import com.dentistplus.service.InvoiceBatchService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -22,16 +27,25 @@ public class AdminController {
     @Autowired
     private AdminService adminService;
 
+    @Autowired
+    private InvoiceBatchService invoiceBatchService;
+
     /**
      * Get all dentists
      */
     @GetMapping("/dentists")
     @Operation(summary = "Get all dentists", description = "Admin-only endpoint to retrieve all dentists")
-    public ResponseEntity<List<User>> getAllDentists(
+    public ResponseEntity<List<UserSummary>> getAllDentists(
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc", required = false)
+            @RequestParam(required = false) String sort,
             @Parameter(description = "Admin user ID", required = true)
             @RequestHeader("X-User-ID") String adminUserId) {
-        List<User> dentists = adminService.getAllDentists(adminUserId);
-        return ResponseEntity.ok(dentists);
+        CursorPage<UserSummary> dentists = adminService.getAllDentists(adminUserId, CursorPageRequest.of(cursor, limit, sort));
+        return PageResponses.ok(dentists);
     }
 
     /**
@@ -39,11 +53,17 @@ public class AdminController {
      */
     @GetMapping("/patients")
     @Operation(summary = "Get all patients", description = "Admin-only endpoint to retrieve all patients")
-    public ResponseEntity<List<User>> getAllPatients(
+    public ResponseEntity<List<UserSummary>> getAllPatients(
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc", required = false)
+            @RequestParam(required = false) String sort,
             @Parameter(description = "Admin user ID", required = true)
             @RequestHeader("X-User-ID") String adminUserId) {
-        List<User> patients = adminService.getAllPatients(adminUserId);
-        return ResponseEntity.ok(patients);
+        CursorPage<UserSummary> patients = adminService.getAllPatients(adminUserId, CursorPageRequest.of(cursor, limit, sort));
+        return PageResponses.ok(patients);
     }
 
     /**
@@ -125,4 +145,28 @@ public class AdminController {
         adminService.deletePatient(patientId, adminUserId);
         return ResponseEntity.noContent().build();
     }
+
+    /**
+     * Start month-end invoicing for all patients
+     */
+    @PostMapping("/invoice-batches")
+    @Operation(summary = "Start batch invoicing", description = "Admin-only endpoint to invoice the completed procedures of all patients in the background")
+    public ResponseEntity<InvoiceBatch> startInvoiceBatch(
+            @Parameter(description = "Admin user ID", required = true)
+            @RequestHeader("X-User-ID") String adminUserId) {
+        InvoiceBatch batch = invoiceBatchService.startBatch(adminUserId);
+        return ResponseEntity.accepted().body(batch);
+    }
+
+    /**
+     * Progress of a batch invoicing run
+     */
+    @GetMapping("/invoice-batches/{batchId}")
+    @Operation(summary = "Get batch invoicing progress", description = "Admin-only endpoint to follow the progress and throughput of a batch invoicing run")
+    public ResponseEntity<InvoiceBatch> getInvoiceBatch(
+            @PathVariable String batchId,
+            @Parameter(description = "Admin user ID", required = true)
+            @RequestHeader("X-User-ID") String adminUserId) {
+        return ResponseEntity.ok(invoiceBatchService.getBatch(batchId, adminUserId));
+    }
 }
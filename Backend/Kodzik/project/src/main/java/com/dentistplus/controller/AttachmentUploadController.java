@@ -0,0 +1,96 @@
+package com.dentistplus.controller;
+
+import com.dentistplus.dto.UploadSessionRequest;
+import com.dentistplus.model.DentalRecord;
+import com.dentistplus.model.UploadSession;
+import com.dentistplus.service.AttachmentUploadService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/api/patients/{patientId}/record/attachments/uploads")
+@Tag(name = "Attachment Uploads", description = "Resumable chunked attachment uploads")
+public class AttachmentUploadController {
+
+    @Autowired
+    private AttachmentUploadService uploadService;
+
+    @PostMapping
+    @Operation(summary = "Start upload", description = "Create a resumable upload session (ROLE_DENTIST required)")
+    public ResponseEntity<UploadSession> createUpload(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @RequestBody UploadSessionRequest request,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+
+        return ResponseEntity.ok(uploadService.createSession(patientId, request, dentistUserId));
+    }
+
+    @GetMapping("/{uploadId}")
+    @Operation(summary = "Get upload", description = "Upload session with received and missing chunks (ROLE_DENTIST required)")
+    public ResponseEntity<UploadSession> getUpload(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "Upload ID", required = true)
+            @PathVariable String uploadId,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+
+        return ResponseEntity.ok(uploadService.getSession(patientId, uploadId, dentistUserId));
+    }
+
+    @PutMapping(value = "/{uploadId}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @Operation(summary = "Upload chunk", description = "Upload one chunk (0-based); chunks may be sent in any order and in parallel (ROLE_DENTIST required)")
+    public ResponseEntity<Void> putChunk(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "Upload ID", required = true)
+            @PathVariable String uploadId,
+            @Parameter(description = "Chunk index", required = true)
+            @PathVariable int index,
+            @Parameter(description = "Hex SHA-256 of the chunk", required = true)
+            @RequestHeader("X-Chunk-SHA256") String sha256,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId,
+            HttpServletRequest request) throws IOException {
+
+        uploadService.putChunk(patientId, uploadId, index, sha256, request.getInputStream(), dentistUserId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    @Operation(summary = "Complete upload", description = "Assemble the chunks and register the attachment; safe to retry (ROLE_DENTIST required)")
+    public ResponseEntity<DentalRecord.Attachment> completeUpload(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "Upload ID", required = true)
+            @PathVariable String uploadId,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+
+        return ResponseEntity.ok(uploadService.complete(patientId, uploadId, dentistUserId));
+    }
+
+    @DeleteMapping("/{uploadId}")
+    @Operation(summary = "Abort upload", description = "Discard an open upload and its chunks (ROLE_DENTIST required)")
+    public ResponseEntity<Void> abortUpload(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "Upload ID", required = true)
+            @PathVariable String uploadId,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+
+        uploadService.abort(patientId, uploadId, dentistUserId);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -2,6 +2,7 @@ package com.dentistplus.controller;
 
 import com.dentistplus.dto.DentistRegistrationRequest;
 import com.dentistplus.dto.LoginRequest;
+import com.dentistplus.dto.LoginResponse;
 import com.dentistplus.dto.PatientRegistrationRequest;
 import com.dentistplus.model.User;
 import com.dentistplus.service.AuthService;
@@ -22,10 +23,10 @@ public class AuthController {
     private AuthService authService;
 
     @PostMapping("/login")
-    @Operation(summary = "User login", description = "Authenticate user with username and password")
-    public ResponseEntity<User> login(@Valid @RequestBody LoginRequest loginRequest) {
-        User user = authService.login(loginRequest);
-        return ResponseEntity.ok(user);
+    @Operation(summary = "User login", description = "Authenticate user with username and password and issue a signed access token")
+    public ResponseEntity<LoginResponse> login(@Valid @RequestBody LoginRequest loginRequest) {
+        LoginResponse response = authService.login(loginRequest);
+        return ResponseEntity.ok(response);
     }
 
     @PostMapping("/register/patient")
@@ -1,15 +1,26 @@
 package com.dentistplus.controller;
 
+import com.dentistplus.dto.ChartDiffEntry;
 import com.dentistplus.model.DentalRecord;
+import com.dentistplus.service.AttachmentService;
 import com.dentistplus.service.DentalRecordService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api")
@@ -19,16 +30,21 @@ public class DentalRecordController {
     @Autowired
     private DentalRecordService dentalRecordService;
 
+    @Autowired
+    private AttachmentService attachmentService;
+
     @GetMapping("/patients/{patientId}/record")
     @Operation(summary = "Get dental record", description = "Get the full dental record (ROLE_DENTIST required)")
     public ResponseEntity<DentalRecord> getDentalRecord(
             @Parameter(description = "Patient ID", required = true)
             @PathVariable String patientId,
+            @Parameter(description = "Chart format: map (default) or compact", required = false)
+            @RequestParam(required = false) String chartFormat,
             @Parameter(description = "Dentist user ID", required = true)
             @RequestHeader("X-User-ID") String dentistUserId) {
         
         DentalRecord record = dentalRecordService.getDentalRecord(patientId, dentistUserId);
-        return ResponseEntity.ok(record);
+        return ResponseEntity.ok(dentalRecordService.withChartFormat(record, chartFormat));
     }
 
     @PutMapping("/patients/{patientId}/record/chart")
@@ -44,22 +60,163 @@ public class DentalRecordController {
         return ResponseEntity.ok(record);
     }
 
-    @PostMapping("/patients/{patientId}/record/attachments")
+    @PatchMapping("/patients/{patientId}/record/chart")
+    @Operation(summary = "Patch dental chart", description = "Set or clear only the given teeth/surfaces; null clears a value (ROLE_DENTIST required)")
+    public ResponseEntity<Void> patchDentalChart(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @RequestBody Map<String, Map<String, String>> changes,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+        
+        dentalRecordService.patchDentalChart(patientId, changes, dentistUserId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/patients/{patientId}/record/chart/history")
+    @Operation(summary = "Get dental chart at a point in time", description = "Rebuild the dentalChart as it was at the given time (ROLE_DENTIST required)")
+    public ResponseEntity<Map<String, Map<String, String>>> getChartAt(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "yyyy-MM-dd or ISO date-time (default now)", required = false)
+            @RequestParam(required = false) String at,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+
+        return ResponseEntity.ok(dentalRecordService.getChartAt(patientId, at, dentistUserId));
+    }
+
+    @GetMapping("/patients/{patientId}/record/chart/diff")
+    @Operation(summary = "Diff dental chart between two dates", description = "Surfaces whose condition changed between from and to (ROLE_DENTIST required)")
+    public ResponseEntity<List<ChartDiffEntry>> getChartDiff(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "yyyy-MM-dd or ISO date-time", required = true)
+            @RequestParam String from,
+            @Parameter(description = "yyyy-MM-dd or ISO date-time (default now)", required = false)
+            @RequestParam(required = false) String to,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+
+        return ResponseEntity.ok(dentalRecordService.getChartDiff(patientId, from, to, dentistUserId));
+    }
+
+    @PostMapping(value = "/patients/{patientId}/record/attachments", consumes = MediaType.APPLICATION_JSON_VALUE)
     @Operation(summary = "Add attachment", description = "Add attachment metadata (ROLE_DENTIST required)")
-    public ResponseEntity<DentalRecord> addAttachment(
+    public ResponseEntity<DentalRecord.Attachment> addAttachment(
             @Parameter(description = "Patient ID", required = true)
             @PathVariable String patientId,
             @RequestBody DentalRecord.Attachment attachment,
             @Parameter(description = "Dentist user ID", required = true)
             @RequestHeader("X-User-ID") String dentistUserId) {
         
-        DentalRecord record = dentalRecordService.addAttachment(patientId, attachment, dentistUserId);
-        return ResponseEntity.ok(record);
+        DentalRecord.Attachment added = dentalRecordService.addAttachment(patientId, attachment, dentistUserId);
+        return ResponseEntity.ok(added);
+    }
+
+    @PostMapping(value = "/patients/{patientId}/record/attachments", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Upload attachment", description = "Upload a file as multipart form data (ROLE_DENTIST required)")
+    public ResponseEntity<DentalRecord.Attachment> uploadAttachment(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @RequestPart("file") MultipartFile file,
+            @Parameter(description = "PANTOMOGRAPHIC, INTRAORAL, XRAY, etc.", required = false)
+            @RequestParam(required = false) String fileType,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) throws IOException {
+
+        // Multipart parts are spooled to disk by the container, never held in the heap
+        try (InputStream content = file.getInputStream()) {
+            DentalRecord.Attachment added = attachmentService.uploadAttachment(patientId, file.getOriginalFilename(),
+                fileType, file.getContentType(), content, dentistUserId);
+            return ResponseEntity.ok(added);
+        }
+    }
+
+    @PostMapping(value = "/patients/{patientId}/record/attachments",
+            consumes = { MediaType.APPLICATION_OCTET_STREAM_VALUE, "image/*", MediaType.APPLICATION_PDF_VALUE })
+    @Operation(summary = "Upload attachment body", description = "Upload the request body as the file, streamed straight to storage (ROLE_DENTIST required)")
+    public ResponseEntity<DentalRecord.Attachment> uploadAttachmentBody(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "File name", required = true)
+            @RequestParam String filename,
+            @Parameter(description = "PANTOMOGRAPHIC, INTRAORAL, XRAY, etc.", required = false)
+            @RequestParam(required = false) String fileType,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId,
+            HttpServletRequest request) throws IOException {
+
+        DentalRecord.Attachment added = attachmentService.uploadAttachment(patientId, filename, fileType,
+            request.getContentType(), request.getInputStream(), dentistUserId);
+        return ResponseEntity.ok(added);
+    }
+
+    @GetMapping("/patients/{patientId}/record/attachments/{attachmentId}")
+    @Operation(summary = "Download attachment", description = "Attachment content; supports Range and If-None-Match (ROLE_DENTIST required)")
+    public void downloadAttachment(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "Attachment ID", required = true)
+            @PathVariable String attachmentId,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        DentalRecord.Attachment attachment = attachmentService.getAttachment(patientId, attachmentId, dentistUserId);
+        AttachmentDownloads.write(attachmentService, attachment, request, response);
+    }
+
+    @GetMapping("/patients/{patientId}/record/attachments/{attachmentId}/preview")
+    @Operation(summary = "Attachment preview", description = "Downscaled JPEG of an image attachment, generated on first request (ROLE_DENTIST required)")
+    public CompletableFuture<ResponseEntity<Resource>> getAttachmentPreview(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "Attachment ID", required = true)
+            @PathVariable String attachmentId,
+            @Parameter(description = "thumbnail (default, 160px) or medium (800px)", required = false)
+            @RequestParam(required = false) String size,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId,
+            HttpServletRequest request) {
+
+        DentalRecord.Attachment attachment = attachmentService.getAttachment(patientId, attachmentId, dentistUserId);
+        return AttachmentDownloads.preview(attachmentService, attachment, size, request);
+    }
+
+    @DeleteMapping("/patients/{patientId}/record/attachments/{attachmentId}")
+    @Operation(summary = "Delete attachment", description = "Remove an attachment; its content is deleted once no other attachment shares it (ROLE_DENTIST required)")
+    public ResponseEntity<Void> deleteAttachment(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "Attachment ID", required = true)
+            @PathVariable String attachmentId,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+
+        attachmentService.deleteAttachment(patientId, attachmentId, dentistUserId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/patients/{patientId}/record/attachments")
+    @Operation(summary = "List attachments", description = "Attachment metadata, newest first (ROLE_DENTIST required)")
+    public ResponseEntity<List<DentalRecord.Attachment>> getAttachments(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+
+        return PageResponses.ok(dentalRecordService.getAttachments(patientId, cursor, limit, dentistUserId));
     }
 
     @PostMapping("/patients/{patientId}/record/notes")
     @Operation(summary = "Add clinical note", description = "Add a new clinical note (ROLE_DENTIST required)")
-    public ResponseEntity<DentalRecord> addClinicalNote(
+    public ResponseEntity<DentalRecord.ClinicalNote> addClinicalNote(
             @Parameter(description = "Patient ID", required = true)
             @PathVariable String patientId,
             @RequestBody Map<String, String> noteRequest,
@@ -67,7 +224,22 @@ public class DentalRecordController {
             @RequestHeader("X-User-ID") String dentistUserId) {
         
         String note = noteRequest.get("note");
-        DentalRecord record = dentalRecordService.addClinicalNote(patientId, note, dentistUserId);
-        return ResponseEntity.ok(record);
+        DentalRecord.ClinicalNote added = dentalRecordService.addClinicalNote(patientId, note, dentistUserId);
+        return ResponseEntity.ok(added);
+    }
+
+    @GetMapping("/patients/{patientId}/record/notes")
+    @Operation(summary = "List clinical notes", description = "Clinical notes, newest first (ROLE_DENTIST required)")
+    public ResponseEntity<List<DentalRecord.ClinicalNote>> getClinicalNotes(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+
+        return PageResponses.ok(dentalRecordService.getClinicalNotes(patientId, cursor, limit, dentistUserId));
     }
 }
\ No newline at end of file
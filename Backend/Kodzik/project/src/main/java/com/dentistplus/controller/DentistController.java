@@ -1,6 +1,8 @@
 package com.dentistplus.controller;
 
-import com.dentistplus.model.Appointment;
+import com.dentistplus.dto.AppointmentSummary;
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
 import com.dentistplus.service.AppointmentService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -21,21 +23,41 @@ public class DentistController {
 
     @GetMapping("/appointments")
     @Operation(summary = "Get dentist appointments", description = "Get all appointments for the logged-in dentist (ROLE_DENTIST required)")
-    public ResponseEntity<List<Appointment>> getDentistAppointments(
+    public ResponseEntity<List<AppointmentSummary>> getDentistAppointments(
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc", required = false)
+            @RequestParam(required = false) String sort,
             @Parameter(description = "Dentist user ID", required = true)
             @RequestHeader("X-User-ID") String dentistUserId) {
         
-        List<Appointment> appointments = appointmentService.getDentistAppointments(dentistUserId);
-        return ResponseEntity.ok(appointments);
+        CursorPage<AppointmentSummary> appointments = appointmentService.getDentistAppointments(dentistUserId, CursorPageRequest.of(cursor, limit, sort));
+        return PageResponses.ok(appointments);
     }
 
     @GetMapping("/appointments/today")
     @Operation(summary = "Get today's appointments", description = "Get today's appointments for the logged-in dentist (ROLE_DENTIST required)")
-    public ResponseEntity<List<Appointment>> getTodayAppointments(
+    public ResponseEntity<List<AppointmentSummary>> getTodayAppointments(
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+        
+        List<AppointmentSummary> appointments = appointmentService.getDentistTodayAppointments(dentistUserId);
+        return ResponseEntity.ok(appointments);
+    }
+
+    @GetMapping("/agenda")
+    @Operation(summary = "Get dentist agenda", description = "Get the logged-in dentist's appointments for a day, week or month, sorted by time (ROLE_DENTIST required)")
+    public ResponseEntity<List<AppointmentSummary>> getAgenda(
+            @Parameter(description = "Range: day (default), week (Monday to Sunday) or month", required = false)
+            @RequestParam(defaultValue = "day") String view,
+            @Parameter(description = "Any date inside the range, yyyy-MM-dd (default today)", required = false)
+            @RequestParam(required = false) String date,
             @Parameter(description = "Dentist user ID", required = true)
             @RequestHeader("X-User-ID") String dentistUserId) {
         
-        List<Appointment> appointments = appointmentService.getDentistTodayAppointments(dentistUserId);
+        List<AppointmentSummary> appointments = appointmentService.getDentistAgenda(dentistUserId, view, date);
         return ResponseEntity.ok(appointments);
     }
 }
@@ -1,5 +1,8 @@
 package com.dentistplus.controller;
 
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import com.dentistplus.dto.InvoiceSummary;
 import com.dentistplus.model.Invoice;
 import com.dentistplus.service.InvoiceService;
 import io.swagger.v3.oas.annotations.Operation;
@@ -33,13 +36,19 @@ public class InvoiceController {
 
     @GetMapping("/patients/{patientId}/invoices")
     @Operation(summary = "Get patient invoices", description = "Get all invoices for a patient (ROLE_DENTIST required)")
-    public ResponseEntity<List<Invoice>> getPatientInvoices(
+    public ResponseEntity<List<InvoiceSummary>> getPatientInvoices(
             @Parameter(description = "Patient ID", required = true)
             @PathVariable String patientId,
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc", required = false)
+            @RequestParam(required = false) String sort,
             @Parameter(description = "Dentist user ID", required = true)
             @RequestHeader("X-User-ID") String dentistUserId) {
         
-        List<Invoice> invoices = invoiceService.getPatientInvoices(patientId, dentistUserId);
-        return ResponseEntity.ok(invoices);
+        CursorPage<InvoiceSummary> invoices = invoiceService.getPatientInvoices(patientId, dentistUserId, CursorPageRequest.of(cursor, limit, sort));
+        return PageResponses.ok(invoices);
     }
 }
\ No newline at end of file
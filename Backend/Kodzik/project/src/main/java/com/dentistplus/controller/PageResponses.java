@@ -0,0 +1,23 @@
+package com.dentistplus.controller;
+
+import com.dentistplus.dto.CursorPage;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+/**
+ * List endpoints keep returning a JSON array; the cursor for the next page
+ * travels in the X-Next-Cursor header so existing clients are unaffected.
+ */
+final class PageResponses {
+
+    private PageResponses() {}
+
+    static <T> ResponseEntity<List<T>> ok(CursorPage<T> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(CursorPage.NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
+    }
+}
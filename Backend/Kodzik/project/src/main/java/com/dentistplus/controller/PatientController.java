@@ -1,5 +1,8 @@
 package com.dentistplus.controller;
 
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import com.dentistplus.dto.PatientSummary;
 import com.dentistplus.model.PatientProfile;
 import com.dentistplus.service.PatientService;
 import io.swagger.v3.oas.annotations.Operation;
@@ -21,17 +24,25 @@ public class PatientController {
 
     @GetMapping("/patients")
     @Operation(summary = "Get all patients", description = "Search/list all patients (ROLE_DENTIST required)")
-    public ResponseEntity<List<PatientProfile>> getAllPatients(
-            @Parameter(description = "Search query for patient name", required = false)
+    public ResponseEntity<List<PatientSummary>> getAllPatients(
+            @Parameter(description = "Search by name prefix, phone number or date of birth", required = false)
             @RequestParam(required = false) String search,
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page (list only)", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200) or number of search results (default 20, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc (list only)", required = false)
+            @RequestParam(required = false) String sort,
             @Parameter(description = "Dentist user ID", required = true)
             @RequestHeader("X-User-ID") String dentistUserId) {
         
-        List<PatientProfile> patients = search != null ? 
-            patientService.searchPatients(search, dentistUserId) : 
-            patientService.getAllPatients(dentistUserId);
+        if (search != null) {
+            List<PatientSummary> patients = patientService.searchPatients(search, limit != null ? limit : 20, dentistUserId);
+            return ResponseEntity.ok(patients);
+        }
         
-        return ResponseEntity.ok(patients);
+        CursorPage<PatientSummary> patients = patientService.getAllPatients(dentistUserId, CursorPageRequest.of(cursor, limit, sort));
+        return PageResponses.ok(patients);
     }
 
     @GetMapping("/patients/{patientId}")
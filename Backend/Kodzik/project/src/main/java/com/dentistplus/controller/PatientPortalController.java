@@ -1,17 +1,30 @@
 package com.dentistplus.controller;
 
+import com.dentistplus.dto.AppointmentSummary;
+import com.dentistplus.dto.ChartDiffEntry;
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import com.dentistplus.dto.InvoiceSummary;
 import com.dentistplus.dto.PaymentRequest;
+import com.dentistplus.dto.PersonSummary;
+import com.dentistplus.dto.TimeSlot;
 import com.dentistplus.model.*;
-import com.dentistplus.repository.UserRepository;
+import com.dentistplus.repository.CursorPaging;
 import com.dentistplus.service.*;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/my")
@@ -23,6 +36,9 @@ public class PatientPortalController {
     
     @Autowired
     private DentalRecordService dentalRecordService;
+
+    @Autowired
+    private AttachmentService attachmentService;
     
     @Autowired
     private TreatmentPlanService treatmentPlanService;
@@ -34,7 +50,7 @@ public class PatientPortalController {
     private AppointmentService appointmentService;
 
     @Autowired
-    private UserRepository userRepository;
+    private CursorPaging cursorPaging;
 
     @GetMapping("/profile")
     @Operation(summary = "Get my profile", description = "Get patient's own profile (ROLE_PATIENT required)")
@@ -49,38 +65,125 @@ public class PatientPortalController {
     @GetMapping("/record")
     @Operation(summary = "Get my dental record", description = "Get patient's own dental record (ROLE_PATIENT required)")
     public ResponseEntity<DentalRecord> getMyDentalRecord(
+            @Parameter(description = "Chart format: map (default) or compact", required = false)
+            @RequestParam(required = false) String chartFormat,
             @Parameter(description = "Patient user ID", required = true)
             @RequestHeader("X-User-ID") String patientUserId) {
         
         DentalRecord record = dentalRecordService.getMyDentalRecord(patientUserId);
-        return ResponseEntity.ok(record);
+        return ResponseEntity.ok(dentalRecordService.withChartFormat(record, chartFormat));
+    }
+
+    @GetMapping("/record/chart/changes")
+    @Operation(summary = "Get my chart changes", description = "Dental chart changes since a date, by default since the last completed visit (ROLE_PATIENT required)")
+    public ResponseEntity<List<ChartDiffEntry>> getMyChartChanges(
+            @Parameter(description = "yyyy-MM-dd or ISO date-time (default: start of the last completed visit)", required = false)
+            @RequestParam(required = false) String since,
+            @Parameter(description = "Patient user ID", required = true)
+            @RequestHeader("X-User-ID") String patientUserId) {
+
+        return ResponseEntity.ok(dentalRecordService.getMyChartChanges(patientUserId, since));
+    }
+
+    @GetMapping("/record/notes")
+    @Operation(summary = "Get my clinical notes", description = "Patient's own clinical notes, newest first (ROLE_PATIENT required)")
+    public ResponseEntity<List<DentalRecord.ClinicalNote>> getMyClinicalNotes(
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Patient user ID", required = true)
+            @RequestHeader("X-User-ID") String patientUserId) {
+
+        return PageResponses.ok(dentalRecordService.getMyClinicalNotes(patientUserId, cursor, limit));
+    }
+
+    @GetMapping("/record/attachments")
+    @Operation(summary = "Get my attachments", description = "Patient's own attachment metadata, newest first (ROLE_PATIENT required)")
+    public ResponseEntity<List<DentalRecord.Attachment>> getMyAttachments(
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Patient user ID", required = true)
+            @RequestHeader("X-User-ID") String patientUserId) {
+
+        return PageResponses.ok(dentalRecordService.getMyAttachments(patientUserId, cursor, limit));
+    }
+
+    @GetMapping("/record/attachments/{attachmentId}")
+    @Operation(summary = "Download my attachment", description = "Patient's own attachment content; supports Range and If-None-Match (ROLE_PATIENT required)")
+    public void downloadMyAttachment(
+            @Parameter(description = "Attachment ID", required = true)
+            @PathVariable String attachmentId,
+            @Parameter(description = "Patient user ID", required = true)
+            @RequestHeader("X-User-ID") String patientUserId,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        DentalRecord.Attachment attachment = attachmentService.getMyAttachment(patientUserId, attachmentId);
+        AttachmentDownloads.write(attachmentService, attachment, request, response);
+    }
+
+    @GetMapping("/record/attachments/{attachmentId}/preview")
+    @Operation(summary = "My attachment preview", description = "Downscaled JPEG of the patient's own image attachment (ROLE_PATIENT required)")
+    public CompletableFuture<ResponseEntity<Resource>> getMyAttachmentPreview(
+            @Parameter(description = "Attachment ID", required = true)
+            @PathVariable String attachmentId,
+            @Parameter(description = "thumbnail (default, 160px) or medium (800px)", required = false)
+            @RequestParam(required = false) String size,
+            @Parameter(description = "Patient user ID", required = true)
+            @RequestHeader("X-User-ID") String patientUserId,
+            HttpServletRequest request) {
+
+        DentalRecord.Attachment attachment = attachmentService.getMyAttachment(patientUserId, attachmentId);
+        return AttachmentDownloads.preview(attachmentService, attachment, size, request);
     }
 
     @GetMapping("/plans")
     @Operation(summary = "Get my treatment plans", description = "Get patient's own treatment plans (ROLE_PATIENT required)")
     public ResponseEntity<List<TreatmentPlan>> getMyTreatmentPlans(
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc", required = false)
+            @RequestParam(required = false) String sort,
             @Parameter(description = "Patient user ID", required = true)
             @RequestHeader("X-User-ID") String patientUserId) {
         
-        List<TreatmentPlan> plans = treatmentPlanService.getMyTreatmentPlans(patientUserId);
-        return ResponseEntity.ok(plans);
+        CursorPage<TreatmentPlan> plans = treatmentPlanService.getMyTreatmentPlans(patientUserId, CursorPageRequest.of(cursor, limit, sort));
+        return PageResponses.ok(plans);
     }
 
     @GetMapping("/appointments")
     @Operation(summary = "Get my appointments", description = "Get patient's own appointments (ROLE_PATIENT required)")
-    public ResponseEntity<List<Appointment>> getMyAppointments(
+    public ResponseEntity<List<AppointmentSummary>> getMyAppointments(
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc", required = false)
+            @RequestParam(required = false) String sort,
             @Parameter(description = "Patient user ID", required = true)
             @RequestHeader("X-User-ID") String patientUserId) {
         
-        List<Appointment> appointments = appointmentService.getMyAppointments(patientUserId);
-        return ResponseEntity.ok(appointments);
+        CursorPage<AppointmentSummary> appointments = appointmentService.getMyAppointments(patientUserId, CursorPageRequest.of(cursor, limit, sort));
+        return PageResponses.ok(appointments);
     }
 
     @GetMapping("/dentists")
     @Operation(summary = "Get available dentists", description = "Get list of dentists for booking appointments")
-    public ResponseEntity<List<User>> getAvailableDentists() {
-        List<User> dentists = userRepository.findByRolesContaining("ROLE_DENTIST");
-        return ResponseEntity.ok(dentists);
+    public ResponseEntity<List<PersonSummary>> getAvailableDentists(
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc", required = false)
+            @RequestParam(required = false) String sort) {
+        CursorPage<PersonSummary> dentists = cursorPaging.findSummaries(Criteria.where("roles").is("ROLE_DENTIST"),
+            CursorPageRequest.of(cursor, limit, sort), User.class, PersonSummary.class, "firstName", "lastName");
+        return PageResponses.ok(dentists);
     }
 
     @PostMapping("/appointments")
@@ -98,35 +201,57 @@ public class PatientPortalController {
 
     @PutMapping("/appointments/{appointmentId}/reschedule")
     @Operation(summary = "Reschedule appointment", description = "Reschedule an existing appointment (ROLE_PATIENT required)")
-    public ResponseEntity<Appointment> rescheduleAppointment(
+    public ResponseEntity<AppointmentSummary> rescheduleAppointment(
             @PathVariable String appointmentId,
             @RequestParam String newDate,
             @Parameter(description = "Patient user ID", required = true)
             @RequestHeader("X-User-ID") String patientUserId) {
         
-        Appointment appointment = appointmentService.rescheduleAppointment(appointmentId, newDate, patientUserId);
+        AppointmentSummary appointment = appointmentService.rescheduleAppointment(appointmentId, newDate, patientUserId);
         return ResponseEntity.ok(appointment);
     }
 
     @PutMapping("/appointments/{appointmentId}/cancel")
     @Operation(summary = "Cancel appointment", description = "Cancel an existing appointment (ROLE_PATIENT required)")
-    public ResponseEntity<Appointment> cancelAppointment(
+    public ResponseEntity<AppointmentSummary> cancelAppointment(
             @PathVariable String appointmentId,
             @Parameter(description = "Patient user ID", required = true)
             @RequestHeader("X-User-ID") String patientUserId) {
         
-        Appointment appointment = appointmentService.cancelAppointment(appointmentId, patientUserId);
+        AppointmentSummary appointment = appointmentService.cancelAppointment(appointmentId, patientUserId);
         return ResponseEntity.ok(appointment);
     }
 
+    @GetMapping("/dentists/{dentistId}/availability")
+    @Operation(summary = "Get dentist availability", description = "Get free time slots of a dentist within opening hours (ROLE_PATIENT required)")
+    public ResponseEntity<List<TimeSlot>> getDentistAvailability(
+            @Parameter(description = "Dentist user ID", required = true)
+            @PathVariable String dentistId,
+            @Parameter(description = "Start of the range, yyyy-MM-dd or ISO date-time (default now)", required = false)
+            @RequestParam(required = false) String from,
+            @Parameter(description = "End of the range, yyyy-MM-dd or ISO date-time (default from + 7 days, max 31 days)", required = false)
+            @RequestParam(required = false) String to,
+            @Parameter(description = "Patient user ID", required = true)
+            @RequestHeader("X-User-ID") String patientUserId) {
+        
+        List<TimeSlot> slots = appointmentService.getDentistAvailability(patientUserId, dentistId, from, to);
+        return ResponseEntity.ok(slots);
+    }
+
     @GetMapping("/invoices")
     @Operation(summary = "Get my invoices", description = "Get patient's billing history (ROLE_PATIENT required)")
-    public ResponseEntity<List<Invoice>> getMyInvoices(
+    public ResponseEntity<List<InvoiceSummary>> getMyInvoices(
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc", required = false)
+            @RequestParam(required = false) String sort,
             @Parameter(description = "Patient user ID", required = true)
             @RequestHeader("X-User-ID") String patientUserId) {
         
-        List<Invoice> invoices = invoiceService.getMyInvoices(patientUserId);
-        return ResponseEntity.ok(invoices);
+        CursorPage<InvoiceSummary> invoices = invoiceService.getMyInvoices(patientUserId, CursorPageRequest.of(cursor, limit, sort));
+        return PageResponses.ok(invoices);
     }
 
     @PostMapping("/invoices/pay")
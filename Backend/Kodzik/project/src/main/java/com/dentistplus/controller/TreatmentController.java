@@ -1,5 +1,10 @@
 package com.dentistplus.controller;
 
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import com.dentistplus.dto.ProcedureStatusChange;
+import com.dentistplus.dto.ProcedureStatusResult;
+import com.dentistplus.dto.ProcedureUpdate;
 import com.dentistplus.model.TreatmentPlan;
 import com.dentistplus.service.TreatmentPlanService;
 import io.swagger.v3.oas.annotations.Operation;
@@ -24,11 +29,17 @@ public class TreatmentController {
     public ResponseEntity<List<TreatmentPlan>> getTreatmentPlans(
             @Parameter(description = "Patient ID", required = true)
             @PathVariable String patientId,
+            @Parameter(description = "Cursor from the X-Next-Cursor header of the previous page", required = false)
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (default 50, max 200)", required = false)
+            @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Order by creation: asc (default) or desc", required = false)
+            @RequestParam(required = false) String sort,
             @Parameter(description = "Dentist user ID", required = true)
             @RequestHeader("X-User-ID") String dentistUserId) {
         
-        List<TreatmentPlan> plans = treatmentPlanService.getTreatmentPlans(patientId, dentistUserId);
-        return ResponseEntity.ok(plans);
+        CursorPage<TreatmentPlan> plans = treatmentPlanService.getTreatmentPlans(patientId, dentistUserId, CursorPageRequest.of(cursor, limit, sort));
+        return PageResponses.ok(plans);
     }
 
     @PostMapping("/patients/{patientId}/plans")
@@ -69,4 +80,30 @@ public class TreatmentController {
         TreatmentPlan plan = treatmentPlanService.updateProcedure(procedureId, procedure, dentistUserId);
         return ResponseEntity.ok(plan);
     }
+
+    @PatchMapping("/procedures/{procedureId}")
+    @Operation(summary = "Patch procedure", description = "Change only the given procedure fields, e.g. status or cost (ROLE_DENTIST required)")
+    public ResponseEntity<TreatmentPlan> patchProcedure(
+            @Parameter(description = "Procedure ID", required = true)
+            @PathVariable String procedureId,
+            @RequestBody ProcedureUpdate changes,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+        
+        TreatmentPlan plan = treatmentPlanService.patchProcedure(procedureId, changes, dentistUserId);
+        return ResponseEntity.ok(plan);
+    }
+
+    @PostMapping("/patients/{patientId}/procedures/status")
+    @Operation(summary = "Update procedure statuses", description = "Change the status of many procedures of a patient at once, with a result per procedure (ROLE_DENTIST required)")
+    public ResponseEntity<List<ProcedureStatusResult>> updateProcedureStatuses(
+            @Parameter(description = "Patient ID", required = true)
+            @PathVariable String patientId,
+            @RequestBody List<ProcedureStatusChange> changes,
+            @Parameter(description = "Dentist user ID", required = true)
+            @RequestHeader("X-User-ID") String dentistUserId) {
+        
+        List<ProcedureStatusResult> results = treatmentPlanService.updateProcedureStatuses(patientId, changes, dentistUserId);
+        return ResponseEntity.ok(results);
+    }
 }
\ No newline at end of file
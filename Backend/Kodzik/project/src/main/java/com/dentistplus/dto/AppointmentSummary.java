@@ -0,0 +1,53 @@
+package com.dentistplus.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.time.LocalDateTime;
+
+/**
+ * Appointment list row; the patient and dentist are reduced to their names
+ */
+public class AppointmentSummary {
+    private String id;
+    private PersonSummary patientProfile;
+    private PersonSummary dentist;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime appointmentDate;
+
+    private String appointmentType;
+    private String status;
+    private String notes;
+    private Integer durationMinutes;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime createdAt;
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public PersonSummary getPatientProfile() { return patientProfile; }
+    public void setPatientProfile(PersonSummary patientProfile) { this.patientProfile = patientProfile; }
+
+    public PersonSummary getDentist() { return dentist; }
+    public void setDentist(PersonSummary dentist) { this.dentist = dentist; }
+
+    public LocalDateTime getAppointmentDate() { return appointmentDate; }
+    public void setAppointmentDate(LocalDateTime appointmentDate) { this.appointmentDate = appointmentDate; }
+
+    public String getAppointmentType() { return appointmentType; }
+    public void setAppointmentType(String appointmentType) { this.appointmentType = appointmentType; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getNotes() { return notes; }
+    public void setNotes(String notes) { this.notes = notes; }
+
+    public Integer getDurationMinutes() { return durationMinutes; }
+    public void setDurationMinutes(Integer durationMinutes) { this.durationMinutes = durationMinutes; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,34 @@
+package com.dentistplus.dto;
+
+/**
+ * A tooth surface whose condition differs between two points in time; null means not charted
+ */
+public class ChartDiffEntry {
+    private String tooth;
+    private String surface;
+    private String before;
+    private String after;
+
+    // Constructors
+    public ChartDiffEntry() {}
+
+    public ChartDiffEntry(String tooth, String surface, String before, String after) {
+        this.tooth = tooth;
+        this.surface = surface;
+        this.before = before;
+        this.after = after;
+    }
+
+    // Getters and Setters
+    public String getTooth() { return tooth; }
+    public void setTooth(String tooth) { this.tooth = tooth; }
+
+    public String getSurface() { return surface; }
+    public void setSurface(String surface) { this.surface = surface; }
+
+    public String getBefore() { return before; }
+    public void setBefore(String before) { this.before = before; }
+
+    public String getAfter() { return after; }
+    public void setAfter(String after) { this.after = after; }
+}
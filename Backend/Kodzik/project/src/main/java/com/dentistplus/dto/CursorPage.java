@@ -0,0 +1,24 @@
+package com.dentistplus.dto;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated list; nextCursor is null on the last page
+ */
+public class CursorPage<T> {
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private final List<T> items;
+    private final String nextCursor;
+
+    public CursorPage(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters
+    public List<T> getItems() { return items; }
+
+    public String getNextCursor() { return nextCursor; }
+}
@@ -0,0 +1,73 @@
+package com.dentistplus.dto;
+
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Keyset pagination parameters. The cursor is an opaque token wrapping the _id of
+ * the last item of the previous page, so the next page is a range query on _id.
+ */
+public class CursorPageRequest {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+
+    private final String afterId;
+    private final int limit;
+    private final boolean descending;
+
+    private CursorPageRequest(String afterId, int limit, boolean descending) {
+        this.afterId = afterId;
+        this.limit = limit;
+        this.descending = descending;
+    }
+
+    /**
+     * Build from raw request parameters; all of them are optional
+     */
+    public static CursorPageRequest of(String cursor, Integer limit, String sort) {
+        int size = limit == null ? DEFAULT_LIMIT : limit;
+        if (size < 1 || size > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+
+        boolean descending;
+        if (sort == null || sort.equalsIgnoreCase("asc")) {
+            descending = false;
+        } else if (sort.equalsIgnoreCase("desc")) {
+            descending = true;
+        } else {
+            throw new IllegalArgumentException("sort must be 'asc' or 'desc'");
+        }
+
+        return new CursorPageRequest(decode(cursor), size, descending);
+    }
+
+    public static String encode(String id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String id = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            if (ObjectId.isValid(id)) {
+                return id;
+            }
+        } catch (IllegalArgumentException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid cursor");
+    }
+
+    // Getters
+    public String getAfterId() { return afterId; }
+
+    public int getLimit() { return limit; }
+
+    public boolean isDescending() { return descending; }
+}
@@ -0,0 +1,52 @@
+package com.dentistplus.dto;
+
+import com.dentistplus.model.Invoice;
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Invoice list row; lists are always scoped to one patient, so the patient
+ * profile is not repeated on every row
+ */
+public class InvoiceSummary {
+    private String id;
+
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate issueDate;
+
+    private List<Invoice.LineItem> lineItems;
+    private BigDecimal totalAmount;
+    private String status;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime createdAt;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime updatedAt;
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public LocalDate getIssueDate() { return issueDate; }
+    public void setIssueDate(LocalDate issueDate) { this.issueDate = issueDate; }
+
+    public List<Invoice.LineItem> getLineItems() { return lineItems; }
+    public void setLineItems(List<Invoice.LineItem> lineItems) { this.lineItems = lineItems; }
+
+    public BigDecimal getTotalAmount() { return totalAmount; }
+    public void setTotalAmount(BigDecimal totalAmount) { this.totalAmount = totalAmount; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,30 @@
+package com.dentistplus.dto;
+
+import com.dentistplus.model.User;
+
+import java.time.Instant;
+
+public class LoginResponse {
+    private String token;
+    private Instant expiresAt;
+    private User user;
+
+    // Constructors
+    public LoginResponse() {}
+
+    public LoginResponse(String token, Instant expiresAt, User user) {
+        this.token = token;
+        this.expiresAt = expiresAt;
+        this.user = user;
+    }
+
+    // Getters and Setters
+    public String getToken() { return token; }
+    public void setToken(String token) { this.token = token; }
+
+    public Instant getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(Instant expiresAt) { this.expiresAt = expiresAt; }
+
+    public User getUser() { return user; }
+    public void setUser(User user) { this.user = user; }
+}
@@ -0,0 +1,21 @@
+package com.dentistplus.dto;
+
+/**
+ * Name-only view of a patient profile or user, used for references inside list items
+ * and for the dentist directory
+ */
+public class PersonSummary {
+    private String id;
+    private String firstName;
+    private String lastName;
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getFirstName() { return firstName; }
+    public void setFirstName(String firstName) { this.firstName = firstName; }
+
+    public String getLastName() { return lastName; }
+    public void setLastName(String lastName) { this.lastName = lastName; }
+}
@@ -0,0 +1,13 @@
+package com.dentistplus.dto;
+
+public class ProcedureStatusChange {
+    private String procedureId;
+    private String status; // PLANNED, IN_PROGRESS, COMPLETED, CANCELLED
+
+    // Getters and Setters
+    public String getProcedureId() { return procedureId; }
+    public void setProcedureId(String procedureId) { this.procedureId = procedureId; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+}
@@ -0,0 +1,41 @@
+package com.dentistplus.dto;
+
+/**
+ * Outcome of one change of a bulk status update: UPDATED, UNCHANGED (already in that
+ * status), NOT_FOUND (no plan of the patient holds the procedure) or CONFLICT (a concurrent
+ * request left it in another status, given in status)
+ */
+public class ProcedureStatusResult {
+    private String procedureId;
+    private String planId;
+    private String previousStatus;
+    private String status;
+    private String result;
+
+    // Constructors
+    public ProcedureStatusResult() {}
+
+    public ProcedureStatusResult(String procedureId, String planId, String previousStatus, String status, String result) {
+        this.procedureId = procedureId;
+        this.planId = planId;
+        this.previousStatus = previousStatus;
+        this.status = status;
+        this.result = result;
+    }
+
+    // Getters and Setters
+    public String getProcedureId() { return procedureId; }
+    public void setProcedureId(String procedureId) { this.procedureId = procedureId; }
+
+    public String getPlanId() { return planId; }
+    public void setPlanId(String planId) { this.planId = planId; }
+
+    public String getPreviousStatus() { return previousStatus; }
+    public void setPreviousStatus(String previousStatus) { this.previousStatus = previousStatus; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getResult() { return result; }
+    public void setResult(String result) { this.result = result; }
+}
@@ -0,0 +1,44 @@
+package com.dentistplus.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Partial procedure update; only the fields that are set are changed
+ */
+public class ProcedureUpdate {
+    private String procedureName;
+    private String procedureCode;
+    private List<String> toothNumbers;
+    private BigDecimal costEstimate;
+    private String status;
+    private String notes;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime scheduledDate;
+
+    // Getters and Setters
+    public String getProcedureName() { return procedureName; }
+    public void setProcedureName(String procedureName) { this.procedureName = procedureName; }
+
+    public String getProcedureCode() { return procedureCode; }
+    public void setProcedureCode(String procedureCode) { this.procedureCode = procedureCode; }
+
+    public List<String> getToothNumbers() { return toothNumbers; }
+    public void setToothNumbers(List<String> toothNumbers) { this.toothNumbers = toothNumbers; }
+
+    public BigDecimal getCostEstimate() { return costEstimate; }
+    public void setCostEstimate(BigDecimal costEstimate) { this.costEstimate = costEstimate; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getNotes() { return notes; }
+    public void setNotes(String notes) { this.notes = notes; }
+
+    public LocalDateTime getScheduledDate() { return scheduledDate; }
+    public void setScheduledDate(LocalDateTime scheduledDate) { this.scheduledDate = scheduledDate; }
+}
@@ -0,0 +1,29 @@
+package com.dentistplus.dto;
+
+public class UploadSessionRequest {
+    private String filename;
+    private String fileType;
+    private String contentType;
+    private Long size;
+    private Integer chunkSize; // optional, default dentistplus.attachments.uploads.chunk-size
+    private String sha256;     // optional hex SHA-256 of the whole file
+
+    // Getters and Setters
+    public String getFilename() { return filename; }
+    public void setFilename(String filename) { this.filename = filename; }
+
+    public String getFileType() { return fileType; }
+    public void setFileType(String fileType) { this.fileType = fileType; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+
+    public Integer getChunkSize() { return chunkSize; }
+    public void setChunkSize(Integer chunkSize) { this.chunkSize = chunkSize; }
+
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+}
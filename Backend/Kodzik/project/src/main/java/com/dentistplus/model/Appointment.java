@@ -1,13 +1,18 @@
 package com.dentistplus.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import com.fasterxml.jackson.annotation.JsonFormat;
 
 import java.time.LocalDateTime;
 
 @Document(collection = "appointments")
+@CompoundIndex(name = "patient_id", def = "{'patientProfile.$id': 1, '_id': 1}")
+@CompoundIndex(name = "dentist_id", def = "{'dentist.$id': 1, '_id': 1}")
+@CompoundIndex(name = "dentist_date", def = "{'dentist.$id': 1, 'appointmentDate': 1}")
 public class Appointment {
     @Id
     private String id;
@@ -32,6 +37,10 @@ public class Appointment {
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     private LocalDateTime updatedAt;
 
+    // Optimistic locking; incremented by every write, including findAndModify transitions
+    @Version
+    private Long version;
+
     // Constructors
     public Appointment() {
         this.createdAt = LocalDateTime.now();
@@ -78,4 +87,7 @@ public class Appointment {
 
     public LocalDateTime getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.dentistplus.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One stored attachment content, addressed by its SHA-256. refs lists the ids of the
+ * attachment entries pointing at it and refCount is its size, set in the same update;
+ * the content is deleted when it drops to zero.
+ */
+@Document(collection = "attachment_blobs")
+public class AttachmentBlob {
+    @Id
+    private String id; // hex SHA-256 of the content
+
+    private String storageKey;
+    private long size;
+    private List<String> refs = new ArrayList<>();
+    private long refCount;
+
+    private LocalDateTime createdAt;
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getStorageKey() { return storageKey; }
+    public void setStorageKey(String storageKey) { this.storageKey = storageKey; }
+
+    public long getSize() { return size; }
+    public void setSize(long size) { this.size = size; }
+
+    public List<String> getRefs() { return refs; }
+    public void setRefs(List<String> refs) { this.refs = refs; }
+
+    public long getRefCount() { return refCount; }
+    public void setRefCount(long refCount) { this.refCount = refCount; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,50 @@
+package com.dentistplus.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Up to BucketStore.BUCKET_SIZE attachment metadata entries of one patient, oldest first.
+ * Appends go to the newest bucket, or start a new one when it is full.
+ */
+@Document(collection = "attachment_buckets")
+@CompoundIndex(name = "patient_bucket", def = "{'patientProfileId': 1, '_id': -1}")
+// Buckets written by BucketStore.appendAll carry their source and chunk number, stored once
+@CompoundIndex(name = "source_chunk", def = "{'sourceId': 1, 'sourceChunk': 1}", unique = true,
+               partialFilter = "{'sourceId': {'$exists': true}}")
+// Lets AttachmentBlobs check that no entry still uses content before deleting it
+@CompoundIndex(name = "storage_key", def = "{'entries.storageKey': 1}")
+public class AttachmentBucket {
+    @Id
+    private String id;
+
+    private String patientProfileId;
+    private int count;
+    private List<DentalRecord.Attachment> entries;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getPatientProfileId() { return patientProfileId; }
+    public void setPatientProfileId(String patientProfileId) { this.patientProfileId = patientProfileId; }
+
+    public int getCount() { return count; }
+    public void setCount(int count) { this.count = count; }
+
+    public List<DentalRecord.Attachment> getEntries() { return entries; }
+    public void setEntries(List<DentalRecord.Attachment> entries) { this.entries = entries; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,57 @@
+package com.dentistplus.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * One change of a patient's dental chart: the surfaces it set or cleared. Each delta is
+ * (slot << 4) | code, with slot = tooth index * 5 + surface as in DentalChart and code 0
+ * for a cleared surface. Versions are consecutive per patient.
+ */
+@Document(collection = "dental_chart_changes")
+@CompoundIndex(name = "patient_version", def = "{'patientProfileId': 1, 'version': 1}", unique = true)
+@CompoundIndex(name = "patient_changed_at", def = "{'patientProfileId': 1, 'changedAt': 1}")
+public class ChartChange {
+    @Id
+    private String id;
+
+    private String patientProfileId;
+    private long version;
+    private LocalDateTime changedAt;
+    private String changedBy;
+    private List<Integer> deltas;
+
+    // Constructors
+    public ChartChange() {}
+
+    public ChartChange(String patientProfileId, long version, LocalDateTime changedAt, String changedBy, List<Integer> deltas) {
+        this.patientProfileId = patientProfileId;
+        this.version = version;
+        this.changedAt = changedAt;
+        this.changedBy = changedBy;
+        this.deltas = deltas;
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getPatientProfileId() { return patientProfileId; }
+    public void setPatientProfileId(String patientProfileId) { this.patientProfileId = patientProfileId; }
+
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+
+    public LocalDateTime getChangedAt() { return changedAt; }
+    public void setChangedAt(LocalDateTime changedAt) { this.changedAt = changedAt; }
+
+    public String getChangedBy() { return changedBy; }
+    public void setChangedBy(String changedBy) { this.changedBy = changedBy; }
+
+    public List<Integer> getDeltas() { return deltas; }
+    public void setDeltas(List<Integer> deltas) { this.deltas = deltas; }
+}
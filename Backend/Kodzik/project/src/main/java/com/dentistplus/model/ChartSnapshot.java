@@ -0,0 +1,51 @@
+package com.dentistplus.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Full packed chart (see DentalChart) of a patient after the change with the same version.
+ * Written every snapshot-interval changes, so rebuilding a past chart replays at most
+ * that many changes.
+ */
+@Document(collection = "dental_chart_snapshots")
+@CompoundIndex(name = "patient_version", def = "{'patientProfileId': 1, 'version': -1}")
+public class ChartSnapshot {
+    @Id
+    private String id;
+
+    private String patientProfileId;
+    private long version;
+    private LocalDateTime changedAt;
+    private List<Integer> chart;
+
+    // Constructors
+    public ChartSnapshot() {}
+
+    public ChartSnapshot(String patientProfileId, long version, LocalDateTime changedAt, List<Integer> chart) {
+        this.patientProfileId = patientProfileId;
+        this.version = version;
+        this.changedAt = changedAt;
+        this.chart = chart;
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getPatientProfileId() { return patientProfileId; }
+    public void setPatientProfileId(String patientProfileId) { this.patientProfileId = patientProfileId; }
+
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+
+    public LocalDateTime getChangedAt() { return changedAt; }
+    public void setChangedAt(LocalDateTime changedAt) { this.changedAt = changedAt; }
+
+    public List<Integer> getChart() { return chart; }
+    public void setChart(List<Integer> chart) { this.chart = chart; }
+}
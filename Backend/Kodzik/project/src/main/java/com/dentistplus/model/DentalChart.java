@@ -0,0 +1,214 @@
+package com.dentistplus.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packed dental chart: one condition code per tooth surface in a fixed byte array indexed
+ * by FDI tooth (32 permanent, then 20 primary teeth) and surface; code 0 means not charted.
+ *
+ * In Mongo every tooth is one int holding its five surface codes in 4-bit nibbles
+ * ({@link #toStored()}), so a single surface can be changed in place with $bit.
+ */
+public final class DentalChart {
+
+    public static final int TEETH = 52;
+    public static final int SLOTS = TEETH * Surface.values().length;
+    public static final int BITS_PER_SURFACE = 4;
+    public static final int SURFACE_MASK = (1 << BITS_PER_SURFACE) - 1;
+
+    private static final int PERMANENT_TEETH = 32;
+    private static final String TOOTH_PREFIX = "tooth_";
+
+    public enum Surface {
+        OCCLUSAL, BUCCAL, LINGUAL, MESIAL, DISTAL;
+
+        public String key() { return name().toLowerCase(); }
+
+        public static Surface of(String key) {
+            for (Surface surface : values()) {
+                if (surface.key().equals(key)) {
+                    return surface;
+                }
+            }
+            throw new IllegalArgumentException("Invalid surface: " + key);
+        }
+    }
+
+    // Append only: the ordinal is persisted (code = ordinal + 1, at most 15)
+    public enum Condition {
+        HEALTHY, CARIES, FILLING, CROWN, IMPLANT, EXTRACTION, MISSING, PLAQUE;
+
+        public int code() { return ordinal() + 1; }
+
+        public static Condition of(String name) {
+            for (Condition condition : values()) {
+                if (condition.name().equals(name)) {
+                    return condition;
+                }
+            }
+            throw new IllegalArgumentException("Invalid condition: " + name);
+        }
+    }
+
+    private static final Surface[] SURFACES = Surface.values();
+    private static final Condition[] CONDITIONS = Condition.values();
+
+    private final byte[] codes;
+
+    public DentalChart() {
+        this.codes = new byte[SLOTS];
+    }
+
+    public static DentalChart fromStored(List<Integer> teeth) {
+        DentalChart chart = new DentalChart();
+        if (teeth != null) {
+            for (int tooth = 0; tooth < Math.min(teeth.size(), TEETH); tooth++) {
+                int packed = teeth.get(tooth) != null ? teeth.get(tooth) : 0;
+                for (Surface surface : SURFACES) {
+                    int code = (packed >>> shift(surface)) & SURFACE_MASK;
+                    chart.codes[offset(tooth, surface)] = (byte) (code <= CONDITIONS.length ? code : 0);
+                }
+            }
+        }
+        return chart;
+    }
+
+    /**
+     * Strict conversion of the map JSON format; unknown teeth, surfaces or conditions are rejected
+     */
+    public static DentalChart fromMap(Map<String, Map<String, String>> map) {
+        DentalChart chart = new DentalChart();
+        if (map != null) {
+            map.forEach((tooth, surfaces) -> {
+                int index = toothIndex(tooth);
+                if (surfaces != null) {
+                    surfaces.forEach((surface, condition) -> chart.set(index, Surface.of(surface),
+                        condition != null ? Condition.of(condition) : null));
+                }
+            });
+        }
+        return chart;
+    }
+
+    public List<Integer> toStored() {
+        List<Integer> teeth = new ArrayList<>(TEETH);
+        for (int tooth = 0; tooth < TEETH; tooth++) {
+            int packed = 0;
+            for (Surface surface : SURFACES) {
+                packed |= codes[offset(tooth, surface)] << shift(surface);
+            }
+            teeth.add(packed);
+        }
+        return teeth;
+    }
+
+    /**
+     * The map JSON format, charted teeth only, in FDI order
+     */
+    public Map<String, Map<String, String>> toMap() {
+        Map<String, Map<String, String>> map = new LinkedHashMap<>();
+        for (int tooth = 0; tooth < TEETH; tooth++) {
+            Map<String, String> surfaces = null;
+            for (Surface surface : SURFACES) {
+                Condition condition = get(tooth, surface);
+                if (condition != null) {
+                    if (surfaces == null) {
+                        surfaces = new LinkedHashMap<>();
+                        map.put(TOOTH_PREFIX + fdi(tooth), surfaces);
+                    }
+                    surfaces.put(surface.key(), condition.name());
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Compact wire format: byte [tooth index * 5 + surface ordinal] holds the condition code
+     */
+    public byte[] codes() {
+        return codes.clone();
+    }
+
+    public Condition get(int toothIndex, Surface surface) {
+        return condition(codes[offset(toothIndex, surface)]);
+    }
+
+    public void set(int toothIndex, Surface surface, Condition condition) {
+        codes[offset(toothIndex, surface)] = (byte) (condition != null ? condition.code() : 0);
+    }
+
+    /**
+     * Condition code of a slot (tooth index * 5 + surface ordinal), 0 when not charted
+     */
+    public int code(int slot) {
+        return codes[slot];
+    }
+
+    public void setCode(int slot, int code) {
+        if (code < 0 || code > CONDITIONS.length) {
+            throw new IllegalArgumentException("Invalid condition code: " + code);
+        }
+        codes[slot] = (byte) code;
+    }
+
+    public static int slot(int toothIndex, Surface surface) {
+        return offset(toothIndex, surface);
+    }
+
+    public static String toothKey(int slot) {
+        return TOOTH_PREFIX + fdi(slot / SURFACES.length);
+    }
+
+    public static Surface surface(int slot) {
+        return SURFACES[slot % SURFACES.length];
+    }
+
+    public static Condition condition(int code) {
+        return code == 0 ? null : CONDITIONS[code - 1];
+    }
+
+    public void clear(int toothIndex) {
+        Arrays.fill(codes, toothIndex * SURFACES.length, (toothIndex + 1) * SURFACES.length, (byte) 0);
+    }
+
+    /**
+     * Index of a "tooth_XX" key: FDI 11-48 map to 0-31, primary teeth 51-85 to 32-51
+     */
+    public static int toothIndex(String toothKey) {
+        if (toothKey != null && toothKey.length() == TOOTH_PREFIX.length() + 2 && toothKey.startsWith(TOOTH_PREFIX)) {
+            int quadrant = toothKey.charAt(TOOTH_PREFIX.length()) - '0';
+            int position = toothKey.charAt(TOOTH_PREFIX.length() + 1) - '0';
+            if (quadrant >= 1 && quadrant <= 4 && position >= 1 && position <= 8) {
+                return (quadrant - 1) * 8 + position - 1;
+            }
+            if (quadrant >= 5 && quadrant <= 8 && position >= 1 && position <= 5) {
+                return PERMANENT_TEETH + (quadrant - 5) * 5 + position - 1;
+            }
+        }
+        throw new IllegalArgumentException("Invalid tooth: " + toothKey);
+    }
+
+    public static int fdi(int toothIndex) {
+        if (toothIndex < PERMANENT_TEETH) {
+            return (toothIndex / 8 + 1) * 10 + toothIndex % 8 + 1;
+        }
+        int primary = toothIndex - PERMANENT_TEETH;
+        return (primary / 5 + 5) * 10 + primary % 5 + 1;
+    }
+
+    /**
+     * Bit position of a surface inside a stored tooth int
+     */
+    public static int shift(Surface surface) {
+        return surface.ordinal() * BITS_PER_SURFACE;
+    }
+
+    private static int offset(int toothIndex, Surface surface) {
+        return toothIndex * SURFACES.length + surface.ordinal();
+    }
+}
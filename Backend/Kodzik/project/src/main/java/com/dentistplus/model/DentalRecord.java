@@ -1,9 +1,12 @@
 package com.dentistplus.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -17,11 +20,26 @@ public class DentalRecord {
     @DBRef
     private PatientProfile patientProfile;
     
-    // JSON object mapping teeth to their surface conditions
-    // Example: {"tooth_18": {"occlusal": "HEALTHY", "buccal": "FILLING"}}
-    private Map<String, Map<String, String>> dentalChart;
+    // Packed surface conditions, one int per tooth (see DentalChart). Clients get the
+    // map format {"tooth_18": {"occlusal": "HEALTHY", "buccal": "FILLING"}} unless they
+    // ask for the compact byte format
+    private List<Integer> chart;
+
+    // Incremented by every chart update; numbers the entries of dental_chart_changes
+    private Long chartVersion;
+
+    // Changes written with the chart and not yet moved to dental_chart_changes
+    @JsonIgnore
+    private List<ChartChange> pendingChanges;
+
+    @Transient
+    private boolean compactChart;
     
+    // Stored in attachment_buckets / clinical_note_buckets; only the latest entries are
+    // filled in when the record is read
+    @Transient
     private List<Attachment> attachments;
+    @Transient
     private List<ClinicalNote> generalNotes;
     
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
@@ -32,12 +50,25 @@ public class DentalRecord {
 
     // Inner classes
     public static class Attachment {
+        // Set for uploaded content; metadata-only entries just carry a storageUrl
+        private String id;
         private String filename;
         private String fileType; // PANTOMOGRAPHIC, INTRAORAL, XRAY, etc.
         
         @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
         private LocalDateTime uploadDate;
         private String storageUrl;
+        private String contentType;
+        private Long size;
+        private String sha256;
+
+        // Key of the content in the AttachmentStorage backend
+        @JsonIgnore
+        private String storageKey;
+
+        // Set once the entry's id is in its blob's refs (see AttachmentBlobs)
+        @JsonIgnore
+        private Boolean counted;
 
         // Constructors
         public Attachment() {
@@ -52,6 +83,9 @@ public class DentalRecord {
         }
 
         // Getters and Setters
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+
         public String getFilename() { return filename; }
         public void setFilename(String filename) { this.filename = filename; }
 
@@ -63,6 +97,21 @@ public class DentalRecord {
 
         public String getStorageUrl() { return storageUrl; }
         public void setStorageUrl(String storageUrl) { this.storageUrl = storageUrl; }
+
+        public String getContentType() { return contentType; }
+        public void setContentType(String contentType) { this.contentType = contentType; }
+
+        public Long getSize() { return size; }
+        public void setSize(Long size) { this.size = size; }
+
+        public String getSha256() { return sha256; }
+        public void setSha256(String sha256) { this.sha256 = sha256; }
+
+        public String getStorageKey() { return storageKey; }
+        public void setStorageKey(String storageKey) { this.storageKey = storageKey; }
+
+        public Boolean getCounted() { return counted; }
+        public void setCounted(Boolean counted) { this.counted = counted; }
     }
 
     public static class ClinicalNote {
@@ -96,6 +145,7 @@ public class DentalRecord {
 
     // Constructors
     public DentalRecord() {
+        this.chart = new DentalChart().toStored();
         this.createdAt = LocalDateTime.now();
         this.updatedAt = LocalDateTime.now();
     }
@@ -112,8 +162,26 @@ public class DentalRecord {
     public PatientProfile getPatientProfile() { return patientProfile; }
     public void setPatientProfile(PatientProfile patientProfile) { this.patientProfile = patientProfile; }
 
-    public Map<String, Map<String, String>> getDentalChart() { return dentalChart; }
-    public void setDentalChart(Map<String, Map<String, String>> dentalChart) { this.dentalChart = dentalChart; }
+    @JsonIgnore
+    public DentalChart getChart() { return DentalChart.fromStored(chart); }
+    public void setChart(DentalChart chart) { this.chart = chart.toStored(); }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Map<String, Map<String, String>> getDentalChart() { return compactChart ? null : getChart().toMap(); }
+    public void setDentalChart(Map<String, Map<String, String>> dentalChart) { setChart(DentalChart.fromMap(dentalChart)); }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public byte[] getDentalChartCodes() { return compactChart ? getChart().codes() : null; }
+
+    public Long getChartVersion() { return chartVersion; }
+    public void setChartVersion(Long chartVersion) { this.chartVersion = chartVersion; }
+
+    public List<ChartChange> getPendingChanges() { return pendingChanges; }
+    public void setPendingChanges(List<ChartChange> pendingChanges) { this.pendingChanges = pendingChanges; }
+
+    @JsonIgnore
+    public boolean isCompactChart() { return compactChart; }
+    public void setCompactChart(boolean compactChart) { this.compactChart = compactChart; }
 
     public List<Attachment> getAttachments() { return attachments; }
     public void setAttachments(List<Attachment> attachments) { this.attachments = attachments; }
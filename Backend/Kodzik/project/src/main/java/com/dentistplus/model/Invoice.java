@@ -3,6 +3,7 @@ package com.dentistplus.model;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import com.fasterxml.jackson.annotation.JsonFormat;
 
 import java.math.BigDecimal;
@@ -11,6 +12,7 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 @Document(collection = "invoices")
+@CompoundIndex(name = "patient_id", def = "{'patientProfile.$id': 1, '_id': 1}")
 public class Invoice {
     @Id
     private String id;
@@ -24,6 +26,12 @@ public class Invoice {
     private List<LineItem> lineItems;
     private BigDecimal totalAmount;
     private String status; // PAID, UNPAID, PARTIAL
+
+    // Set together with PAID by the payment that paid the invoice
+    private String paymentId;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime paidAt;
     
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     private LocalDateTime createdAt;
@@ -37,6 +45,7 @@ public class Invoice {
         private BigDecimal cost;
         private Integer quantity;
         private String procedureCode;
+        private String procedureId; // PlannedProcedure billed by this item; absent on invoices from before tracking
 
         // Constructors
         public LineItem() {}
@@ -59,6 +68,9 @@ public class Invoice {
 
         public String getProcedureCode() { return procedureCode; }
         public void setProcedureCode(String procedureCode) { this.procedureCode = procedureCode; }
+
+        public String getProcedureId() { return procedureId; }
+        public void setProcedureId(String procedureId) { this.procedureId = procedureId; }
     }
 
     // Constructors
@@ -93,6 +105,12 @@ public class Invoice {
     public String getStatus() { return status; }
     public void setStatus(String status) { this.status = status; }
 
+    public String getPaymentId() { return paymentId; }
+    public void setPaymentId(String paymentId) { this.paymentId = paymentId; }
+
+    public LocalDateTime getPaidAt() { return paidAt; }
+    public void setPaidAt(LocalDateTime paidAt) { this.paidAt = paidAt; }
+
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
 
@@ -0,0 +1,150 @@
+package com.dentistplus.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clinic-wide invoicing run. Patients are split into id ranges (partitions) that are
+ * invoiced in parallel; each partition is leased by the node running it and checkpoints
+ * the last patient it finished, so an interrupted range is resumed after it by whichever
+ * node takes over the expired lease. Counters are cumulative over all partitions.
+ */
+@Document(collection = "invoice_batches")
+public class InvoiceBatch {
+    @Id
+    private String id;
+
+    private String status; // RUNNING, COMPLETED, FAILED
+    private String startedBy;
+    private List<Partition> partitions = new ArrayList<>();
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime startedAt;
+
+    // Moved forward by every checkpoint of any partition
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime heartbeatAt;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime finishedAt;
+
+    // Inner class for patient id ranges
+    public static class Partition {
+        private int index;
+        private String fromId; // first patient id, inclusive
+        private String toId;   // end of the range: exclusive, except for the last range
+        private boolean last;  // the last range, which includes toId
+        private long patientCount; // patients in the range when the batch started
+        private String lastPatientId; // checkpoint: every patient up to here is done
+        private String status; // PENDING, RUNNING, COMPLETED, FAILED
+
+        @JsonIgnore
+        private String owner; // node holding the lease
+
+        @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+        private LocalDateTime leaseUntil; // renewed by every checkpoint; others may take over after it
+
+        private long patientsProcessed;
+        private long invoicesCreated;
+        private String error;
+
+        // Constructors
+        public Partition() {}
+
+        public Partition(int index, String fromId, String toId, boolean last, long patientCount) {
+            this.index = index;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.last = last;
+            this.patientCount = patientCount;
+            this.status = "PENDING";
+        }
+
+        // Getters and Setters
+        public int getIndex() { return index; }
+        public void setIndex(int index) { this.index = index; }
+
+        public String getFromId() { return fromId; }
+        public void setFromId(String fromId) { this.fromId = fromId; }
+
+        public String getToId() { return toId; }
+        public void setToId(String toId) { this.toId = toId; }
+
+        public boolean isLast() { return last; }
+        public void setLast(boolean last) { this.last = last; }
+
+        public long getPatientCount() { return patientCount; }
+        public void setPatientCount(long patientCount) { this.patientCount = patientCount; }
+
+        public String getLastPatientId() { return lastPatientId; }
+        public void setLastPatientId(String lastPatientId) { this.lastPatientId = lastPatientId; }
+
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+
+        public String getOwner() { return owner; }
+        public void setOwner(String owner) { this.owner = owner; }
+
+        public LocalDateTime getLeaseUntil() { return leaseUntil; }
+        public void setLeaseUntil(LocalDateTime leaseUntil) { this.leaseUntil = leaseUntil; }
+
+        public long getPatientsProcessed() { return patientsProcessed; }
+        public void setPatientsProcessed(long patientsProcessed) { this.patientsProcessed = patientsProcessed; }
+
+        public long getInvoicesCreated() { return invoicesCreated; }
+        public void setInvoicesCreated(long invoicesCreated) { this.invoicesCreated = invoicesCreated; }
+
+        public String getError() { return error; }
+        public void setError(String error) { this.error = error; }
+    }
+
+    // Progress, derived from the partitions
+    public long getPatientCount() {
+        return partitions.stream().mapToLong(Partition::getPatientCount).sum();
+    }
+
+    public long getPatientsProcessed() {
+        return partitions.stream().mapToLong(Partition::getPatientsProcessed).sum();
+    }
+
+    public long getInvoicesCreated() {
+        return partitions.stream().mapToLong(Partition::getInvoicesCreated).sum();
+    }
+
+    public double getPatientsPerSecond() {
+        if (startedAt == null) {
+            return 0;
+        }
+        long millis = Duration.between(startedAt, finishedAt != null ? finishedAt : LocalDateTime.now()).toMillis();
+        return millis > 0 ? getPatientsProcessed() * 1000.0 / millis : 0;
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getStartedBy() { return startedBy; }
+    public void setStartedBy(String startedBy) { this.startedBy = startedBy; }
+
+    public List<Partition> getPartitions() { return partitions; }
+    public void setPartitions(List<Partition> partitions) { this.partitions = partitions; }
+
+    public LocalDateTime getStartedAt() { return startedAt; }
+    public void setStartedAt(LocalDateTime startedAt) { this.startedAt = startedAt; }
+
+    public LocalDateTime getHeartbeatAt() { return heartbeatAt; }
+    public void setHeartbeatAt(LocalDateTime heartbeatAt) { this.heartbeatAt = heartbeatAt; }
+
+    public LocalDateTime getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(LocalDateTime finishedAt) { this.finishedAt = finishedAt; }
+}
@@ -3,6 +3,7 @@ package com.dentistplus.model;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import jakarta.validation.constraints.NotBlank;
 
@@ -10,6 +11,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @Document(collection = "patient_profiles")
+@CompoundIndex(name = "user", def = "{'user.$id': 1}")
 public class PatientProfile {
     @Id
     private String id;
@@ -0,0 +1,62 @@
+package com.dentistplus.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Claim of one 5-minute slot by a dentist or a patient for an appointment.
+ * The unique index makes a slot claimable exactly once per owner across all nodes.
+ */
+@Document(collection = "slot_reservations")
+@CompoundIndex(name = "owner_slot", def = "{'ownerType': 1, 'ownerId': 1, 'slotStart': 1}", unique = true)
+public class SlotReservation {
+    @Id
+    private String id;
+
+    private String ownerType; // DENTIST, PATIENT
+    private String ownerId;   // dentist user id or patient profile id
+    private LocalDateTime slotStart;
+
+    @Indexed
+    private String appointmentId;
+
+    // Past reservations are removed by Mongo's TTL monitor
+    @Indexed(expireAfterSeconds = 0)
+    private LocalDateTime expiresAt;
+
+    // Constructors
+    public SlotReservation() {}
+
+    public SlotReservation(String id, String ownerType, String ownerId, LocalDateTime slotStart,
+                           String appointmentId, LocalDateTime expiresAt) {
+        this.id = id;
+        this.ownerType = ownerType;
+        this.ownerId = ownerId;
+        this.slotStart = slotStart;
+        this.appointmentId = appointmentId;
+        this.expiresAt = expiresAt;
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getOwnerType() { return ownerType; }
+    public void setOwnerType(String ownerType) { this.ownerType = ownerType; }
+
+    public String getOwnerId() { return ownerId; }
+    public void setOwnerId(String ownerId) { this.ownerId = ownerId; }
+
+    public LocalDateTime getSlotStart() { return slotStart; }
+    public void setSlotStart(LocalDateTime slotStart) { this.slotStart = slotStart; }
+
+    public String getAppointmentId() { return appointmentId; }
+    public void setAppointmentId(String appointmentId) { this.appointmentId = appointmentId; }
+
+    public LocalDateTime getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(LocalDateTime expiresAt) { this.expiresAt = expiresAt; }
+}
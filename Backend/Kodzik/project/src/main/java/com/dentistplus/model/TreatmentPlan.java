@@ -3,13 +3,19 @@ package com.dentistplus.model;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 
 @Document(collection = "treatment_plans")
+@CompoundIndex(name = "patient_id", def = "{'patientProfile.$id': 1, '_id': 1}")
+// PlannedProcedure.id is stored as _id; procedure updates find their plan through it
+@CompoundIndex(name = "procedure_id", def = "{'procedures._id': 1}")
+@CompoundIndex(name = "patient_uninvoiced", def = "{'patientProfile.$id': 1, 'procedures.status': 1, 'procedures.invoiceId': 1}")
 public class TreatmentPlan {
     @Id
     private String id;
@@ -46,6 +52,15 @@ public class TreatmentPlan {
         @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
         private LocalDateTime updatedAt;
 
+        // Set when a completed procedure is claimed for an invoice; invoicedAt once that
+        // invoice is written. Only InvoiceService changes them
+        @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+        private String invoiceId;
+
+        @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+        @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+        private LocalDateTime invoicedAt;
+
         // Constructors
         public PlannedProcedure() {
             this.createdAt = LocalDateTime.now();
@@ -91,6 +106,12 @@ public class TreatmentPlan {
 
         public LocalDateTime getUpdatedAt() { return updatedAt; }
         public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+
+        public String getInvoiceId() { return invoiceId; }
+        public void setInvoiceId(String invoiceId) { this.invoiceId = invoiceId; }
+
+        public LocalDateTime getInvoicedAt() { return invoicedAt; }
+        public void setInvoicedAt(LocalDateTime invoicedAt) { this.invoicedAt = invoicedAt; }
     }
 
     // Constructors
@@ -0,0 +1,120 @@
+package com.dentistplus.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resumable attachment upload. Chunks are staged on disk as they arrive, in any order;
+ * receivedChunks is grown with $addToSet so parallel chunk uploads never overwrite each
+ * other. The session id becomes the id of the attachment it produces, unless the patient
+ * already had the same content; attachmentId records which entry the upload resolved to.
+ */
+@Document(collection = "upload_sessions")
+public class UploadSession {
+    @Id
+    private String id;
+
+    private String patientProfileId;
+    private String filename;
+    private String fileType;
+    private String contentType;
+    private long size;
+    private int chunkSize;
+    private int chunkCount;
+    private String sha256; // optional checksum of the whole file, checked on completion
+    private List<Integer> receivedChunks = new ArrayList<>();
+
+    private String status; // OPEN, FINALIZING, COMPLETED
+    private String attachmentId; // set on completion
+
+    @JsonIgnore
+    private String createdBy;
+
+    @JsonIgnore
+    private LocalDateTime finalizingSince;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime createdAt;
+
+    // Pushed forward by every chunk; expired sessions and their chunks are swept
+    @Indexed
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime expiresAt;
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getPatientProfileId() { return patientProfileId; }
+    public void setPatientProfileId(String patientProfileId) { this.patientProfileId = patientProfileId; }
+
+    public String getFilename() { return filename; }
+    public void setFilename(String filename) { this.filename = filename; }
+
+    public String getFileType() { return fileType; }
+    public void setFileType(String fileType) { this.fileType = fileType; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public long getSize() { return size; }
+    public void setSize(long size) { this.size = size; }
+
+    public int getChunkSize() { return chunkSize; }
+    public void setChunkSize(int chunkSize) { this.chunkSize = chunkSize; }
+
+    public int getChunkCount() { return chunkCount; }
+    public void setChunkCount(int chunkCount) { this.chunkCount = chunkCount; }
+
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+
+    public List<Integer> getReceivedChunks() { return receivedChunks; }
+    public void setReceivedChunks(List<Integer> receivedChunks) { this.receivedChunks = receivedChunks; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getAttachmentId() { return attachmentId; }
+    public void setAttachmentId(String attachmentId) { this.attachmentId = attachmentId; }
+
+    public String getCreatedBy() { return createdBy; }
+    public void setCreatedBy(String createdBy) { this.createdBy = createdBy; }
+
+    public LocalDateTime getFinalizingSince() { return finalizingSince; }
+    public void setFinalizingSince(LocalDateTime finalizingSince) { this.finalizingSince = finalizingSince; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(LocalDateTime expiresAt) { this.expiresAt = expiresAt; }
+
+    /**
+     * Size in bytes of the given chunk; every chunk but the last is chunkSize long
+     */
+    public long chunkLength(int index) {
+        return index < chunkCount - 1 ? chunkSize : size - (long) chunkSize * (chunkCount - 1);
+    }
+
+    public List<Integer> getMissingChunks() {
+        boolean[] received = new boolean[chunkCount];
+        if (receivedChunks != null) {
+            receivedChunks.forEach(index -> received[index] = true);
+        }
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            if (!received[i]) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+}
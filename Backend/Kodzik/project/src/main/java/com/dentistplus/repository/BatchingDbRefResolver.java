@@ -0,0 +1,110 @@
+package com.dentistplus.repository;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.MongoDatabaseUtils;
+import org.springframework.data.mongodb.core.convert.DbRefProxyHandler;
+import org.springframework.data.mongodb.core.convert.DbRefResolverCallback;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * DbRefResolver backed by the per-request ReferenceCache. Eager references are served
+ * from the cache when possible, and prefetch() loads every reference of a result set
+ * with one $in query per collection before the documents are converted, so reading
+ * N appointments costs a constant number of queries instead of 2N (+N for profile users).
+ */
+public class BatchingDbRefResolver extends DefaultDbRefResolver {
+
+    private final MongoDatabaseFactory mongoDbFactory;
+
+    public BatchingDbRefResolver(MongoDatabaseFactory mongoDbFactory) {
+        super(mongoDbFactory);
+        this.mongoDbFactory = mongoDbFactory;
+    }
+
+    @Override
+    public Object resolveDbRef(MongoPersistentProperty property, @Nullable DBRef dbref,
+                               DbRefResolverCallback callback, DbRefProxyHandler handler) {
+        Optional<ReferenceCache> cache = ReferenceCache.current();
+        if (dbref == null || cache.isEmpty() || property.getDBRef() == null || property.getDBRef().lazy()) {
+            return super.resolveDbRef(property, dbref, callback, handler);
+        }
+
+        Class<?> type = property.getActualType();
+        Object entity = cache.get().getEntity(dbref.getCollectionName(), dbref.getId(), type);
+        if (entity == null) {
+            entity = super.resolveDbRef(property, dbref, callback, handler);
+            if (entity != null) {
+                cache.get().putEntity(dbref.getCollectionName(), dbref.getId(), type, entity);
+            }
+        }
+        return entity;
+    }
+
+    @Override
+    public Document fetch(DBRef dbRef) {
+        Optional<ReferenceCache> cache = ReferenceCache.current();
+        if (cache.isEmpty()) {
+            return super.fetch(dbRef);
+        }
+        if (cache.get().containsDocument(dbRef.getCollectionName(), dbRef.getId())) {
+            return cache.get().getDocument(dbRef.getCollectionName(), dbRef.getId());
+        }
+
+        Document document = super.fetch(dbRef);
+        cache.get().putDocument(dbRef.getCollectionName(), dbRef.getId(), document);
+        return document;
+    }
+
+    /**
+     * Load every document referenced from the given raw documents, and transitively from
+     * the referenced ones (appointment -> patient profile -> user), with one $in query
+     * per collection and level. Only effective inside a request.
+     */
+    public void prefetch(Collection<Document> documents) {
+        Optional<ReferenceCache> current = ReferenceCache.current();
+        if (current.isEmpty()) {
+            return;
+        }
+        ReferenceCache cache = current.get();
+
+        Collection<Document> level = documents;
+        while (!level.isEmpty()) {
+            Map<String, Set<Object>> missing = new LinkedHashMap<>();
+            for (Document document : level) {
+                for (Object value : document.values()) {
+                    if (value instanceof DBRef ref && !cache.containsDocument(ref.getCollectionName(), ref.getId())) {
+                        missing.computeIfAbsent(ref.getCollectionName(), c -> new LinkedHashSet<>()).add(ref.getId());
+                    }
+                }
+            }
+
+            List<Document> fetched = new ArrayList<>();
+            missing.forEach((collection, ids) -> {
+                Set<Object> dangling = new HashSet<>(ids);
+                for (Document target : MongoDatabaseUtils.getDatabase(mongoDbFactory).getCollection(collection)
+                        .find(Filters.in("_id", ids))) {
+                    cache.putDocument(collection, target.get("_id"), target);
+                    dangling.remove(target.get("_id"));
+                    fetched.add(target);
+                }
+                dangling.forEach(id -> cache.putDocument(collection, id, null));
+            });
+            level = fetched;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.dentistplus.repository;
+
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only per-patient history kept in side documents of at most BUCKET_SIZE entries
+ * ({patientProfileId, count, entries[]}), so no single document grows without bound.
+ * An append is one atomic $push into the newest bucket, or a new bucket when that one is
+ * full; reads walk buckets newest first and stop as soon as a page is full.
+ */
+@Component
+public class BucketStore {
+
+    public static final int BUCKET_SIZE = 100;
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    // Buckets hold up to 100 entries, so a page rarely needs more than two or three
+    private static final int CURSOR_BATCH_SIZE = 2;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Only the newest bucket takes appends: an older one with room (left by two concurrent
+     * first appends, or a partial last chunk of appendAll) would put the entry in the middle
+     * of the history, which is read in bucket order.
+     */
+    public void append(Class<?> bucketType, String patientProfileId, Object entry) {
+        Query newest = new Query(Criteria.where("patientProfileId").is(patientProfileId))
+            .with(Sort.by(Sort.Direction.DESC, "_id"));
+        newest.fields().include("count");
+        String collection = mongoTemplate.getCollectionName(bucketType);
+
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+            .push("entries", entry)
+            .inc("count", 1)
+            .set("updatedAt", now)
+            .setOnInsert("patientProfileId", patientProfileId)
+            .setOnInsert("createdAt", now);
+
+        while (true) {
+            Document bucket = mongoTemplate.findOne(newest, Document.class, collection);
+            if (bucket == null || bucket.getInteger("count", 0) >= BUCKET_SIZE) {
+                // Starts a new bucket, which becomes the newest
+                mongoTemplate.upsert(new Query(Criteria.where("_id").is(new ObjectId())), update, bucketType);
+                return;
+            }
+            // Conditional on room, in case concurrent appends filled it since the read
+            Query withRoom = new Query(Criteria.where("_id").is(bucket.get("_id")).and("count").lt(BUCKET_SIZE));
+            if (mongoTemplate.updateFirst(withRoom, update, bucketType).getModifiedCount() == 1) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Store entries that were read elsewhere as raw documents, oldest first, in full buckets.
+     * Each bucket is tagged with sourceId and its chunk number, so repeating the call for
+     * the same source (after an interrupted run) skips the buckets that are already stored.
+     */
+    public void appendAll(Class<?> bucketType, String patientProfileId, String sourceId, List<?> entries) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Document> buckets = new ArrayList<>();
+        for (int from = 0; from < entries.size(); from += BUCKET_SIZE) {
+            List<?> chunk = entries.subList(from, Math.min(from + BUCKET_SIZE, entries.size()));
+            buckets.add(new Document("_id", new ObjectId())
+                .append("patientProfileId", patientProfileId)
+                .append("count", chunk.size())
+                .append("entries", new ArrayList<>(chunk))
+                .append("sourceId", sourceId)
+                .append("sourceChunk", from / BUCKET_SIZE)
+                .append("createdAt", now)
+                .append("updatedAt", now));
+        }
+        if (buckets.isEmpty()) {
+            return;
+        }
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, mongoTemplate.getCollectionName(bucketType))
+                .insert(buckets)
+                .execute();
+        } catch (BulkOperationException e) {
+            // Duplicates on source_chunk are chunks an earlier run already stored
+            if (!e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Entries newest first. The cursor points at the last returned entry (bucket id and
+     * position), so the next page continues inside the same bucket.
+     */
+    public <E> CursorPage<E> findNewestFirst(Class<?> bucketType, String patientProfileId, Class<E> entryType,
+                                             String cursor, Integer limit) {
+        int size = limit == null ? CursorPageRequest.DEFAULT_LIMIT : limit;
+        if (size < 1 || size > CursorPageRequest.MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + CursorPageRequest.MAX_LIMIT);
+        }
+        Position after = Position.decode(cursor);
+
+        Query query = new Query(Criteria.where("patientProfileId").is(patientProfileId));
+        if (after != null) {
+            query.addCriteria(Criteria.where("_id").lte(new ObjectId(after.bucketId())));
+        }
+        query.with(Sort.by(Sort.Direction.DESC, "_id"));
+        query.fields().include("entries");
+        query.cursorBatchSize(CURSOR_BATCH_SIZE);
+
+        List<E> items = new ArrayList<>(size);
+        Position last = null;
+        boolean more = false;
+        try (Stream<Document> buckets = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(bucketType))) {
+            Iterator<Document> iterator = buckets.iterator();
+            while (!more && iterator.hasNext()) {
+                Document bucket = iterator.next();
+                String bucketId = bucket.get("_id").toString();
+                List<Document> entries = bucket.getList("entries", Document.class, List.of());
+
+                int from = entries.size();
+                if (after != null && after.bucketId().equals(bucketId)) {
+                    from = Math.min(after.index(), from);
+                }
+                for (int i = from - 1; i >= 0; i--) {
+                    if (items.size() == size) {
+                        more = true;
+                        break;
+                    }
+                    items.add(mongoTemplate.getConverter().read(entryType, entries.get(i)));
+                    last = new Position(bucketId, i);
+                }
+            }
+        }
+        return new CursorPage<>(items, more ? last.encode() : null);
+    }
+
+    /**
+     * The latest entries in chronological order, for embedding in a record view
+     */
+    public <E> List<E> findRecent(Class<?> bucketType, String patientProfileId, Class<E> entryType, int limit) {
+        List<E> recent = new ArrayList<>(findNewestFirst(bucketType, patientProfileId, entryType, null, limit).getItems());
+        Collections.reverse(recent);
+        return recent;
+    }
+
+    private record Position(String bucketId, int index) {
+
+        String encode() {
+            return CursorPageRequest.encode(bucketId + ":" + index);
+        }
+
+        static Position decode(String cursor) {
+            if (cursor == null || cursor.isEmpty()) {
+                return null;
+            }
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII).split(":");
+                if (parts.length == 2 && ObjectId.isValid(parts[0])) {
+                    return new Position(parts[0], Integer.parseInt(parts[1]));
+                }
+            } catch (IllegalArgumentException e) {
+                // fall through
+            }
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
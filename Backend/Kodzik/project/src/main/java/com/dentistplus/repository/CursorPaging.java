@@ -0,0 +1,85 @@
+package com.dentistplus.repository;
+
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Keyset pagination over _id: each page is an index range scan
+ * ({@code _id > cursor}, sorted, limit + 1) instead of skip/offset.
+ */
+@Component
+public class CursorPaging {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private EntityReader entityReader;
+
+    @Autowired
+    private SummaryReader summaryReader;
+
+    /**
+     * Filter on the id of a @DBRef field without resolving the reference
+     */
+    public static Criteria byReference(String field, String id) {
+        if (!ObjectId.isValid(id)) {
+            throw new IllegalArgumentException("Invalid id: " + id);
+        }
+        return Criteria.where(field + ".$id").is(new ObjectId(id));
+    }
+
+    public <T> CursorPage<T> find(Criteria filter, CursorPageRequest page, Class<T> type, Function<T, String> idOf) {
+        List<T> rows = entityReader.find(pageQuery(filter, page), type);
+        return toPage(rows, page, idOf);
+    }
+
+    /**
+     * Like find, but reads only the given fields of the source collection into a summary type
+     */
+    public <S> CursorPage<S> findSummaries(Criteria filter, CursorPageRequest page, Class<?> source,
+                                           Class<S> summaryType, String... fields) {
+        Query query = pageQuery(filter, page);
+        query.fields().include(fields);
+
+        List<Document> rows = mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(source));
+        CursorPage<Document> documents = toPage(rows, page, row -> row.get("_id").toString());
+        return new CursorPage<>(summaryReader.read(documents.getItems(), summaryType), documents.getNextCursor());
+    }
+
+    private Query pageQuery(Criteria filter, CursorPageRequest page) {
+        Query query = new Query();
+        if (filter != null) {
+            query.addCriteria(filter);
+        }
+        if (page.getAfterId() != null) {
+            Criteria after = Criteria.where("_id");
+            ObjectId afterId = new ObjectId(page.getAfterId());
+            query.addCriteria(page.isDescending() ? after.lt(afterId) : after.gt(afterId));
+        }
+        query.with(Sort.by(page.isDescending() ? Sort.Direction.DESC : Sort.Direction.ASC, "_id"));
+        // Fetch one extra row to learn whether another page exists
+        query.limit(page.getLimit() + 1);
+        return query;
+    }
+
+    private static <T> CursorPage<T> toPage(List<T> rows, CursorPageRequest page, Function<T, String> idOf) {
+        if (rows.size() <= page.getLimit()) {
+            return new CursorPage<>(rows, null);
+        }
+
+        List<T> items = rows.subList(0, page.getLimit());
+        return new CursorPage<>(items, CursorPageRequest.encode(idOf.apply(items.get(items.size() - 1))));
+    }
+}
@@ -0,0 +1,38 @@
+package com.dentistplus.repository;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads full entities for a query with all of their @DBRefs batch-loaded up front
+ */
+@Component
+public class EntityReader {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BatchingDbRefResolver dbRefResolver;
+
+    public <T> List<T> find(Query query, Class<T> type) {
+        List<Document> rows = mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(type));
+        return read(rows, type);
+    }
+
+    public <T> List<T> read(List<Document> rows, Class<T> type) {
+        dbRefResolver.prefetch(rows);
+
+        List<T> entities = new ArrayList<>(rows.size());
+        for (Document row : rows) {
+            entities.add(mongoTemplate.getConverter().read(type, row));
+        }
+        return entities;
+    }
+}
@@ -2,15 +2,19 @@ package com.dentistplus.repository;
 
 import com.dentistplus.model.PatientProfile;
 import com.dentistplus.model.User;
+import org.bson.types.ObjectId;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface PatientProfileRepository extends MongoRepository<PatientProfile, String> {
     Optional<PatientProfile> findByUser(User user);
     Optional<PatientProfile> findByUser_Id(String userId);
-    List<PatientProfile> findByFirstNameContainingIgnoreCaseOrLastNameContainingIgnoreCase(String firstName, String lastName);
+
+    // Only the _id is projected, so the user DBRef is never resolved
+    @Query(value = "{ 'user.$id' : ?0 }", fields = "{ '_id' : 1 }")
+    Optional<PatientProfile> findIdByUserId(ObjectId userId);
 }
\ No newline at end of file
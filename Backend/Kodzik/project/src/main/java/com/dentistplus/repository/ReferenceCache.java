@@ -0,0 +1,81 @@
+package com.dentistplus.repository;
+
+import org.bson.Document;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Per-request identity map for @DBRef targets. Each referenced document is fetched at
+ * most once per request and materialized once per target type, so a page of
+ * appointments with the same dentist shares a single User instance.
+ */
+public class ReferenceCache {
+
+    static final String ATTRIBUTE = ReferenceCache.class.getName();
+
+    private final Map<Key, Document> documents = new HashMap<>();
+    private final Map<Key, Map<Class<?>, Object>> entities = new HashMap<>();
+
+    /**
+     * Cache of the current HTTP request, created on first use; empty outside of requests
+     */
+    public static Optional<ReferenceCache> current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return Optional.empty();
+        }
+        ReferenceCache cache = (ReferenceCache) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (cache == null) {
+            cache = new ReferenceCache();
+            attributes.setAttribute(ATTRIBUTE, cache, RequestAttributes.SCOPE_REQUEST);
+        }
+        return Optional.of(cache);
+    }
+
+    public boolean containsDocument(String collection, Object id) {
+        return documents.containsKey(new Key(collection, id));
+    }
+
+    public Document getDocument(String collection, Object id) {
+        return documents.get(new Key(collection, id));
+    }
+
+    /**
+     * A null document records a dangling reference so it is not queried again
+     */
+    public void putDocument(String collection, Object id, Document document) {
+        documents.put(new Key(collection, id), document);
+    }
+
+    public Object getEntity(String collection, Object id, Class<?> type) {
+        Map<Class<?>, Object> byType = entities.get(new Key(collection, id));
+        return byType != null ? byType.get(type) : null;
+    }
+
+    public void putEntity(String collection, Object id, Class<?> type, Object entity) {
+        entities.computeIfAbsent(new Key(collection, id), key -> new HashMap<>()).put(type, entity);
+    }
+
+    /**
+     * Forget a document after it was written in this request
+     */
+    public void evict(String collection, Object id) {
+        Key key = new Key(collection, id);
+        documents.remove(key);
+        entities.remove(key);
+    }
+
+    /**
+     * Forget everything after a write whose targets are not known
+     */
+    public void clear() {
+        documents.clear();
+        entities.clear();
+    }
+
+    private record Key(String collection, Object id) {}
+}
@@ -0,0 +1,28 @@
+package com.dentistplus.repository;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Keeps the request's ReferenceCache consistent with writes made during the same request.
+ * Registered as a driver command listener, so it sees every write - repository saves as
+ * well as MongoTemplate updateFirst/updateMulti/findAndModify and bulk operations, which
+ * publish no mapping events. Multi-document updates do not say which documents changed,
+ * so any write clears the whole request cache.
+ */
+@Component
+public class ReferenceCacheListener implements CommandListener {
+
+    private static final Set<String> WRITE_COMMANDS = Set.of("insert", "update", "delete", "findAndModify", "bulkWrite");
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        // The synchronous driver notifies on the thread that ran the command, i.e. the request thread
+        if (WRITE_COMMANDS.contains(event.getCommandName())) {
+            ReferenceCache.current().ifPresent(ReferenceCache::clear);
+        }
+    }
+}
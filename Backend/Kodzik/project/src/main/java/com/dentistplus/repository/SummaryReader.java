@@ -0,0 +1,82 @@
+package com.dentistplus.repository;
+
+import com.mongodb.DBRef;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads list-view summaries from field-projected raw documents. @DBRef fields are not
+ * resolved one document at a time: every reference on a page is looked up with a single
+ * $in query per target collection that fetches only the referenced names.
+ */
+@Component
+public class SummaryReader {
+
+    private static final String[] REFERENCE_FIELDS = { "firstName", "lastName" };
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    public <S> List<S> find(Query query, Class<?> source, Class<S> summaryType) {
+        return read(mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(source)), summaryType);
+    }
+
+    public <S> List<S> read(List<Document> documents, Class<S> summaryType) {
+        resolveReferences(documents);
+
+        List<S> summaries = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            summaries.add(mongoTemplate.getConverter().read(summaryType, document));
+        }
+        return summaries;
+    }
+
+    /**
+     * Replace each DBRef with an embedded {_id, firstName, lastName} document
+     */
+    private void resolveReferences(List<Document> documents) {
+        Map<String, Set<Object>> idsByCollection = new HashMap<>();
+        for (Document document : documents) {
+            for (Object value : document.values()) {
+                if (value instanceof DBRef ref) {
+                    idsByCollection.computeIfAbsent(ref.getCollectionName(), c -> new LinkedHashSet<>()).add(ref.getId());
+                }
+            }
+        }
+        if (idsByCollection.isEmpty()) {
+            return;
+        }
+
+        Map<String, Map<Object, Document>> targets = new HashMap<>();
+        idsByCollection.forEach((collection, ids) -> {
+            Query query = new Query(Criteria.where("_id").in(ids));
+            query.fields().include(REFERENCE_FIELDS);
+
+            Map<Object, Document> byId = new HashMap<>();
+            for (Document target : mongoTemplate.find(query, Document.class, collection)) {
+                byId.put(target.get("_id"), target);
+            }
+            targets.put(collection, byId);
+        });
+
+        for (Document document : documents) {
+            for (Map.Entry<String, Object> field : document.entrySet()) {
+                if (field.getValue() instanceof DBRef ref) {
+                    Document target = targets.get(ref.getCollectionName()).get(ref.getId());
+                    field.setValue(target != null ? target : new Document("_id", ref.getId()));
+                }
+            }
+        }
+    }
+}
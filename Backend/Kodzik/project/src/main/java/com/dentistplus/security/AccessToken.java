@@ -0,0 +1,29 @@
+package com.dentistplus.security;
+
+import java.time.Instant;
+
+/**
+ * Claims carried by a verified access token
+ */
+public class AccessToken {
+    private final String token;
+    private final UserPrincipal principal;
+    private final String patientProfileId;
+    private final Instant expiresAt;
+
+    public AccessToken(String token, UserPrincipal principal, String patientProfileId, Instant expiresAt) {
+        this.token = token;
+        this.principal = principal;
+        this.patientProfileId = patientProfileId;
+        this.expiresAt = expiresAt;
+    }
+
+    // Getters
+    public String getToken() { return token; }
+
+    public UserPrincipal getPrincipal() { return principal; }
+
+    public String getPatientProfileId() { return patientProfileId; }
+
+    public Instant getExpiresAt() { return expiresAt; }
+}
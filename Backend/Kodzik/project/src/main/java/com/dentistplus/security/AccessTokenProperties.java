@@ -0,0 +1,35 @@
+package com.dentistplus.security;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Signing keys and lifetime of access tokens.
+ * To rotate, add a new key id, switch activeKeyId to it and remove the old key
+ * once tokens signed with it have expired.
+ */
+@Component
+@ConfigurationProperties(prefix = "dentistplus.security.token")
+public class AccessTokenProperties {
+    private Duration ttl = Duration.ofHours(8);
+    private String activeKeyId;
+    private Map<String, String> keys = new LinkedHashMap<>();
+    private boolean required = false;
+
+    // Getters and Setters
+    public Duration getTtl() { return ttl; }
+    public void setTtl(Duration ttl) { this.ttl = ttl; }
+
+    public String getActiveKeyId() { return activeKeyId; }
+    public void setActiveKeyId(String activeKeyId) { this.activeKeyId = activeKeyId; }
+
+    public Map<String, String> getKeys() { return keys; }
+    public void setKeys(Map<String, String> keys) { this.keys = keys; }
+
+    public boolean isRequired() { return required; }
+    public void setRequired(boolean required) { this.required = required; }
+}
@@ -0,0 +1,147 @@
+package com.dentistplus.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Issues and verifies HMAC-SHA256 signed access tokens of the form
+ * {@code keyId.payload.signature} (payload and signature base64url encoded).
+ * Verification is a pure CPU check, so any node holding the keys can serve any request.
+ */
+@Component
+public class AccessTokenService {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MIN_KEY_BYTES = 32;
+
+    // Default key in application.yml; only usable with the dev or test profile
+    static final String PLACEHOLDER_SECRET = "dev-only-secret-change-me-in-production-0000";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    @Autowired
+    private AccessTokenProperties properties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Environment environment;
+
+    private final Map<String, SecretKeySpec> keys = new HashMap<>();
+
+    @PostConstruct
+    void loadKeys() {
+        boolean devProfile = environment.acceptsProfiles(Profiles.of("dev", "test"));
+        properties.getKeys().forEach((keyId, secret) -> {
+            if (PLACEHOLDER_SECRET.equals(secret) && !devProfile) {
+                throw new IllegalStateException("Access token key '" + keyId + "' is the built-in placeholder; set ACCESS_TOKEN_SECRET"
+                    + " (or run with the dev profile)");
+            }
+            byte[] bytes = secret.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length < MIN_KEY_BYTES) {
+                throw new IllegalStateException("Access token key '" + keyId + "' must be at least " + MIN_KEY_BYTES + " bytes");
+            }
+            keys.put(keyId, new SecretKeySpec(bytes, ALGORITHM));
+        });
+        if (!keys.containsKey(properties.getActiveKeyId())) {
+            throw new IllegalStateException("Active access token key '" + properties.getActiveKeyId() + "' is not configured");
+        }
+    }
+
+    /**
+     * Issue a token for a freshly authenticated user
+     */
+    public AccessToken issue(UserPrincipal principal, String patientProfileId) {
+        Instant expiresAt = Instant.now().plus(properties.getTtl());
+
+        ObjectNode payload = objectMapper.createObjectNode();
+        payload.put("sub", principal.getUserId());
+        payload.put("usr", principal.getUsername());
+        principal.getRoles().forEach(payload.putArray("roles")::add);
+        if (patientProfileId != null) {
+            payload.put("pp", patientProfileId);
+        }
+        payload.put("exp", expiresAt.getEpochSecond());
+
+        String keyId = properties.getActiveKeyId();
+        String signingInput = keyId + "." + ENCODER.encodeToString(payload.toString().getBytes(StandardCharsets.UTF_8));
+        String token = signingInput + "." + ENCODER.encodeToString(sign(keys.get(keyId), signingInput));
+
+        return new AccessToken(token, principal, patientProfileId, expiresAt);
+    }
+
+    /**
+     * Verify signature and expiry; empty if the token is malformed, forged or expired
+     */
+    public Optional<AccessToken> verify(String token) {
+        if (token == null) {
+            return Optional.empty();
+        }
+        int first = token.indexOf('.');
+        int last = token.lastIndexOf('.');
+        if (first <= 0 || last <= first) {
+            return Optional.empty();
+        }
+
+        SecretKeySpec key = keys.get(token.substring(0, first));
+        if (key == null) {
+            return Optional.empty();
+        }
+
+        try {
+            String signingInput = token.substring(0, last);
+            byte[] signature = DECODER.decode(token.substring(last + 1));
+            if (!MessageDigest.isEqual(sign(key, signingInput), signature)) {
+                return Optional.empty();
+            }
+
+            JsonNode payload = objectMapper.readTree(DECODER.decode(token.substring(first + 1, last)));
+            Instant expiresAt = Instant.ofEpochSecond(payload.path("exp").asLong());
+            if (!Instant.now().isBefore(expiresAt)) {
+                return Optional.empty();
+            }
+
+            List<String> roles = new ArrayList<>();
+            payload.path("roles").forEach(role -> roles.add(role.asText()));
+            UserPrincipal principal = new UserPrincipal(payload.path("sub").asText(), payload.path("usr").asText(), roles);
+            String patientProfileId = payload.hasNonNull("pp") ? payload.get("pp").asText() : null;
+
+            return Optional.of(new AccessToken(token, principal, patientProfileId, expiresAt));
+        } catch (IllegalArgumentException | IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] sign(SecretKeySpec key, String signingInput) {
+        try {
+            // Mac instances are not thread-safe; creating one per call is cheap
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(signingInput.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign access token", e);
+        }
+    }
+}
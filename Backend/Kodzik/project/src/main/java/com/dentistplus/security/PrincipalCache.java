@@ -0,0 +1,155 @@
+package com.dentistplus.security;
+
+import com.dentistplus.model.User;
+import com.dentistplus.repository.UserRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-process cache of userId -> roles/username used for role checks.
+ * Entries expire after a fixed TTL and the least recently used entry is evicted
+ * once the cache is full. Hit/miss counts are published as cache.* metrics.
+ * A miss loads outside the lock; it only caches the result if no invalidate or put
+ * for that user happened while it was loading, so a stale load never overwrites them.
+ */
+@Component
+public class PrincipalCache {
+
+    private static final String CACHE_NAME = "principals";
+
+    private final UserRepository userRepository;
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Map<String, Entry> entries;
+    // userId -> token of the latest load in flight, guarded by entries
+    private final Map<String, Object> loading = new HashMap<>();
+
+    @Autowired
+    public PrincipalCache(UserRepository userRepository,
+                          MeterRegistry meterRegistry,
+                          @Value("${dentistplus.principal-cache.max-size:10000}") int maxSize,
+                          @Value("${dentistplus.principal-cache.ttl:5m}") Duration ttl) {
+        this.userRepository = userRepository;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > PrincipalCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        FunctionCounter.builder("cache.gets", hits, LongAdder::doubleValue)
+            .tag("cache", CACHE_NAME).tag("result", "hit")
+            .description("Principal lookups served from the cache")
+            .register(meterRegistry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::doubleValue)
+            .tag("cache", CACHE_NAME).tag("result", "miss")
+            .description("Principal lookups that had to load the user from MongoDB")
+            .register(meterRegistry);
+        FunctionCounter.builder("cache.evictions", evictions, LongAdder::doubleValue)
+            .tag("cache", CACHE_NAME)
+            .register(meterRegistry);
+        Gauge.builder("cache.size", this, PrincipalCache::size)
+            .tag("cache", CACHE_NAME)
+            .register(meterRegistry);
+    }
+
+    /**
+     * Resolve the principal for a user id, loading it from MongoDB on a miss
+     */
+    public Optional<UserPrincipal> get(String userId) {
+        if (userId == null) {
+            return Optional.empty();
+        }
+
+        long now = System.nanoTime();
+        Object token = new Object();
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null) {
+                if (now - entry.loadedAt < ttlNanos) {
+                    hits.increment();
+                    return Optional.of(entry.principal);
+                }
+                entries.remove(userId);
+            }
+            loading.put(userId, token);
+        }
+
+        misses.increment();
+        Optional<UserPrincipal> loaded;
+        try {
+            loaded = userRepository.findById(userId).map(UserPrincipal::from);
+        } catch (RuntimeException e) {
+            synchronized (entries) {
+                loading.remove(userId, token);
+            }
+            throw e;
+        }
+        synchronized (entries) {
+            // Still the latest load and nothing invalidated or replaced the user meanwhile
+            if (loading.remove(userId, token) && loaded.isPresent()) {
+                entries.put(userId, new Entry(loaded.get(), System.nanoTime()));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Seed the cache with a user that was just loaded or saved elsewhere
+     */
+    public void put(User user) {
+        UserPrincipal principal = UserPrincipal.from(user);
+        synchronized (entries) {
+            loading.remove(principal.getUserId());
+            entries.put(principal.getUserId(), new Entry(principal, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Drop a user so the next lookup sees its current roles (or its deletion)
+     */
+    public void invalidate(String userId) {
+        synchronized (entries) {
+            loading.remove(userId);
+            entries.remove(userId);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Entry {
+        private final UserPrincipal principal;
+        private final long loadedAt;
+
+        private Entry(UserPrincipal principal, long loadedAt) {
+            this.principal = principal;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
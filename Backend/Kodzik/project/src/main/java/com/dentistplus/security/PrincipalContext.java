@@ -0,0 +1,51 @@
+package com.dentistplus.security;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Optional;
+
+/**
+ * Per-request holder for the caller identified by the X-User-ID header.
+ * The principal and (for patients) the patient profile id are resolved at most
+ * once per request and then shared by every service the request passes through.
+ */
+public class PrincipalContext {
+
+    static final String ATTRIBUTE = PrincipalContext.class.getName();
+
+    private final String userId;
+    private UserPrincipal principal;
+    private String patientProfileId;
+
+    public PrincipalContext(String userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * Context of the current HTTP request, if any
+     */
+    public static Optional<PrincipalContext> current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable((PrincipalContext) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST));
+    }
+
+    /**
+     * Context of the current HTTP request, only if it was opened for the given user
+     */
+    public static Optional<PrincipalContext> forUser(String userId) {
+        return current().filter(context -> context.userId.equals(userId));
+    }
+
+    // Getters and Setters
+    public String getUserId() { return userId; }
+
+    public UserPrincipal getPrincipal() { return principal; }
+    public void setPrincipal(UserPrincipal principal) { this.principal = principal; }
+
+    public String getPatientProfileId() { return patientProfileId; }
+    public void setPatientProfileId(String patientProfileId) { this.patientProfileId = patientProfileId; }
+}
@@ -0,0 +1,128 @@
+package com.dentistplus.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Identifies the caller once per request and opens a PrincipalContext for the rest of it.
+ * A valid bearer token pre-populates the context (no database lookup); otherwise
+ * the X-User-ID header is resolved lazily by AuthService.
+ */
+@Component
+public class PrincipalContextFilter extends OncePerRequestFilter {
+
+    public static final String USER_ID_HEADER = "X-User-ID";
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final String API_PREFIX = "/api/";
+
+    @Autowired
+    private AccessTokenService accessTokenService;
+
+    @Autowired
+    private AccessTokenProperties accessTokenProperties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String userId = request.getHeader(USER_ID_HEADER);
+        String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+        boolean apiRequest = request.getRequestURI().startsWith(API_PREFIX);
+
+        Optional<AccessToken> token = Optional.empty();
+        if (authorization != null && authorization.startsWith(BEARER_PREFIX)) {
+            token = accessTokenService.verify(authorization.substring(BEARER_PREFIX.length()).trim());
+            // A stale token must not block /auth/login, only protected endpoints
+            if (token.isEmpty() && apiRequest) {
+                reject(response, "Invalid or expired access token");
+                return;
+            }
+        }
+
+        if (token.isPresent()) {
+            String subject = token.get().getPrincipal().getUserId();
+            if (StringUtils.hasText(userId) && !userId.equals(subject)) {
+                reject(response, "X-User-ID does not match the access token");
+                return;
+            }
+
+            PrincipalContext context = new PrincipalContext(subject);
+            context.setPrincipal(token.get().getPrincipal());
+            context.setPatientProfileId(token.get().getPatientProfileId());
+            request.setAttribute(PrincipalContext.ATTRIBUTE, context);
+
+            // Controllers keep reading X-User-ID, so token-only clients work unchanged
+            filterChain.doFilter(StringUtils.hasText(userId) ? request : withUserId(request, subject), response);
+            return;
+        }
+
+        if (accessTokenProperties.isRequired() && apiRequest
+                && !HttpMethod.OPTIONS.matches(request.getMethod())) {
+            reject(response, "Access token required");
+            return;
+        }
+
+        if (StringUtils.hasText(userId)) {
+            request.setAttribute(PrincipalContext.ATTRIBUTE, new PrincipalContext(userId));
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    private void reject(HttpServletResponse response, String message) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("timestamp", LocalDateTime.now().toString());
+        body.put("status", HttpStatus.UNAUTHORIZED.value());
+        body.put("error", "Unauthorized");
+        body.put("message", message);
+
+        response.setStatus(HttpStatus.UNAUTHORIZED.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), body);
+    }
+
+    private static HttpServletRequest withUserId(HttpServletRequest request, String userId) {
+        return new HttpServletRequestWrapper(request) {
+            @Override
+            public String getHeader(String name) {
+                return USER_ID_HEADER.equalsIgnoreCase(name) ? userId : super.getHeader(name);
+            }
+
+            @Override
+            public Enumeration<String> getHeaders(String name) {
+                return USER_ID_HEADER.equalsIgnoreCase(name)
+                    ? Collections.enumeration(Collections.singletonList(userId))
+                    : super.getHeaders(name);
+            }
+
+            @Override
+            public Enumeration<String> getHeaderNames() {
+                List<String> names = Collections.list(super.getHeaderNames());
+                names.add(USER_ID_HEADER);
+                return Collections.enumeration(names);
+            }
+        };
+    }
+}
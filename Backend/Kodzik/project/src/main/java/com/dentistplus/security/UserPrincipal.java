@@ -0,0 +1,35 @@
+package com.dentistplus.security;
+
+import com.dentistplus.model.User;
+
+import java.util.List;
+
+/**
+ * Immutable snapshot of the fields needed to authorize a request
+ */
+public class UserPrincipal {
+    private final String userId;
+    private final String username;
+    private final List<String> roles;
+
+    public UserPrincipal(String userId, String username, List<String> roles) {
+        this.userId = userId;
+        this.username = username;
+        this.roles = roles != null ? List.copyOf(roles) : List.of();
+    }
+
+    public static UserPrincipal from(User user) {
+        return new UserPrincipal(user.getId(), user.getUsername(), user.getRoles());
+    }
+
+    public boolean hasRole(String role) {
+        return roles.contains(role);
+    }
+
+    // Getters
+    public String getUserId() { return userId; }
+
+    public String getUsername() { return username; }
+
+    public List<String> getRoles() { return roles; }
+}
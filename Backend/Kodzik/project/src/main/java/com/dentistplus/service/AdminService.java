@@ -1,22 +1,30 @@
 package com.dentistplus.service;
 
 import com.dentistplus.dto.CreateUserRequest;
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
 import com.dentistplus.dto.UpdateUserRequest;
+import com.dentistplus.dto.UserSummary;
 import com.dentistplus.exception.UnauthorizedException;
 import com.dentistplus.model.PatientProfile;
 import com.dentistplus.model.User;
+import com.dentistplus.repository.CursorPaging;
 import com.dentistplus.repository.PatientProfileRepository;
 import com.dentistplus.repository.UserRepository;
+import com.dentistplus.security.PrincipalCache;
+import com.dentistplus.security.UserPrincipal;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Arrays;
-import java.util.List;
 
 @Service
 public class AdminService {
+
+    private static final String[] SUMMARY_FIELDS = { "username", "email", "firstName", "lastName", "roles", "createdAt" };
     
     @Autowired
     private UserRepository userRepository;
@@ -24,14 +32,28 @@ public class AdminService {
     @Autowired
     private PatientProfileRepository patientProfileRepository;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private PatientSearchIndex patientSearchIndex;
+
+    @Autowired
+    private CursorPaging cursorPaging;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
     /**
      * Verify that the requesting user has ADMIN role
      */
     private void verifyAdminRole(String adminUserId) {
-        User admin = userRepository.findById(adminUserId)
-            .orElseThrow(() -> new UnauthorizedException("Invalid user"));
+        UserPrincipal admin = authService.getPrincipal(adminUserId);
         
-        if (!admin.getRoles().contains("ROLE_ADMIN")) {
+        if (!admin.hasRole("ROLE_ADMIN")) {
             throw new UnauthorizedException("Only administrators can perform this action");
         }
     }
@@ -39,17 +61,19 @@ public class AdminService {
     /**
      * Get all dentists
      */
-    public List<User> getAllDentists(String adminUserId) {
+    public CursorPage<UserSummary> getAllDentists(String adminUserId, CursorPageRequest page) {
         verifyAdminRole(adminUserId);
-        return userRepository.findByRolesContaining("ROLE_DENTIST");
+        return cursorPaging.findSummaries(Criteria.where("roles").is("ROLE_DENTIST"), page,
+            User.class, UserSummary.class, SUMMARY_FIELDS);
     }
 
     /**
      * Get all patients (users with ROLE_PATIENT)
      */
-    public List<User> getAllPatients(String adminUserId) {
+    public CursorPage<UserSummary> getAllPatients(String adminUserId, CursorPageRequest page) {
         verifyAdminRole(adminUserId);
-        return userRepository.findByRolesContaining("ROLE_PATIENT");
+        return cursorPaging.findSummaries(Criteria.where("roles").is("ROLE_PATIENT"), page,
+            User.class, UserSummary.class, SUMMARY_FIELDS);
     }
 
     /**
@@ -114,7 +138,7 @@ public class AdminService {
             request.getLastName(),
             LocalDate.of(1990, 1, 1) // Default date of birth, can be updated later
         );
-        patientProfileRepository.save(patientProfile);
+        patientSearchIndex.index(patientProfileRepository.save(patientProfile));
 
         return savedUser;
     }
@@ -153,7 +177,9 @@ public class AdminService {
         dentist.setUpdatedAt(LocalDateTime.now());
         
         System.out.println("AdminService: Updating dentist with ID: " + dentistId);
-        return userRepository.save(dentist);
+        User saved = userRepository.save(dentist);
+        principalCache.invalidate(dentistId);
+        return saved;
     }
 
     /**
@@ -190,7 +216,9 @@ public class AdminService {
         patient.setUpdatedAt(LocalDateTime.now());
         
         System.out.println("AdminService: Updating patient with ID: " + patientId);
-        return userRepository.save(patient);
+        User saved = userRepository.save(patient);
+        principalCache.invalidate(patientId);
+        return saved;
     }
 
     /**
@@ -208,6 +236,7 @@ public class AdminService {
 
         System.out.println("AdminService: Deleting dentist with ID: " + dentistId);
         userRepository.deleteById(dentistId);
+        principalCache.invalidate(dentistId);
     }
 
     /**
@@ -226,9 +255,14 @@ public class AdminService {
         System.out.println("AdminService: Deleting patient with ID: " + patientId);
         
         // Delete patient profile first
-        patientProfileRepository.findByUser(patient).ifPresent(patientProfileRepository::delete);
+        patientProfileRepository.findByUser(patient).ifPresent(profile -> {
+            attachmentService.deletePatientAttachments(profile.getId());
+            patientProfileRepository.delete(profile);
+            patientSearchIndex.remove(profile.getId());
+        });
 
         // Then delete user
         userRepository.deleteById(patientId);
+        principalCache.invalidate(patientId);
     }
 }
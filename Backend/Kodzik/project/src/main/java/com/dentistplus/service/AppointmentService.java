@@ -1,22 +1,55 @@
 package com.dentistplus.service;
 
+import com.dentistplus.dto.AppointmentSummary;
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import com.dentistplus.dto.TimeSlot;
+import com.dentistplus.exception.ConflictException;
 import com.dentistplus.exception.ResourceNotFoundException;
 import com.dentistplus.exception.UnauthorizedException;
 import com.dentistplus.model.Appointment;
 import com.dentistplus.model.PatientProfile;
 import com.dentistplus.model.User;
 import com.dentistplus.repository.AppointmentRepository;
+import com.dentistplus.repository.CursorPaging;
 import com.dentistplus.repository.PatientProfileRepository;
+import com.dentistplus.repository.SummaryReader;
 import com.dentistplus.repository.UserRepository;
+import com.dentistplus.security.PrincipalCache;
+import com.mongodb.DBRef;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.Objects;
 
 @Service
 public class AppointmentService {
+
+    // Patients see who treats them, dentists see whom they treat
+    private static final String[] PATIENT_VIEW_FIELDS = { "dentist", "appointmentDate", "appointmentType", "status", "notes", "durationMinutes", "createdAt" };
+    private static final String[] DENTIST_VIEW_FIELDS = { "patientProfile", "appointmentDate", "appointmentType", "status", "notes", "durationMinutes", "createdAt" };
+
+    private static final List<String> FINAL_STATUSES = List.of("COMPLETED", "CANCELLED");
+
+    private static final int MAX_AVAILABILITY_DAYS = 31;
     
     @Autowired
     private AppointmentRepository appointmentRepository;
@@ -30,82 +63,198 @@ public class AppointmentService {
     @Autowired
     private AuthService authService;
 
-    public List<Appointment> getMyAppointments(String patientUserId) {
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CursorPaging cursorPaging;
+
+    @Autowired
+    private SummaryReader summaryReader;
+
+    @Autowired
+    private DentistAvailabilityIndex availabilityIndex;
+
+    @Autowired
+    private SlotReservationService slotReservationService;
+
+    @Autowired
+    private PrincipalCache principalCache;
+
+    /**
+     * Appointments written before versioning have no version field, and save() would
+     * treat them as new documents
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeVersions() {
+        long updated = mongoTemplate.updateMulti(new Query(Criteria.where("version").exists(false)),
+            new Update().set("version", 0L), Appointment.class).getModifiedCount();
+        if (updated > 0) {
+            System.out.println("AppointmentService: Initialized version of " + updated + " appointments");
+        }
+    }
+
+    public CursorPage<AppointmentSummary> getMyAppointments(String patientUserId, CursorPageRequest page) {
         authService.validateUserRole(patientUserId, "ROLE_PATIENT");
         
-        PatientProfile patient = patientProfileRepository.findByUser_Id(patientUserId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found"));
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
 
-        return appointmentRepository.findByPatientProfile(patient);
+        return cursorPaging.findSummaries(CursorPaging.byReference("patientProfile", patientProfileId), page,
+            Appointment.class, AppointmentSummary.class, PATIENT_VIEW_FIELDS);
     }
 
-    public Appointment rescheduleAppointment(String appointmentId, String newDateStr, String patientUserId) {
+    public AppointmentSummary rescheduleAppointment(String appointmentId, String newDateStr, String patientUserId) {
         authService.validateUserRole(patientUserId, "ROLE_PATIENT");
         
-        // Get the appointment
-        Appointment appointment = appointmentRepository.findById(appointmentId)
-            .orElseThrow(() -> new ResourceNotFoundException("Appointment not found with id: " + appointmentId));
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
         
-        // Verify the appointment belongs to this patient
-        PatientProfile patient = patientProfileRepository.findByUser_Id(patientUserId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found"));
-        
-        if (!appointment.getPatientProfile().getId().equals(patient.getId())) {
-            throw new UnauthorizedException("You can only reschedule your own appointments");
-        }
+        // Read only what the transition needs; DBRefs stay unresolved
+        Document current = findOwnAppointment(appointmentId, patientProfileId, "reschedule");
         
         // Check if appointment can be rescheduled (not completed or cancelled)
-        if ("COMPLETED".equals(appointment.getStatus()) || "CANCELLED".equals(appointment.getStatus())) {
+        if (FINAL_STATUSES.contains(current.getString("status"))) {
             throw new IllegalArgumentException("Cannot reschedule completed or cancelled appointments");
         }
         
         // Parse the new date
         LocalDateTime newDate = LocalDateTime.parse(newDateStr, DateTimeFormatter.ISO_DATE_TIME);
+        String dentistId = ((DBRef) current.get("dentist")).getId().toString();
+        Integer duration = current.getInteger("durationMinutes");
         
-        // Update the appointment
-        appointment.setAppointmentDate(newDate);
-        appointment.setStatus("SCHEDULED");
-        appointment.setUpdatedAt(LocalDateTime.now());
+        // The claim is the only check: this node's availability index may be stale
+        slotReservationService.claim(appointmentId, dentistId, patientProfileId, newDate, duration);
+        availabilityIndex.book(appointmentId, dentistId, newDate, duration);
+        
+        // Apply only if nobody changed the appointment since it was read
+        Query query = ownAppointmentQuery(appointmentId, patientProfileId);
+        query.addCriteria(Criteria.where("status").nin(FINAL_STATUSES).and("version").is(current.get("version")));
+        Update update = new Update()
+            .set("appointmentDate", newDate)
+            .set("status", "SCHEDULED")
+            .set("updatedAt", LocalDateTime.now())
+            .inc("version", 1);
         
-        return appointmentRepository.save(appointment);
+        Document updated = transition(query, update);
+        // A concurrent reschedule's claim may have replaced ours in between, or ours theirs
+        syncReservation(appointmentId, patientProfileId);
+        if (updated == null) {
+            throw new ConflictException("Appointment was changed by someone else, please reload and try again");
+        }
+        return summaryReader.read(List.of(updated), AppointmentSummary.class).get(0);
+    }
+
+    /**
+     * Make the reservation match the appointment as stored: claims replace whatever the
+     * appointment held, so concurrent reschedules can leave it reserving a time it is no
+     * longer at. An active appointment claims its current time again, a cancelled or
+     * completed one gives its reservation up. Repeated until no write got in between.
+     */
+    private void syncReservation(String appointmentId, String patientProfileId) {
+        Query query = new Query(Criteria.where("_id").is(appointmentObjectId(appointmentId)));
+        query.fields().include("dentist", "status", "appointmentDate", "durationMinutes", "version");
+        String collection = mongoTemplate.getCollectionName(Appointment.class);
+
+        Document current = mongoTemplate.findOne(query, Document.class, collection);
+        while (true) {
+            if (current == null || FINAL_STATUSES.contains(current.getString("status"))) {
+                slotReservationService.release(appointmentId);
+                availabilityIndex.release(appointmentId);
+                return;
+            }
+
+            LocalDateTime date = LocalDateTime.ofInstant(current.getDate("appointmentDate").toInstant(), ZoneId.systemDefault());
+            String dentistId = ((DBRef) current.get("dentist")).getId().toString();
+            Integer duration = current.getInteger("durationMinutes");
+            try {
+                slotReservationService.claim(appointmentId, dentistId, patientProfileId, date, duration);
+            } catch (ConflictException e) {
+                // Another booking took the time while it was not held; nothing left to reserve it
+                System.out.println("AppointmentService: Could not restore the reservation of appointment " + appointmentId + ": " + e.getMessage());
+            }
+            availabilityIndex.book(appointmentId, dentistId, date, duration);
+
+            Document after = mongoTemplate.findOne(query, Document.class, collection);
+            if (after != null && Objects.equals(after.get("version"), current.get("version"))) {
+                return;
+            }
+            current = after;
+        }
     }
 
-    public Appointment cancelAppointment(String appointmentId, String patientUserId) {
+    public AppointmentSummary cancelAppointment(String appointmentId, String patientUserId) {
         authService.validateUserRole(patientUserId, "ROLE_PATIENT");
         
-        // Get the appointment
-        Appointment appointment = appointmentRepository.findById(appointmentId)
-            .orElseThrow(() -> new ResourceNotFoundException("Appointment not found with id: " + appointmentId));
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
         
-        // Verify the appointment belongs to this patient
-        PatientProfile patient = patientProfileRepository.findByUser_Id(patientUserId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found"));
+        // One round trip: matches only this patient's appointment in a cancellable status
+        Query query = ownAppointmentQuery(appointmentId, patientProfileId);
+        query.addCriteria(Criteria.where("status").nin(FINAL_STATUSES));
+        Update update = new Update()
+            .set("status", "CANCELLED")
+            .set("updatedAt", LocalDateTime.now())
+            .inc("version", 1);
         
-        if (!appointment.getPatientProfile().getId().equals(patient.getId())) {
-            throw new UnauthorizedException("You can only cancel your own appointments");
+        Document updated = transition(query, update);
+        if (updated == null) {
+            // Explain why nothing matched
+            Document current = findOwnAppointment(appointmentId, patientProfileId, "cancel");
+            if ("COMPLETED".equals(current.getString("status"))) {
+                throw new IllegalArgumentException("Cannot cancel completed appointments");
+            }
+            if ("CANCELLED".equals(current.getString("status"))) {
+                throw new IllegalArgumentException("Appointment is already cancelled");
+            }
+            throw new ConflictException("Appointment was changed by someone else, please reload and try again");
         }
         
-        // Check if appointment can be cancelled (not already completed or cancelled)
-        if ("COMPLETED".equals(appointment.getStatus())) {
-            throw new IllegalArgumentException("Cannot cancel completed appointments");
-        }
+        slotReservationService.release(appointmentId);
+        availabilityIndex.release(appointmentId);
+        return summaryReader.read(List.of(updated), AppointmentSummary.class).get(0);
+    }
+
+    /**
+     * Conditional findAndModify returning the patient view of the updated appointment,
+     * or null when the appointment no longer matches the expected state
+     */
+    private Document transition(Query query, Update update) {
+        query.fields().include(PATIENT_VIEW_FIELDS);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+            Document.class, mongoTemplate.getCollectionName(Appointment.class));
+    }
+
+    private Document findOwnAppointment(String appointmentId, String patientProfileId, String action) {
+        Query query = new Query(Criteria.where("_id").is(appointmentObjectId(appointmentId)));
+        query.fields().include("patientProfile", "dentist", "status", "appointmentDate", "durationMinutes", "version");
         
-        if ("CANCELLED".equals(appointment.getStatus())) {
-            throw new IllegalArgumentException("Appointment is already cancelled");
+        Document appointment = mongoTemplate.findOne(query, Document.class, mongoTemplate.getCollectionName(Appointment.class));
+        if (appointment == null) {
+            throw new ResourceNotFoundException("Appointment not found with id: " + appointmentId);
         }
         
-        // Update the appointment status to CANCELLED
-        appointment.setStatus("CANCELLED");
-        appointment.setUpdatedAt(LocalDateTime.now());
-        
-        return appointmentRepository.save(appointment);
+        // Verify the appointment belongs to this patient
+        if (!(appointment.get("patientProfile") instanceof DBRef patient) || !patient.getId().toString().equals(patientProfileId)) {
+            throw new UnauthorizedException("You can only " + action + " your own appointments");
+        }
+        return appointment;
+    }
+
+    private static Query ownAppointmentQuery(String appointmentId, String patientProfileId) {
+        return new Query(Criteria.where("_id").is(appointmentObjectId(appointmentId)))
+            .addCriteria(CursorPaging.byReference("patientProfile", patientProfileId));
+    }
+
+    private static ObjectId appointmentObjectId(String appointmentId) {
+        if (!ObjectId.isValid(appointmentId)) {
+            throw new ResourceNotFoundException("Appointment not found with id: " + appointmentId);
+        }
+        return new ObjectId(appointmentId);
     }
 
     public Appointment bookAppointment(String patientUserId, String dentistId, String appointmentDateStr, String appointmentType) {
         authService.validateUserRole(patientUserId, "ROLE_PATIENT");
         
         // Get patient profile
-        PatientProfile patient = patientProfileRepository.findByUser_Id(patientUserId)
+        PatientProfile patient = patientProfileRepository.findById(authService.getPatientProfileId(patientUserId))
             .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found"));
         
         // Get dentist
@@ -122,33 +271,110 @@ public class AppointmentService {
         
         // Create new appointment
         Appointment appointment = new Appointment(patient, dentist, appointmentDate, appointmentType);
+        appointment.setId(new ObjectId().toHexString());
         appointment.setStatus("SCHEDULED");
         appointment.setDurationMinutes(30); // Default 30 minutes
         
-        return appointmentRepository.save(appointment);
+        // The claim in slot_reservations is atomic across all nodes and also catches patient
+        // double-booking. This node's free/busy index is not consulted: it may still show a
+        // slot that was freed on another node as busy.
+        slotReservationService.claim(appointment.getId(), dentistId, patient.getId(), appointmentDate, appointment.getDurationMinutes());
+        
+        try {
+            appointment = appointmentRepository.save(appointment);
+        } catch (RuntimeException e) {
+            slotReservationService.release(appointment.getId());
+            throw e;
+        }
+        availabilityIndex.book(appointment.getId(), dentistId, appointmentDate, appointment.getDurationMinutes());
+        return appointment;
     }
 
-    public List<Appointment> getDentistAppointments(String dentistUserId) {
-        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+    /**
+     * Free intervals of a dentist within opening hours, answered from the in-memory index
+     */
+    public List<TimeSlot> getDentistAvailability(String patientUserId, String dentistId, String fromStr, String toStr) {
+        authService.validateUserRole(patientUserId, "ROLE_PATIENT");
         
-        User dentist = userRepository.findById(dentistUserId)
-            .orElseThrow(() -> new ResourceNotFoundException("Dentist not found"));
+        principalCache.get(dentistId)
+            .filter(principal -> principal.hasRole("ROLE_DENTIST"))
+            .orElseThrow(() -> new ResourceNotFoundException("Dentist not found with id: " + dentistId));
         
-        return appointmentRepository.findByDentist(dentist);
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime from = fromStr != null ? parseDateOrDateTime(fromStr, "from") : now;
+        LocalDateTime to = toStr != null ? parseDateOrDateTime(toStr, "to") : from.plusDays(7);
+        if (!to.isAfter(from)) {
+            throw new IllegalArgumentException("to must be after from");
+        }
+        if (Duration.between(from, to).toDays() > MAX_AVAILABILITY_DAYS) {
+            throw new IllegalArgumentException("Availability range cannot exceed " + MAX_AVAILABILITY_DAYS + " days");
+        }
+        
+        // The past is never available
+        if (from.isBefore(now)) {
+            from = now;
+        }
+        return to.isAfter(from) ? availabilityIndex.freeSlots(dentistId, from, to) : List.of();
+    }
+
+    static LocalDateTime parseDateOrDateTime(String value, String name) {
+        try {
+            return value.length() == 10
+                ? LocalDate.parse(value).atStartOfDay()
+                : LocalDateTime.parse(value, DateTimeFormatter.ISO_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be yyyy-MM-dd or an ISO date-time");
+        }
     }
 
-    public List<Appointment> getDentistTodayAppointments(String dentistUserId) {
+    public CursorPage<AppointmentSummary> getDentistAppointments(String dentistUserId, CursorPageRequest page) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
         
-        User dentist = userRepository.findById(dentistUserId)
-            .orElseThrow(() -> new ResourceNotFoundException("Dentist not found"));
-        
-        LocalDateTime startOfDay = LocalDateTime.now().toLocalDate().atStartOfDay();
-        LocalDateTime endOfDay = startOfDay.plusDays(1);
-        
-        return appointmentRepository.findByAppointmentDateBetween(startOfDay, endOfDay)
-            .stream()
-            .filter(apt -> apt.getDentist() != null && apt.getDentist().getId().equals(dentist.getId()))
-            .toList();
+        return cursorPaging.findSummaries(CursorPaging.byReference("dentist", dentistUserId), page,
+            Appointment.class, AppointmentSummary.class, DENTIST_VIEW_FIELDS);
+    }
+
+    public List<AppointmentSummary> getDentistTodayAppointments(String dentistUserId) {
+        return getDentistAgenda(dentistUserId, "day", null);
+    }
+
+    /**
+     * Appointments of one dentist in the day, ISO week or month containing the given date,
+     * in time order. Served by the (dentist, appointmentDate) index, so the cost depends
+     * only on that dentist's appointments in the range.
+     */
+    public List<AppointmentSummary> getDentistAgenda(String dentistUserId, String view, String dateStr) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+
+        LocalDate date;
+        try {
+            date = dateStr == null || dateStr.isBlank() ? LocalDate.now() : LocalDate.parse(dateStr);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("date must be in yyyy-MM-dd format");
+        }
+
+        LocalDate from;
+        LocalDate to;
+        switch (view == null ? "day" : view.toLowerCase()) {
+            case "day" -> {
+                from = date;
+                to = date.plusDays(1);
+            }
+            case "week" -> {
+                from = date.with(DayOfWeek.MONDAY);
+                to = from.plusWeeks(1);
+            }
+            case "month" -> {
+                from = date.withDayOfMonth(1);
+                to = from.plusMonths(1);
+            }
+            default -> throw new IllegalArgumentException("view must be 'day', 'week' or 'month'");
+        }
+
+        Query query = new Query(CursorPaging.byReference("dentist", dentistUserId)
+            .and("appointmentDate").gte(from.atStartOfDay()).lt(to.atStartOfDay()));
+        query.fields().include(DENTIST_VIEW_FIELDS);
+        query.with(Sort.by("appointmentDate"));
+        return summaryReader.find(query, Appointment.class, AppointmentSummary.class);
     }
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+package com.dentistplus.service;
+
+import com.dentistplus.model.DentalRecord;
+import com.dentistplus.storage.AttachmentStorage;
+import com.dentistplus.storage.PreviewCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Downscaled JPEG previews of image attachments. Previews are generated on a small bounded
+ * worker pool, never on request threads, and kept in an LRU disk cache keyed by content
+ * hash and size, so shared content has one preview. Concurrent requests for a preview that
+ * is being generated wait for the same job.
+ *
+ * Large images are decoded with source subsampling, so a 50 MB panoramic X-ray never has
+ * to sit in the heap at full resolution.
+ */
+@Component
+public class AttachmentPreviews {
+
+    public enum Size {
+        THUMBNAIL(160), MEDIUM(800);
+
+        private final int pixels;
+
+        Size(int pixels) { this.pixels = pixels; }
+
+        public int pixels() { return pixels; }
+
+        public String key() { return name().toLowerCase(); }
+
+        public static Size of(String key) {
+            for (Size size : values()) {
+                if (size.key().equals(key)) {
+                    return size;
+                }
+            }
+            throw new IllegalArgumentException("size must be 'thumbnail' or 'medium'");
+        }
+    }
+
+    private static final String CACHE_NAME = "previews";
+
+    private final AttachmentStorage storage;
+    private final PreviewCache cache;
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Counter rejected;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public AttachmentPreviews(AttachmentStorage storage,
+                              MeterRegistry meterRegistry,
+                              @Value("${dentistplus.attachments.previews.root:data/previews}") String root,
+                              @Value("${dentistplus.attachments.previews.cache-max-size:1GB}") DataSize cacheMaxSize,
+                              @Value("${dentistplus.attachments.previews.threads:2}") int threads,
+                              @Value("${dentistplus.attachments.previews.queue-capacity:100}") int queueCapacity) {
+        this.storage = storage;
+        this.meterRegistry = meterRegistry;
+        this.queueCapacity = queueCapacity;
+        this.cache = new PreviewCache(Paths.get(root).toAbsolutePath().normalize(), cacheMaxSize.toBytes());
+
+        AtomicInteger workers = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), task -> {
+                Thread thread = new Thread(task, "preview-" + workers.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+
+        Gauge.builder("attachments.previews.queue", executor, pool -> pool.getQueue().size())
+            .description("Preview jobs waiting for a worker")
+            .register(meterRegistry);
+        Gauge.builder("attachments.previews.active", executor, ThreadPoolExecutor::getActiveCount)
+            .description("Preview jobs being generated")
+            .register(meterRegistry);
+        this.rejected = Counter.builder("attachments.previews.rejected")
+            .description("Preview jobs refused because the queue was full")
+            .register(meterRegistry);
+        FunctionCounter.builder("cache.gets", hits, LongAdder::doubleValue)
+            .tag("cache", CACHE_NAME).tag("result", "hit")
+            .register(meterRegistry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::doubleValue)
+            .tag("cache", CACHE_NAME).tag("result", "miss")
+            .register(meterRegistry);
+        Gauge.builder("cache.size", cache, PreviewCache::size)
+            .tag("cache", CACHE_NAME)
+            .register(meterRegistry);
+        Gauge.builder("attachments.previews.cache.bytes", cache, PreviewCache::totalBytes)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    public static boolean supports(DentalRecord.Attachment attachment) {
+        return attachment.getContentType() != null && attachment.getSha256() != null
+            && ImageIO.getImageReadersByMIMEType(attachment.getContentType()).hasNext();
+    }
+
+    /**
+     * The preview file, from the cache or once generated. Fails with
+     * RejectedExecutionException when the queue is full.
+     */
+    public CompletableFuture<Path> preview(DentalRecord.Attachment attachment, Size size) {
+        if (!supports(attachment)) {
+            throw new IllegalArgumentException("No preview available for " + attachment.getContentType());
+        }
+        String name = attachment.getSha256() + "-" + size.key() + ".jpg";
+        Path cached = cache.get(name);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        misses.increment();
+
+        CompletableFuture<Path> job = inFlight.computeIfAbsent(name, key -> submit(attachment.getStorageKey(), size, key));
+        job.whenComplete((path, error) -> inFlight.remove(name, job));
+        return job;
+    }
+
+    /**
+     * Queue a thumbnail for a new upload while the pool is not busy; best effort
+     */
+    public void prefetch(DentalRecord.Attachment attachment) {
+        if (supports(attachment) && executor.getQueue().size() < queueCapacity / 2) {
+            try {
+                preview(attachment, Size.THUMBNAIL);
+            } catch (RejectedExecutionException e) {
+                // Generated on first request instead
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<Path> submit(String storageKey, Size size, String name) {
+        CompletableFuture<Path> job = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long startedAt = System.nanoTime();
+                try {
+                    job.complete(generate(storageKey, size, name));
+                } catch (Throwable e) {
+                    job.completeExceptionally(e);
+                } finally {
+                    long now = System.nanoTime();
+                    Timer.builder("attachments.previews.generation").tag("size", size.key())
+                        .description("Time to decode, scale and cache a preview")
+                        .register(meterRegistry).record(now - startedAt, TimeUnit.NANOSECONDS);
+                    Timer.builder("attachments.previews.latency").tag("size", size.key())
+                        .description("Time from queueing a preview job to its completion")
+                        .register(meterRegistry).record(now - queuedAt, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        return job;
+    }
+
+    private Path generate(String storageKey, Size size, String name) throws IOException {
+        BufferedImage source = decode(storageKey, size.pixels());
+        double scale = Math.min(1.0, (double) size.pixels() / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+        BufferedImage preview = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = preview.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return cache.put(name, target -> {
+            if (!ImageIO.write(preview, "jpg", target.toFile())) {
+                throw new IOException("No JPEG writer available");
+            }
+        });
+    }
+
+    /**
+     * Decode at no more than twice the target size, skipping source pixels while reading
+     */
+    private BufferedImage decode(String storageKey, int pixels) throws IOException {
+        Path file = storage.localFile(storageKey);
+        try (InputStream content = file == null ? storage.open(storageKey, 0) : null;
+             ImageInputStream in = file != null ? ImageIO.createImageInputStream(file.toFile()) : ImageIO.createImageInputStream(content)) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IllegalArgumentException("Attachment is not a readable image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longest / (pixels * 2));
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
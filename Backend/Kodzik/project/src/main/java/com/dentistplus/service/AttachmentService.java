@@ -0,0 +1,249 @@
+package com.dentistplus.service;
+
+import com.dentistplus.exception.ResourceNotFoundException;
+import com.dentistplus.model.AttachmentBucket;
+import com.dentistplus.model.DentalRecord;
+import com.dentistplus.repository.BucketStore;
+import com.dentistplus.repository.PatientProfileRepository;
+import com.dentistplus.storage.AttachmentBlobs;
+import com.dentistplus.storage.AttachmentStorage;
+import com.dentistplus.storage.StoredContent;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Uploaded attachment content. The bytes go to the AttachmentStorage backend as a stream;
+ * the metadata entry is appended to the patient's attachment buckets once the content is stored.
+ */
+@Service
+public class AttachmentService {
+
+    @Autowired
+    private AttachmentStorage storage;
+
+    @Autowired
+    private AttachmentBlobs blobs;
+
+    @Autowired
+    private AttachmentPreviews previews;
+
+    @Autowired
+    private BucketStore bucketStore;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private PatientProfileRepository patientProfileRepository;
+
+    @Autowired
+    private AuthService authService;
+
+    @Value("${dentistplus.attachments.max-size:100MB}")
+    private DataSize maxSize;
+
+    public DentalRecord.Attachment uploadAttachment(String patientId, String filename, String fileType, String contentType,
+                                                    InputStream content, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        if (!patientProfileRepository.existsById(patientId)) {
+            throw new ResourceNotFoundException("Patient not found with id: " + patientId);
+        }
+        if (filename == null || filename.isBlank()) {
+            throw new IllegalArgumentException("filename is required");
+        }
+
+        return storeAttachment(patientId, new ObjectId().toHexString(), filename, fileType, contentType,
+            content, maxSize.toBytes(), null);
+    }
+
+    /**
+     * Store the content and append its metadata entry under the given attachment id. When
+     * expectedSha256 is set and the content does not match, nothing is registered. Content
+     * the patient already has returns the existing entry; content stored for anyone else is
+     * shared through AttachmentBlobs.
+     */
+    DentalRecord.Attachment storeAttachment(String patientId, String attachmentId, String filename, String fileType,
+                                            String contentType, InputStream content, long maxBytes, String expectedSha256) {
+        StoredContent stored = storage.store(content, contentType, maxBytes);
+        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(stored.getSha256())) {
+            storage.delete(stored.getKey());
+            throw new IllegalArgumentException("Checksum mismatch for " + filename);
+        }
+
+        DentalRecord.Attachment existing = lookupBy(patientId, "entries.sha256", stored.getSha256());
+        if (existing != null && existing.getStorageKey() != null) {
+            storage.delete(stored.getKey());
+            System.out.println("AttachmentService: Patient " + patientId + " already has this file as " + existing.getId());
+            return existing;
+        }
+        String storageKey = blobs.acquire(stored, attachmentId);
+
+        DentalRecord.Attachment attachment = new DentalRecord.Attachment();
+        attachment.setId(attachmentId);
+        attachment.setFilename(filename);
+        attachment.setFileType(fileType);
+        attachment.setContentType(contentType);
+        attachment.setSize(stored.getSize());
+        attachment.setSha256(stored.getSha256());
+        attachment.setStorageKey(storageKey);
+        attachment.setCounted(true);
+        attachment.setStorageUrl("/api/patients/" + patientId + "/record/attachments/" + attachmentId);
+        try {
+            bucketStore.append(AttachmentBucket.class, patientId, attachment);
+        } catch (RuntimeException e) {
+            // Nothing references the content yet
+            blobs.release(stored.getSha256(), storageKey, attachmentId);
+            throw e;
+        }
+        System.out.println("AttachmentService: Stored " + stored.getSize() + " bytes for patient " + patientId);
+        previews.prefetch(attachment);
+        return attachment;
+    }
+
+    /**
+     * Remove an attachment entry; its content is deleted once no other entry shares it
+     */
+    public void deleteAttachment(String patientId, String attachmentId, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        DentalRecord.Attachment attachment = ObjectId.isValid(attachmentId) ? lookup(patientId, attachmentId) : null;
+        if (attachment == null) {
+            throw new ResourceNotFoundException("Attachment not found with id: " + attachmentId);
+        }
+
+        // Entries are stored with their id as _id; count stays as is so appends keep going
+        // to the newest bucket
+        Query query = new Query(Criteria.where("patientProfileId").is(patientId).and("entries._id").is(new ObjectId(attachmentId)));
+        Update update = new Update().pull("entries", new Document("_id", new ObjectId(attachmentId)));
+        if (mongoTemplate.updateFirst(query, update, mongoTemplate.getCollectionName(AttachmentBucket.class)).getModifiedCount() == 1
+                && attachment.getSha256() != null && attachment.getStorageKey() != null) {
+            blobs.release(attachment.getSha256(), attachment.getStorageKey(), attachmentId);
+        }
+    }
+
+    /**
+     * Remove all attachment entries of a patient, releasing their content
+     */
+    public void deletePatientAttachments(String patientProfileId) {
+        Query query = new Query(Criteria.where("patientProfileId").is(patientProfileId));
+        query.fields().include("entries._id", "entries.sha256", "entries.storageKey");
+
+        String collection = mongoTemplate.getCollectionName(AttachmentBucket.class);
+        int[] released = { 0 };
+        try (Stream<Document> buckets = mongoTemplate.stream(query, Document.class, collection)) {
+            buckets.forEach(bucket -> {
+                bucket.getList("entries", Document.class, List.of()).forEach(entry -> {
+                    if (entry.getString("sha256") != null && entry.getString("storageKey") != null) {
+                        blobs.release(entry.getString("sha256"), entry.getString("storageKey"), entry.get("_id").toString());
+                        released[0]++;
+                    }
+                });
+                mongoTemplate.remove(new Query(Criteria.where("_id").is(bucket.get("_id"))), collection);
+            });
+        }
+        System.out.println("AttachmentService: Released " + released[0] + " attachments of patient " + patientProfileId);
+    }
+
+    /**
+     * Count references for entries not counted yet: content uploaded before deduplication,
+     * entries of a run that was interrupted, or written by an older node. Duplicates found
+     * are pointed at one shared copy and the others deleted. Every entry is added to its
+     * blob's refs before it is marked counted, and adding it again changes nothing, so this
+     * is safe to repeat and to run on several nodes at once.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void indexExistingContent() {
+        Query query = new Query(Criteria.where("entries").elemMatch(Criteria.where("storageKey").exists(true).and("counted").ne(true)));
+        query.fields().include("entries._id", "entries.sha256", "entries.storageKey", "entries.size", "entries.counted");
+
+        String collection = mongoTemplate.getCollectionName(AttachmentBucket.class);
+        int[] indexed = { 0 };
+        try (Stream<Document> buckets = mongoTemplate.stream(query, Document.class, collection)) {
+            buckets.forEach(bucket -> bucket.getList("entries", Document.class, List.of()).forEach(entry -> {
+                String storageKey = entry.getString("storageKey");
+                String sha256 = entry.getString("sha256");
+                if (storageKey == null || sha256 == null || Boolean.TRUE.equals(entry.getBoolean("counted"))) {
+                    return;
+                }
+                Number size = entry.get("size", Number.class);
+                String shared = blobs.acquire(new StoredContent(storageKey, size != null ? size.longValue() : 0, sha256),
+                    entry.get("_id").toString());
+                mongoTemplate.updateFirst(
+                    new Query(Criteria.where("_id").is(bucket.get("_id")).and("entries._id").is(entry.get("_id"))),
+                    new Update().set("entries.$.storageKey", shared).set("entries.$.counted", true), collection);
+                indexed[0]++;
+            }));
+        }
+        if (indexed[0] > 0) {
+            System.out.println("AttachmentService: Indexed content of " + indexed[0] + " existing attachments");
+        }
+    }
+
+    long maxBytes() {
+        return maxSize.toBytes();
+    }
+
+    public DentalRecord.Attachment getAttachment(String patientId, String attachmentId, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        return findAttachment(patientId, attachmentId);
+    }
+
+    public DentalRecord.Attachment getMyAttachment(String patientUserId, String attachmentId) {
+        authService.validateUserRole(patientUserId, "ROLE_PATIENT");
+        return findAttachment(authService.getPatientProfileId(patientUserId), attachmentId);
+    }
+
+    /**
+     * File holding the content when the backend keeps it on local disk, else null
+     */
+    public Path localFile(DentalRecord.Attachment attachment) {
+        return storage.localFile(attachment.getStorageKey());
+    }
+
+    public InputStream open(DentalRecord.Attachment attachment, long offset) {
+        return storage.open(attachment.getStorageKey(), offset);
+    }
+
+    public CompletableFuture<Path> preview(DentalRecord.Attachment attachment, String size) {
+        return previews.preview(attachment, size != null ? AttachmentPreviews.Size.of(size) : AttachmentPreviews.Size.THUMBNAIL);
+    }
+
+    private DentalRecord.Attachment findAttachment(String patientProfileId, String attachmentId) {
+        DentalRecord.Attachment attachment = ObjectId.isValid(attachmentId) ? lookup(patientProfileId, attachmentId) : null;
+        if (attachment == null || attachment.getStorageKey() == null) {
+            throw new ResourceNotFoundException("Attachment not found with id: " + attachmentId);
+        }
+        return attachment;
+    }
+
+    /**
+     * The entry with the given id, or null
+     */
+    DentalRecord.Attachment lookup(String patientProfileId, String attachmentId) {
+        return lookupBy(patientProfileId, "entries.id", attachmentId);
+    }
+
+    private DentalRecord.Attachment lookupBy(String patientProfileId, String field, Object value) {
+        // Only the matching entry of the bucket is returned
+        Query query = new Query(Criteria.where("patientProfileId").is(patientProfileId).and(field).is(value));
+        query.fields().position("entries", 1);
+
+        AttachmentBucket bucket = mongoTemplate.findOne(query, AttachmentBucket.class);
+        return bucket != null && bucket.getEntries() != null && !bucket.getEntries().isEmpty() ? bucket.getEntries().get(0) : null;
+    }
+}
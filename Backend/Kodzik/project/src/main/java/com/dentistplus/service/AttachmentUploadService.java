@@ -0,0 +1,246 @@
+package com.dentistplus.service;
+
+import com.dentistplus.dto.UploadSessionRequest;
+import com.dentistplus.exception.ConflictException;
+import com.dentistplus.exception.ResourceNotFoundException;
+import com.dentistplus.model.DentalRecord;
+import com.dentistplus.model.UploadSession;
+import com.dentistplus.repository.PatientProfileRepository;
+import com.dentistplus.storage.ChunkStaging;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable uploads: create a session, PUT checksummed chunks in any order (in parallel),
+ * then complete. Completion is claimed with a single findAndModify, so only one request
+ * assembles the file. The attachment entry gets the session id, or is an existing entry
+ * when the patient already had the content; either way the session records its id, so a
+ * retried completion returns the same attachment instead of registering it twice.
+ */
+@Service
+public class AttachmentUploadService {
+
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-fA-F]{64}");
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_CHUNKS = 10_000;
+
+    // A completion that has not finished by then is assumed to have died with its node
+    private static final Duration STALE_FINALIZE = Duration.ofMinutes(10);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ChunkStaging chunkStaging;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private PatientProfileRepository patientProfileRepository;
+
+    @Autowired
+    private AuthService authService;
+
+    @Value("${dentistplus.attachments.uploads.chunk-size:8MB}")
+    private DataSize defaultChunkSize;
+
+    @Value("${dentistplus.attachments.uploads.session-ttl:24h}")
+    private Duration sessionTtl;
+
+    public UploadSession createSession(String patientId, UploadSessionRequest request, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        if (!patientProfileRepository.existsById(patientId)) {
+            throw new ResourceNotFoundException("Patient not found with id: " + patientId);
+        }
+        if (request.getFilename() == null || request.getFilename().isBlank()) {
+            throw new IllegalArgumentException("filename is required");
+        }
+        if (request.getSize() == null || request.getSize() < 1 || request.getSize() > attachmentService.maxBytes()) {
+            throw new IllegalArgumentException("size must be between 1 and " + attachmentService.maxBytes() + " bytes");
+        }
+        if (request.getSha256() != null && !SHA256_HEX.matcher(request.getSha256()).matches()) {
+            throw new IllegalArgumentException("sha256 must be 64 hex characters");
+        }
+        int chunkSize = request.getChunkSize() != null ? request.getChunkSize() : (int) defaultChunkSize.toBytes();
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("chunkSize must be between " + MIN_CHUNK_SIZE + " and " + MAX_CHUNK_SIZE);
+        }
+        long chunkCount = (request.getSize() + chunkSize - 1) / chunkSize;
+        if (chunkCount > MAX_CHUNKS) {
+            throw new IllegalArgumentException("At most " + MAX_CHUNKS + " chunks per upload, use a larger chunkSize");
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        UploadSession session = new UploadSession();
+        session.setId(new ObjectId().toHexString());
+        session.setPatientProfileId(patientId);
+        session.setFilename(request.getFilename());
+        session.setFileType(request.getFileType());
+        session.setContentType(request.getContentType());
+        session.setSize(request.getSize());
+        session.setChunkSize(chunkSize);
+        session.setChunkCount((int) chunkCount);
+        session.setSha256(request.getSha256());
+        session.setStatus("OPEN");
+        session.setCreatedBy(dentistUserId);
+        session.setCreatedAt(now);
+        session.setExpiresAt(now.plus(sessionTtl));
+        return mongoTemplate.insert(session);
+    }
+
+    public UploadSession getSession(String patientId, String uploadId, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        return findSession(patientId, uploadId);
+    }
+
+    /**
+     * Stage one chunk. Re-sending a chunk that was already received replaces it.
+     */
+    public void putChunk(String patientId, String uploadId, int index, String sha256, InputStream content, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        UploadSession session = findSession(patientId, uploadId);
+        if (!"OPEN".equals(session.getStatus())) {
+            throw new ConflictException("Upload " + uploadId + " is " + session.getStatus().toLowerCase());
+        }
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new IllegalArgumentException("Chunk index must be between 0 and " + (session.getChunkCount() - 1));
+        }
+        if (sha256 == null || !SHA256_HEX.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("X-Chunk-SHA256 must be the hex SHA-256 of the chunk");
+        }
+
+        chunkStaging.writeChunk(uploadId, index, content, session.chunkLength(index), sha256);
+
+        Query open = new Query(Criteria.where("_id").is(uploadId).and("status").is("OPEN"));
+        Update update = new Update().addToSet("receivedChunks", index).set("expiresAt", LocalDateTime.now().plus(sessionTtl));
+        if (mongoTemplate.updateFirst(open, update, UploadSession.class).getMatchedCount() == 0) {
+            throw new ConflictException("Upload " + uploadId + " is no longer open");
+        }
+    }
+
+    public DentalRecord.Attachment complete(String patientId, String uploadId, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        UploadSession session = findSession(patientId, uploadId);
+
+        LocalDateTime now = LocalDateTime.now();
+        Query claim = new Query(Criteria.where("_id").is(uploadId)
+            .and("receivedChunks").size(session.getChunkCount())
+            .orOperator(
+                Criteria.where("status").is("OPEN"),
+                Criteria.where("status").is("FINALIZING").and("finalizingSince").lt(now.minus(STALE_FINALIZE))));
+        UploadSession claimed = mongoTemplate.findAndModify(claim,
+            new Update().set("status", "FINALIZING").set("finalizingSince", now),
+            FindAndModifyOptions.options().returnNew(true), UploadSession.class);
+
+        if (claimed == null) {
+            UploadSession current = findSession(patientId, uploadId);
+            if ("COMPLETED".equals(current.getStatus())) {
+                return attachmentService.getAttachment(patientId, resolvedAttachmentId(current), dentistUserId);
+            }
+            if ("FINALIZING".equals(current.getStatus())) {
+                throw new ConflictException("Upload " + uploadId + " is already being completed");
+            }
+            throw new ConflictException("Upload " + uploadId + " is missing " + current.getMissingChunks().size() + " chunks");
+        }
+
+        DentalRecord.Attachment attachment;
+        try {
+            // A completion that died after registering the attachment left it behind. One that
+            // resolved to an existing entry is simply repeated: the content is deduplicated again.
+            attachment = attachmentService.lookup(patientId, resolvedAttachmentId(claimed));
+            if (attachment == null) {
+                try (InputStream content = chunkStaging.openAll(uploadId, claimed.getChunkCount())) {
+                    attachment = attachmentService.storeAttachment(patientId, uploadId, claimed.getFilename(),
+                        claimed.getFileType(), claimed.getContentType(), content, claimed.getSize(), claimed.getSha256());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        } catch (RuntimeException e) {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(uploadId).and("status").is("FINALIZING")),
+                new Update().set("status", "OPEN").unset("finalizingSince"), UploadSession.class);
+            throw e;
+        }
+
+        // Kept until it expires so that a retried completion finds the attachment
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(uploadId)),
+            new Update().set("status", "COMPLETED").set("attachmentId", attachment.getId())
+                .set("expiresAt", LocalDateTime.now().plus(sessionTtl)), UploadSession.class);
+        chunkStaging.deleteSession(uploadId);
+        return attachment;
+    }
+
+    public void abort(String patientId, String uploadId, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        findSession(patientId, uploadId);
+        mongoTemplate.remove(new Query(Criteria.where("_id").is(uploadId).and("status").is("OPEN")), UploadSession.class);
+        chunkStaging.deleteSession(uploadId);
+    }
+
+    /**
+     * Drop expired sessions with their staged chunks, and chunk directories whose session is gone
+     */
+    @Scheduled(initialDelayString = "${dentistplus.attachments.uploads.sweep-interval:15m}",
+               fixedDelayString = "${dentistplus.attachments.uploads.sweep-interval:15m}")
+    public void sweepExpired() {
+        LocalDateTime now = LocalDateTime.now();
+        Query expired = new Query(Criteria.where("expiresAt").lt(now)
+            .orOperator(
+                Criteria.where("status").ne("FINALIZING"),
+                Criteria.where("finalizingSince").lt(now.minus(STALE_FINALIZE))));
+        List<UploadSession> removed = mongoTemplate.findAllAndRemove(expired, UploadSession.class);
+        removed.forEach(session -> chunkStaging.deleteSession(session.getId()));
+
+        List<String> staged = chunkStaging.sessionIds();
+        Query live = new Query(Criteria.where("_id").in(staged));
+        live.fields().include("_id");
+        Set<String> known = new HashSet<>();
+        mongoTemplate.find(live, UploadSession.class).forEach(session -> known.add(session.getId()));
+        int[] orphans = { 0 };
+        staged.stream().filter(id -> !known.contains(id)).forEach(id -> {
+            chunkStaging.deleteSession(id);
+            orphans[0]++;
+        });
+
+        if (!removed.isEmpty() || orphans[0] > 0) {
+            System.out.println("AttachmentUploadService: Swept " + removed.size() + " expired uploads and "
+                + orphans[0] + " orphaned chunk directories");
+        }
+    }
+
+    /**
+     * Sessions completed before attachmentId was recorded always produced an entry under their own id
+     */
+    private static String resolvedAttachmentId(UploadSession session) {
+        return session.getAttachmentId() != null ? session.getAttachmentId() : session.getId();
+    }
+
+    private UploadSession findSession(String patientId, String uploadId) {
+        UploadSession session = ObjectId.isValid(uploadId) ? mongoTemplate.findById(uploadId, UploadSession.class) : null;
+        if (session == null || !session.getPatientProfileId().equals(patientId)) {
+            throw new ResourceNotFoundException("Upload not found with id: " + uploadId);
+        }
+        return session;
+    }
+}
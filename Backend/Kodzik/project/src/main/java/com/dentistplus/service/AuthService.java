@@ -2,12 +2,20 @@ package com.dentistplus.service;
 
 import com.dentistplus.dto.DentistRegistrationRequest;
 import com.dentistplus.dto.LoginRequest;
+import com.dentistplus.dto.LoginResponse;
 import com.dentistplus.dto.PatientRegistrationRequest;
+import com.dentistplus.exception.ResourceNotFoundException;
 import com.dentistplus.exception.UnauthorizedException;
 import com.dentistplus.model.PatientProfile;
 import com.dentistplus.model.User;
 import com.dentistplus.repository.PatientProfileRepository;
 import com.dentistplus.repository.UserRepository;
+import com.dentistplus.security.AccessToken;
+import com.dentistplus.security.AccessTokenService;
+import com.dentistplus.security.PrincipalCache;
+import com.dentistplus.security.PrincipalContext;
+import com.dentistplus.security.UserPrincipal;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -24,7 +32,16 @@ public class AuthService {
     @Autowired
     private PatientProfileRepository patientProfileRepository;
 
-    public User login(LoginRequest loginRequest) {
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private AccessTokenService accessTokenService;
+
+    @Autowired
+    private PatientSearchIndex patientSearchIndex;
+
+    public LoginResponse login(LoginRequest loginRequest) {
         System.out.println("AuthService: Login attempt for username: " + loginRequest.getUsername());
         Optional<User> userOpt = userRepository.findByUsername(loginRequest.getUsername());
         
@@ -42,7 +59,18 @@ public class AuthService {
         }
         
         System.out.println("AuthService: Login successful for user: " + loginRequest.getUsername());
-        return user;
+        principalCache.put(user);
+
+        // Embed the patient profile id so portal requests need no lookup at all
+        String patientProfileId = null;
+        if (user.getRoles().contains("ROLE_PATIENT") && ObjectId.isValid(user.getId())) {
+            patientProfileId = patientProfileRepository.findIdByUserId(new ObjectId(user.getId()))
+                .map(PatientProfile::getId)
+                .orElse(null);
+        }
+
+        AccessToken token = accessTokenService.issue(UserPrincipal.from(user), patientProfileId);
+        return new LoginResponse(token.getToken(), token.getExpiresAt(), user);
     }
 
     public User registerPatient(PatientRegistrationRequest request) {
@@ -72,17 +100,16 @@ public class AuthService {
         );
         patientProfile.setContactPhone(request.getContactPhone());
         patientProfile.setAddress(request.getAddress());
-        patientProfileRepository.save(patientProfile);
+        patientSearchIndex.index(patientProfileRepository.save(patientProfile));
 
         return user;
     }
 
     public User registerDentist(DentistRegistrationRequest request, String adminUserId) {
         // Check if the requesting user is an admin
-        User admin = userRepository.findById(adminUserId)
-            .orElseThrow(() -> new UnauthorizedException("Invalid user"));
+        UserPrincipal admin = getPrincipal(adminUserId);
         
-        if (!admin.getRoles().contains("ROLE_ADMIN")) {
+        if (!admin.hasRole("ROLE_ADMIN")) {
             throw new UnauthorizedException("Only administrators can create dentist accounts");
         }
 
@@ -104,13 +131,47 @@ public class AuthService {
         return userRepository.save(user);
     }
 
-    public void validateUserRole(String userId, String requiredRole) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new UnauthorizedException("Invalid user"));
+    public UserPrincipal validateUserRole(String userId, String requiredRole) {
+        UserPrincipal user = getPrincipal(userId);
         
-        if (!user.getRoles().contains(requiredRole)) {
+        if (!user.hasRole(requiredRole)) {
             throw new UnauthorizedException("Insufficient permissions. Required role: " + requiredRole);
         }
+        return user;
+    }
+
+    /**
+     * Resolve the caller's principal, at most once per HTTP request
+     */
+    public UserPrincipal getPrincipal(String userId) {
+        Optional<PrincipalContext> context = PrincipalContext.forUser(userId);
+        if (context.isPresent() && context.get().getPrincipal() != null) {
+            return context.get().getPrincipal();
+        }
+
+        UserPrincipal principal = principalCache.get(userId)
+            .orElseThrow(() -> new UnauthorizedException("Invalid user"));
+        context.ifPresent(c -> c.setPrincipal(principal));
+        return principal;
+    }
+
+    /**
+     * Resolve the patient profile id of a patient user, at most once per HTTP request
+     */
+    public String getPatientProfileId(String patientUserId) {
+        Optional<PrincipalContext> context = PrincipalContext.forUser(patientUserId);
+        if (context.isPresent() && context.get().getPatientProfileId() != null) {
+            return context.get().getPatientProfileId();
+        }
+
+        if (!ObjectId.isValid(patientUserId)) {
+            throw new ResourceNotFoundException("Patient profile not found");
+        }
+        String patientProfileId = patientProfileRepository.findIdByUserId(new ObjectId(patientUserId))
+            .map(PatientProfile::getId)
+            .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found"));
+        context.ifPresent(c -> c.setPatientProfileId(patientProfileId));
+        return patientProfileId;
     }
 
     public User getCurrentUser(String userId) {
@@ -0,0 +1,250 @@
+package com.dentistplus.service;
+
+import com.dentistplus.dto.ChartDiffEntry;
+import com.dentistplus.model.ChartChange;
+import com.dentistplus.model.ChartSnapshot;
+import com.dentistplus.model.DentalChart;
+import com.dentistplus.model.DentalRecord;
+import com.dentistplus.model.PatientProfile;
+import com.mongodb.DBRef;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of dental chart changes (dental_chart_changes) with a full snapshot every
+ * snapshot-interval versions (dental_chart_snapshots). The chart as of a point in time is
+ * the latest snapshot before it plus the changes after that snapshot, so rebuilding it
+ * never replays more than snapshot-interval changes.
+ *
+ * A change is first written to the record's pendingChanges in the same update as the chart
+ * and its version, and moved into the log afterwards (record). Changes left pending by a
+ * failed or interrupted move are moved before the history is read, so no version is lost.
+ */
+@Component
+public class DentalChartHistory {
+
+    private final MongoTemplate mongoTemplate;
+    private final int snapshotInterval;
+
+    @Autowired
+    public DentalChartHistory(MongoTemplate mongoTemplate,
+                              @Value("${dentistplus.chart-history.snapshot-interval:50}") int snapshotInterval) {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("dentistplus.chart-history.snapshot-interval must be positive");
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public static int delta(int slot, int code) {
+        return slot << DentalChart.BITS_PER_SURFACE | code;
+    }
+
+    public static int slotOf(int delta) {
+        return delta >>> DentalChart.BITS_PER_SURFACE;
+    }
+
+    public static int codeOf(int delta) {
+        return delta & DentalChart.SURFACE_MASK;
+    }
+
+    /**
+     * Deltas turning one chart into another, for full-chart replacements
+     */
+    public static List<Integer> deltas(DentalChart before, DentalChart after) {
+        List<Integer> deltas = new ArrayList<>();
+        for (int slot = 0; slot < DentalChart.SLOTS; slot++) {
+            if (before.code(slot) != after.code(slot)) {
+                deltas.add(delta(slot, after.code(slot)));
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Move a change written to the record's pendingChanges into the log; after is the chart
+     * it left behind, or null to rebuild that from the log. Safe to repeat: the change and
+     * its snapshot are keyed by version.
+     */
+    public void record(ChartChange change, DentalChart after) {
+        try {
+            mongoTemplate.insert(new ChartChange(change.getPatientProfileId(), change.getVersion(), change.getChangedAt(),
+                change.getChangedBy(), change.getDeltas()));
+        } catch (DuplicateKeyException e) {
+            // Moved before, by a retry or another reader
+        }
+        if (change.getVersion() % snapshotInterval == 0) {
+            mongoTemplate.upsert(new Query(Criteria.where("patientProfileId").is(change.getPatientProfileId())
+                    .and("version").is(change.getVersion())),
+                new Update().setOnInsert("changedAt", change.getChangedAt())
+                    .setOnInsert("chart", (after != null ? after : chartAtVersion(change.getPatientProfileId(), change.getVersion())).toStored()),
+                ChartSnapshot.class);
+        }
+        mongoTemplate.updateFirst(new Query(byPatient(change.getPatientProfileId())),
+            new Update().pull("pendingChanges", new Document("version", change.getVersion())), DentalRecord.class);
+    }
+
+    /**
+     * Move the changes still pending on the patient's record into the log, oldest first
+     */
+    public void recordPending(String patientProfileId) {
+        Query query = new Query(byPatient(patientProfileId).and("pendingChanges.0").exists(true));
+        query.fields().include("pendingChanges");
+        DentalRecord record = mongoTemplate.findOne(query, DentalRecord.class);
+        if (record != null) {
+            record.getPendingChanges().stream()
+                .sorted(Comparator.comparingLong(ChartChange::getVersion))
+                .forEach(change -> record(change, null));
+        }
+    }
+
+    /**
+     * Move the changes left pending by writers that stopped before moving them
+     */
+    public void recordAllPending() {
+        Query query = new Query(Criteria.where("pendingChanges.0").exists(true));
+        query.fields().include("patientProfile");
+        int[] moved = { 0 };
+        mongoTemplate.find(query, DentalRecord.class).forEach(record -> {
+            recordPending(record.getPatientProfile().getId());
+            moved[0]++;
+        });
+        if (moved[0] > 0) {
+            System.out.println("DentalChartHistory: Moved pending chart changes of " + moved[0] + " records");
+        }
+    }
+
+    /**
+     * The chart left by the latest change made by the given time. Timestamps only pick that
+     * version; the chart is then rebuilt from versions alone, because changedAt is taken by
+     * each writer after its update and concurrent writers may log it out of version order.
+     */
+    public DentalChart chartAt(String patientProfileId, LocalDateTime at) {
+        recordPending(patientProfileId);
+        Long version = versionAt(patientProfileId, at);
+        return version != null ? chartAtVersion(patientProfileId, version) : new DentalChart();
+    }
+
+    /**
+     * The chart left by the given version: the latest snapshot at or before it plus the
+     * changes after that snapshot. A missing version fails rather than return a chart that
+     * never existed.
+     */
+    private DentalChart chartAtVersion(String patientProfileId, long version) {
+        Query snapshotQuery = new Query(Criteria.where("patientProfileId").is(patientProfileId).and("version").lte(version))
+            .with(Sort.by(Sort.Direction.DESC, "version"));
+        ChartSnapshot snapshot = mongoTemplate.findOne(snapshotQuery, ChartSnapshot.class);
+
+        DentalChart chart = new DentalChart();
+        Criteria changes = Criteria.where("patientProfileId").is(patientProfileId);
+        if (snapshot != null) {
+            chart = DentalChart.fromStored(snapshot.getChart());
+            changes.and("version").gt(snapshot.getVersion()).lte(version);
+        } else {
+            changes.and("version").lte(version);
+        }
+
+        Query changeQuery = new Query(changes).with(Sort.by(Sort.Direction.ASC, "version"));
+        changeQuery.fields().include("version", "deltas");
+        long expected = snapshot != null ? snapshot.getVersion() + 1 : 1;
+        for (ChartChange change : mongoTemplate.find(changeQuery, ChartChange.class)) {
+            if (change.getVersion() != expected) {
+                throw new IllegalStateException("Chart history of patient " + patientProfileId + " is missing version " + expected);
+            }
+            for (int delta : change.getDeltas()) {
+                chart.setCode(slotOf(delta), codeOf(delta));
+            }
+            expected++;
+        }
+        if (expected != version + 1) {
+            throw new IllegalStateException("Chart history of patient " + patientProfileId + " is missing version " + expected);
+        }
+        return chart;
+    }
+
+    /**
+     * Version of the latest change logged at or before the given time: 0 for a history that
+     * starts from a baseline snapshot taken by then, null when there was no chart yet
+     */
+    private Long versionAt(String patientProfileId, LocalDateTime at) {
+        Query changeQuery = new Query(Criteria.where("patientProfileId").is(patientProfileId).and("changedAt").lte(at))
+            .with(Sort.by(Sort.Direction.DESC, "changedAt"));
+        changeQuery.fields().include("version");
+        ChartChange change = mongoTemplate.findOne(changeQuery, ChartChange.class);
+        if (change != null) {
+            return change.getVersion();
+        }
+
+        Query baselineQuery = new Query(Criteria.where("patientProfileId").is(patientProfileId)
+            .and("version").is(0L).and("changedAt").lte(at));
+        return mongoTemplate.exists(baselineQuery, ChartSnapshot.class) ? 0L : null;
+    }
+
+    /**
+     * Surfaces that differ between two charts, in tooth order
+     */
+    public static List<ChartDiffEntry> diff(DentalChart before, DentalChart after) {
+        List<ChartDiffEntry> entries = new ArrayList<>();
+        for (int slot = 0; slot < DentalChart.SLOTS; slot++) {
+            if (before.code(slot) != after.code(slot)) {
+                entries.add(new ChartDiffEntry(DentalChart.toothKey(slot), DentalChart.surface(slot).key(),
+                    name(DentalChart.condition(before.code(slot))), name(DentalChart.condition(after.code(slot)))));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Start the history of records that predate it with a version-0 snapshot of their chart
+     */
+    public void recordBaselines() {
+        Query query = new Query(Criteria.where("chartVersion").exists(false));
+        query.fields().include("patientProfile", "chart", "updatedAt");
+
+        String collection = mongoTemplate.getCollectionName(DentalRecord.class);
+        int[] started = { 0 };
+        try (Stream<Document> records = mongoTemplate.stream(query, Document.class, collection)) {
+            records.forEach(record -> {
+                List<Integer> chart = record.getList("chart", Integer.class, List.of());
+                if (record.get("patientProfile") instanceof DBRef patient && chart.stream().anyMatch(tooth -> tooth != 0)) {
+                    LocalDateTime changedAt = record.get("updatedAt") instanceof Date date
+                        ? LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault())
+                        : LocalDateTime.now();
+                    mongoTemplate.insert(new ChartSnapshot(patient.getId().toString(), 0, changedAt, chart));
+                }
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(record.get("_id")).and("chartVersion").exists(false)),
+                    new Update().set("chartVersion", 0L), collection);
+                started[0]++;
+            });
+        }
+        if (started[0] > 0) {
+            System.out.println("DentalChartHistory: Started history for " + started[0] + " records");
+        }
+    }
+
+    private Criteria byPatient(String patientProfileId) {
+        return Criteria.where("patientProfile")
+            .is(new DBRef(mongoTemplate.getCollectionName(PatientProfile.class), new ObjectId(patientProfileId)));
+    }
+
+    private static String name(DentalChart.Condition condition) {
+        return condition != null ? condition.name() : null;
+    }
+}
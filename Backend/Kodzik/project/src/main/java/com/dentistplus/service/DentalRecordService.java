@@ -1,23 +1,49 @@
 package com.dentistplus.service;
 
+import com.dentistplus.dto.ChartDiffEntry;
+import com.dentistplus.dto.CursorPage;
 import com.dentistplus.exception.ResourceNotFoundException;
+import com.dentistplus.model.Appointment;
+import com.dentistplus.model.AttachmentBucket;
+import com.dentistplus.model.ChartChange;
+import com.dentistplus.model.ClinicalNoteBucket;
+import com.dentistplus.model.DentalChart;
 import com.dentistplus.model.DentalRecord;
 import com.dentistplus.model.PatientProfile;
-import com.dentistplus.model.User;
-import com.dentistplus.repository.DentalRecordRepository;
+import com.dentistplus.repository.BucketStore;
+import com.dentistplus.repository.CursorPaging;
 import com.dentistplus.repository.PatientProfileRepository;
+import com.dentistplus.security.UserPrincipal;
+import com.mongodb.DBRef;
+import com.mongodb.ReadPreference;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 @Service
 public class DentalRecordService {
-    
-    @Autowired
-    private DentalRecordRepository dentalRecordRepository;
+
+    // Notes/attachments embedded in a record view; older ones are paged separately
+    private static final int RECENT_ENTRIES = 20;
     
     @Autowired
     private PatientProfileRepository patientProfileRepository;
@@ -25,85 +51,466 @@ public class DentalRecordService {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BucketStore bucketStore;
+
+    @Autowired
+    private DentalChartHistory chartHistory;
+
+    // Record reads never write, so they may go to a secondary (e.g. secondaryPreferred)
+    @Value("${dentistplus.records.read-preference:primary}")
+    private String readPreference;
+
+    /**
+     * Record migrations, in order: merge duplicate records before the unique index goes on,
+     * move embedded history into buckets, and pack legacy charts before history baselines
+     * are taken, so that those see the packed chart
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateRecords() {
+        ensureOneRecordPerPatient();
+        moveEmbeddedHistory();
+        packLegacyCharts();
+        chartHistory.recordBaselines();
+        chartHistory.recordAllPending();
+    }
+
+    /**
+     * Records used to be created by reads, so concurrent first reads could leave a patient
+     * with several. The most recently charted one of each is kept; the notes and attachments
+     * of the others are moved into the patient's buckets before those are deleted. Then the
+     * unique index goes on that lets the first write upsert the record safely.
+     */
+    private void ensureOneRecordPerPatient() {
+        String collection = mongoTemplate.getCollectionName(DentalRecord.class);
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.sort(Sort.by(Sort.Direction.DESC, "chartVersion", "updatedAt")),
+            Aggregation.group("patientProfile").push("_id").as("ids").count().as("count"),
+            Aggregation.match(Criteria.where("count").gt(1)));
+
+        long[] merged = { 0 };
+        mongoTemplate.aggregate(aggregation, collection, Document.class).forEach(duplicates -> {
+            List<Object> ids = duplicates.getList("ids", Object.class);
+            Query query = new Query(Criteria.where("_id").in(ids.subList(1, ids.size())));
+            query.fields().include("patientProfile", "generalNotes", "attachments");
+            mongoTemplate.find(query, Document.class, collection).forEach(duplicate -> {
+                moveHistory(duplicate);
+                merged[0] += mongoTemplate.remove(new Query(Criteria.where("_id").is(duplicate.get("_id"))), collection)
+                    .getDeletedCount();
+            });
+        });
+        if (merged[0] > 0) {
+            System.out.println("DentalRecordService: Merged " + merged[0] + " duplicate dental records");
+        }
+
+        mongoTemplate.indexOps(collection).ensureIndex(new Index()
+            .on("patientProfile", Sort.Direction.ASC).unique().named("patient_unique"));
+    }
+
+    /**
+     * Convert charts still stored as nested string maps into the packed format
+     */
+    private void packLegacyCharts() {
+        Query query = new Query(Criteria.where("chart").exists(false));
+        query.fields().include("dentalChart");
+
+        int[] packed = { 0, 0 };
+        try (Stream<Document> records = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(DentalRecord.class))) {
+            records.forEach(record -> {
+                packed[1] += packLegacyChart(record);
+                packed[0]++;
+            });
+        }
+        if (packed[0] > 0) {
+            System.out.println("DentalRecordService: Packed " + packed[0] + " legacy charts, kept " + packed[1]
+                + " unknown entries in legacyDentalChart");
+        }
+    }
+
+    /**
+     * Returns the number of surface entries that could not be mapped to the packed format.
+     * A chart with such entries is kept as legacyDentalChart instead of being dropped.
+     */
+    private int packLegacyChart(Document record) {
+        DentalChart chart = new DentalChart();
+        int skipped = 0;
+        if (record.get("dentalChart") instanceof Document teeth) {
+            for (Map.Entry<String, Object> tooth : teeth.entrySet()) {
+                if (!(tooth.getValue() instanceof Document surfaces)) {
+                    continue;
+                }
+                for (Map.Entry<String, Object> surface : surfaces.entrySet()) {
+                    try {
+                        chart.set(DentalChart.toothIndex(tooth.getKey()),
+                            DentalChart.Surface.of(surface.getKey().toLowerCase()),
+                            DentalChart.Condition.of(String.valueOf(surface.getValue()).toUpperCase()));
+                    } catch (IllegalArgumentException e) {
+                        skipped++;
+                    }
+                }
+            }
+        }
+
+        Update update = new Update().set("chart", chart.toStored());
+        if (skipped > 0) {
+            update.rename("dentalChart", "legacyDentalChart");
+        } else {
+            update.unset("dentalChart");
+        }
+        // Conditional on chart still missing, so a concurrent pack is not overwritten
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(record.get("_id")).and("chart").exists(false)),
+            update, mongoTemplate.getCollectionName(DentalRecord.class));
+        return skipped;
+    }
+
+    /**
+     * Move notes and attachments still embedded in dental_records into buckets. The
+     * buckets are keyed by the record id, so a move interrupted between the bucket
+     * writes and the $unset is completed on the next start without copying twice.
+     */
+    private void moveEmbeddedHistory() {
+        Query query = new Query(new Criteria().orOperator(
+            Criteria.where("generalNotes.0").exists(true),
+            Criteria.where("attachments.0").exists(true)));
+        query.fields().include("patientProfile", "generalNotes", "attachments");
+
+        String collection = mongoTemplate.getCollectionName(DentalRecord.class);
+        int[] moved = { 0 };
+        try (Stream<Document> records = mongoTemplate.stream(query, Document.class, collection)) {
+            records.forEach(record -> {
+                moveHistory(record);
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(record.get("_id"))),
+                    new Update().unset("generalNotes").unset("attachments"), collection);
+                moved[0]++;
+            });
+        }
+        if (moved[0] > 0) {
+            System.out.println("DentalRecordService: Moved notes and attachments of " + moved[0] + " records into buckets");
+        }
+    }
+
+    /**
+     * Append a record's embedded notes and attachments to its patient's buckets, keyed by
+     * the record id so that repeating this for the same record adds nothing
+     */
+    private void moveHistory(Document record) {
+        if (record.get("patientProfile") instanceof DBRef patient) {
+            String patientProfileId = patient.getId().toString();
+            String recordId = record.get("_id").toString();
+            bucketStore.appendAll(ClinicalNoteBucket.class, patientProfileId, recordId, record.getList("generalNotes", Document.class, List.of()));
+            bucketStore.appendAll(AttachmentBucket.class, patientProfileId, recordId, record.getList("attachments", Document.class, List.of()));
+        }
+    }
+
     public DentalRecord getDentalRecord(String patientId, String dentistUserId) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
         
-        PatientProfile patient = patientProfileRepository.findById(patientId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + patientId));
-
-        return dentalRecordRepository.findByPatientProfile(patient)
-            .orElseGet(() -> createEmptyDentalRecord(patient));
+        DentalRecord record = findRecord(patientId, ReadPreference.valueOf(readPreference));
+        if (record == null) {
+            record = emptyRecord(patientProfileRepository.findById(patientId)
+                .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + patientId)));
+        }
+        return withRecentHistory(record, patientId);
     }
 
     public DentalRecord updateDentalChart(String patientId, Map<String, Map<String, String>> dentalChart, String dentistUserId) {
-        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
-        
-        PatientProfile patient = patientProfileRepository.findById(patientId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + patientId));
+        UserPrincipal dentist = authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        DentalChart chart = DentalChart.fromMap(dentalChart);
+        requirePatient(patientId);
 
-        DentalRecord record = dentalRecordRepository.findByPatientProfile(patient)
-            .orElseGet(() -> createEmptyDentalRecord(patient));
+        // Replace the chart conditional on the version it was read at, writing the logged
+        // difference in the same update; the first chart write creates the record
+        Query read = new Query(byPatient(patientId));
+        read.fields().include("chart", "chartVersion");
+        ChartChange change;
+        while (true) {
+            DentalRecord before = mongoTemplate.findOne(read, DentalRecord.class);
+            Long stored = before != null ? before.getChartVersion() : null;
+            DentalChart previous = before != null ? before.getChart() : new DentalChart();
+            LocalDateTime now = LocalDateTime.now();
+            change = new ChartChange(patientId, (stored != null ? stored : 0) + 1, now, dentist.getUsername(),
+                DentalChartHistory.deltas(previous, chart));
 
-        record.setDentalChart(dentalChart);
-        record.setUpdatedAt(LocalDateTime.now());
-        
-        return dentalRecordRepository.save(record);
+            Update update = new Update().set("chart", chart.toStored()).set("updatedAt", now).set("chartVersion", change.getVersion())
+                .push("pendingChanges", change).setOnInsert("createdAt", now);
+            try {
+                // Not matching upserts, which the unique patient index turns into a duplicate
+                mongoTemplate.upsert(new Query(byPatient(patientId).and("chartVersion").is(stored)), update, DentalRecord.class);
+                break;
+            } catch (DuplicateKeyException e) {
+                // A concurrent write got in first; start over from its chart
+            }
+        }
+        chartHistory.record(change, chart);
+
+        // From the primary, so the response includes this write
+        return withRecentHistory(findRecord(patientId, ReadPreference.primary()), patientId);
     }
 
-    public DentalRecord addAttachment(String patientId, DentalRecord.Attachment attachment, String dentistUserId) {
-        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
-        
-        PatientProfile patient = patientProfileRepository.findById(patientId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + patientId));
+    /**
+     * Apply only the changed teeth/surfaces with one $bit update on the packed chart,
+     * conditional on the version it was read at; the logged change is written in the same
+     * update. A null surface value clears that surface, a null tooth clears the tooth.
+     */
+    public void patchDentalChart(String patientId, Map<String, Map<String, String>> changes, String dentistUserId) {
+        UserPrincipal dentist = authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
 
-        DentalRecord record = dentalRecordRepository.findByPatientProfile(patient)
-            .orElseGet(() -> createEmptyDentalRecord(patient));
+        List<Integer> deltas = chartDeltas(changes);
+        String collection = mongoTemplate.getCollectionName(DentalRecord.class);
+        Query read = new Query(byPatient(patientId));
+        read.fields().include("chart", "chartVersion");
+        while (true) {
+            Document current = mongoTemplate.findOne(read, Document.class, collection);
+            if (current == null) {
+                requirePatient(patientId);
+                materializeRecord(patientId);
+                continue;
+            }
+            if (!current.containsKey("chart")) {
+                // Still holding the legacy map chart: pack it first
+                packLegacyChart(mongoTemplate.findOne(new Query(byPatient(patientId)), Document.class, collection));
+                continue;
+            }
 
-        if (record.getAttachments() == null) {
-            record.setAttachments(new ArrayList<>());
+            Object stored = current.get("chartVersion");
+            long version = (stored instanceof Number number ? number.longValue() : 0) + 1;
+            ChartChange change = new ChartChange(patientId, version, LocalDateTime.now(), dentist.getUsername(), deltas);
+            Query unchanged = new Query(byPatient(patientId).and("chart").exists(true).and("chartVersion").is(stored));
+            if (mongoTemplate.updateFirst(unchanged, chartUpdate(deltas, change), collection).getModifiedCount() == 1) {
+                DentalChart after = DentalChart.fromStored(current.getList("chart", Integer.class));
+                for (int delta : deltas) {
+                    after.setCode(DentalChartHistory.slotOf(delta), DentalChartHistory.codeOf(delta));
+                }
+                chartHistory.record(change, after);
+                return;
+            }
         }
-        
-        record.getAttachments().add(attachment);
-        record.setUpdatedAt(LocalDateTime.now());
-        
-        return dentalRecordRepository.save(record);
     }
 
-    public DentalRecord addClinicalNote(String patientId, String note, String dentistUserId) {
+    /**
+     * Validate a chart patch and turn it into history deltas (see DentalChartHistory.delta)
+     */
+    private static List<Integer> chartDeltas(Map<String, Map<String, String>> changes) {
+        if (changes == null || changes.isEmpty()) {
+            throw new IllegalArgumentException("No chart changes given");
+        }
+
+        List<Integer> deltas = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> tooth : changes.entrySet()) {
+            int index = DentalChart.toothIndex(tooth.getKey());
+            if (tooth.getValue() == null) {
+                for (DentalChart.Surface surface : DentalChart.Surface.values()) {
+                    deltas.add(DentalChartHistory.delta(DentalChart.slot(index, surface), 0));
+                }
+                continue;
+            }
+            if (tooth.getValue().isEmpty()) {
+                throw new IllegalArgumentException("No surfaces given for " + tooth.getKey());
+            }
+            for (Map.Entry<String, String> surface : tooth.getValue().entrySet()) {
+                int code = surface.getValue() != null ? DentalChart.Condition.of(surface.getValue()).code() : 0;
+                deltas.add(DentalChartHistory.delta(DentalChart.slot(index, DentalChart.Surface.of(surface.getKey())), code));
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Per changed tooth, clear the nibbles of the changed surfaces and OR in the new codes;
+     * sets the change's version and adds it to pendingChanges
+     */
+    private Update chartUpdate(List<Integer> deltas, ChartChange change) {
+        Map<Integer, int[]> teeth = new LinkedHashMap<>();
+        for (int delta : deltas) {
+            int slot = DentalChartHistory.slotOf(delta);
+            int shift = DentalChart.shift(DentalChart.surface(slot));
+            int[] ops = teeth.computeIfAbsent(slot / DentalChart.Surface.values().length, tooth -> new int[] { ~0, 0 });
+            ops[0] &= ~(DentalChart.SURFACE_MASK << shift);
+            ops[1] |= DentalChartHistory.codeOf(delta) << shift;
+        }
+
+        Document bits = new Document();
+        // $bit applies the operations in order: and, then or
+        teeth.forEach((tooth, ops) -> bits.append("chart." + tooth, new Document("and", ops[0]).append("or", ops[1])));
+        return Update.fromDocument(new Document("$bit", bits)
+            .append("$set", new Document("updatedAt", change.getChangedAt()).append("chartVersion", change.getVersion()))
+            .append("$push", new Document("pendingChanges", mongoTemplate.getConverter().convertToMongoType(change))));
+    }
+
+    public Map<String, Map<String, String>> getChartAt(String patientId, String at, String dentistUserId) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
-        
-        User dentist = authService.getCurrentUser(dentistUserId);
-        PatientProfile patient = patientProfileRepository.findById(patientId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + patientId));
+        requirePatient(patientId);
 
-        DentalRecord record = dentalRecordRepository.findByPatientProfile(patient)
-            .orElseGet(() -> createEmptyDentalRecord(patient));
+        LocalDateTime time = at != null ? AppointmentService.parseDateOrDateTime(at, "at") : LocalDateTime.now();
+        return chartHistory.chartAt(patientId, time).toMap();
+    }
+
+    public List<ChartDiffEntry> getChartDiff(String patientId, String from, String to, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        requirePatient(patientId);
 
-        if (record.getGeneralNotes() == null) {
-            record.setGeneralNotes(new ArrayList<>());
+        LocalDateTime fromTime = AppointmentService.parseDateOrDateTime(from, "from");
+        LocalDateTime toTime = to != null ? AppointmentService.parseDateOrDateTime(to, "to") : LocalDateTime.now();
+        if (toTime.isBefore(fromTime)) {
+            throw new IllegalArgumentException("to must not be before from");
         }
-        
+        return DentalChartHistory.diff(chartHistory.chartAt(patientId, fromTime), chartHistory.chartAt(patientId, toTime));
+    }
+
+    /**
+     * Chart changes since the given time, by default since the start of the patient's last
+     * completed visit; everything charted so far when there was none
+     */
+    public List<ChartDiffEntry> getMyChartChanges(String patientUserId, String since) {
+        authService.validateUserRole(patientUserId, "ROLE_PATIENT");
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime sinceTime = since != null ? AppointmentService.parseDateOrDateTime(since, "since") : lastVisit(patientProfileId, now);
+        DentalChart before = sinceTime != null ? chartHistory.chartAt(patientProfileId, sinceTime) : new DentalChart();
+        return DentalChartHistory.diff(before, chartHistory.chartAt(patientProfileId, now));
+    }
+
+    private LocalDateTime lastVisit(String patientProfileId, LocalDateTime now) {
+        Query query = new Query(CursorPaging.byReference("patientProfile", patientProfileId)
+            .and("status").is("COMPLETED")
+            .and("appointmentDate").lte(now))
+            .with(Sort.by(Sort.Direction.DESC, "appointmentDate"));
+        query.fields().include("appointmentDate");
+
+        Appointment visit = mongoTemplate.findOne(query, Appointment.class);
+        return visit != null ? visit.getAppointmentDate() : null;
+    }
+
+    public DentalRecord.Attachment addAttachment(String patientId, DentalRecord.Attachment attachment, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        requirePatient(patientId);
+
+        // Only uploads (AttachmentService) get an id that downloads resolve
+        attachment.setId(null);
+        bucketStore.append(AttachmentBucket.class, patientId, attachment);
+        return attachment;
+    }
+
+    public DentalRecord.ClinicalNote addClinicalNote(String patientId, String note, String dentistUserId) {
+        UserPrincipal dentist = authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        requirePatient(patientId);
+
         DentalRecord.ClinicalNote clinicalNote = new DentalRecord.ClinicalNote(note, dentist.getUsername());
-        record.getGeneralNotes().add(clinicalNote);
-        record.setUpdatedAt(LocalDateTime.now());
-        
-        return dentalRecordRepository.save(record);
+        bucketStore.append(ClinicalNoteBucket.class, patientId, clinicalNote);
+        return clinicalNote;
+    }
+
+    public CursorPage<DentalRecord.ClinicalNote> getClinicalNotes(String patientId, String cursor, Integer limit, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        return bucketStore.findNewestFirst(ClinicalNoteBucket.class, patientId, DentalRecord.ClinicalNote.class, cursor, limit);
+    }
+
+    public CursorPage<DentalRecord.Attachment> getAttachments(String patientId, String cursor, Integer limit, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        return bucketStore.findNewestFirst(AttachmentBucket.class, patientId, DentalRecord.Attachment.class, cursor, limit);
+    }
+
+    public CursorPage<DentalRecord.ClinicalNote> getMyClinicalNotes(String patientUserId, String cursor, Integer limit) {
+        authService.validateUserRole(patientUserId, "ROLE_PATIENT");
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
+        return bucketStore.findNewestFirst(ClinicalNoteBucket.class, patientProfileId, DentalRecord.ClinicalNote.class, cursor, limit);
+    }
+
+    public CursorPage<DentalRecord.Attachment> getMyAttachments(String patientUserId, String cursor, Integer limit) {
+        authService.validateUserRole(patientUserId, "ROLE_PATIENT");
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
+        return bucketStore.findNewestFirst(AttachmentBucket.class, patientProfileId, DentalRecord.Attachment.class, cursor, limit);
     }
 
     public DentalRecord getMyDentalRecord(String patientUserId) {
         authService.validateUserRole(patientUserId, "ROLE_PATIENT");
         
-        PatientProfile patient = patientProfileRepository.findByUser_Id(patientUserId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found"));
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
+
+        DentalRecord record = findRecord(patientProfileId, ReadPreference.valueOf(readPreference));
+        if (record == null) {
+            record = emptyRecord(patientProfileRepository.findById(patientProfileId)
+                .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found")));
+        }
+        return withRecentHistory(record, patientProfileId);
+    }
+
+    /**
+     * "map" (default) returns dentalChart as nested maps, "compact" as dentalChartCodes bytes
+     */
+    public DentalRecord withChartFormat(DentalRecord record, String chartFormat) {
+        if (chartFormat == null || chartFormat.equalsIgnoreCase("map")) {
+            record.setCompactChart(false);
+        } else if (chartFormat.equalsIgnoreCase("compact")) {
+            record.setCompactChart(true);
+        } else {
+            throw new IllegalArgumentException("chartFormat must be 'map' or 'compact'");
+        }
+        return record;
+    }
 
-        return dentalRecordRepository.findByPatientProfile(patient)
-            .orElseGet(() -> createEmptyDentalRecord(patient));
+    private DentalRecord withRecentHistory(DentalRecord record, String patientProfileId) {
+        record.setGeneralNotes(bucketStore.findRecent(ClinicalNoteBucket.class, patientProfileId, DentalRecord.ClinicalNote.class, RECENT_ENTRIES));
+        record.setAttachments(bucketStore.findRecent(AttachmentBucket.class, patientProfileId, DentalRecord.Attachment.class, RECENT_ENTRIES));
+        return record;
     }
 
-    private DentalRecord createEmptyDentalRecord(PatientProfile patient) {
+    private void requirePatient(String patientId) {
+        if (!patientProfileRepository.existsById(patientId)) {
+            throw new ResourceNotFoundException("Patient not found with id: " + patientId);
+        }
+    }
+
+    /**
+     * Records are matched on the whole DBRef, so that an upsert copies a complete
+     * reference into the record it inserts
+     */
+    private Criteria byPatient(String patientProfileId) {
+        if (!ObjectId.isValid(patientProfileId)) {
+            throw new IllegalArgumentException("Invalid id: " + patientProfileId);
+        }
+        return Criteria.where("patientProfile")
+            .is(new DBRef(mongoTemplate.getCollectionName(PatientProfile.class), new ObjectId(patientProfileId)));
+    }
+
+    private DentalRecord findRecord(String patientProfileId, ReadPreference preference) {
+        Query query = new Query(byPatient(patientProfileId));
+        query.withReadPreference(preference);
+        return mongoTemplate.findOne(query, DentalRecord.class);
+    }
+
+    /**
+     * What a patient without a stored record sees; never saved, the first chart write creates the record
+     */
+    private static DentalRecord emptyRecord(PatientProfile patient) {
         DentalRecord record = new DentalRecord(patient);
-        record.setAttachments(new ArrayList<>());
-        record.setGeneralNotes(new ArrayList<>());
-        return dentalRecordRepository.save(record);
+        record.setChartVersion(0L);
+        record.setCreatedAt(null);
+        record.setUpdatedAt(null);
+        return record;
+    }
+
+    /**
+     * Create the patient's record if there is none yet. Only inserts, so repeating it is
+     * harmless; the unique index on patientProfile makes concurrent first writes end up
+     * with the same record.
+     */
+    private void materializeRecord(String patientProfileId) {
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+            .setOnInsert("chart", new DentalChart().toStored())
+            .setOnInsert("chartVersion", 0L)
+            .setOnInsert("createdAt", now)
+            .setOnInsert("updatedAt", now);
+        try {
+            mongoTemplate.upsert(new Query(byPatient(patientProfileId)), update, DentalRecord.class);
+        } catch (DuplicateKeyException e) {
+            // A concurrent first write created it
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,289 @@
+package com.dentistplus.service;
+
+import com.dentistplus.dto.TimeSlot;
+import com.dentistplus.model.Appointment;
+import com.mongodb.DBRef;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * In-memory free/busy calendar per dentist. Every day is a bitset of 5-minute slots
+ * (288 bits in five longs), so availability queries never touch Mongo. It only answers
+ * availability; whether a booking may proceed is decided by SlotReservationService.
+ * The calendar is built on startup from non-cancelled appointments, kept current by
+ * AppointmentService on book/reschedule/cancel, rebuilt periodically to pick up writes
+ * made by other nodes, and days older than the retention window are dropped.
+ */
+@Component
+public class DentistAvailabilityIndex {
+
+    static final int SLOT_MINUTES = 5;
+    private static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+    private static final int DEFAULT_DURATION_MINUTES = 30;
+
+    private final MongoTemplate mongoTemplate;
+    private final LocalTime openingTime;
+    private final LocalTime closingTime;
+    private final int retentionDays;
+
+    private State state = new State();
+    // Changes made while a rebuild is reading Mongo, replayed onto the fresh state
+    private List<Change> pending;
+
+    @Autowired
+    public DentistAvailabilityIndex(MongoTemplate mongoTemplate,
+                                    @Value("${dentistplus.availability.opening-time:08:00}") String openingTime,
+                                    @Value("${dentistplus.availability.closing-time:18:00}") String closingTime,
+                                    @Value("${dentistplus.availability.retention-days:7}") int retentionDays) {
+        this.mongoTemplate = mongoTemplate;
+        this.openingTime = LocalTime.parse(openingTime);
+        this.closingTime = LocalTime.parse(closingTime);
+        this.retentionDays = retentionDays;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${dentistplus.availability.refresh:10m}",
+               fixedDelayString = "${dentistplus.availability.refresh:10m}")
+    public void rebuild() {
+        synchronized (this) {
+            pending = new ArrayList<>();
+        }
+
+        Query query = new Query(Criteria.where("appointmentDate").gte(retentionCutoff().atStartOfDay())
+            .and("status").ne("CANCELLED"));
+        query.fields().include("dentist", "appointmentDate", "durationMinutes");
+
+        State fresh = new State();
+        try (Stream<Document> rows = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(Appointment.class))) {
+            rows.forEach(row -> {
+                if (row.get("dentist") instanceof DBRef dentist && row.get("appointmentDate") instanceof Date date) {
+                    // LocalDateTime is stored as a Date in the JVM's zone
+                    LocalDateTime start = LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+                    fresh.put(new Booking(row.get("_id").toString(), dentist.getId().toString(), start,
+                        minutes(row.getInteger("durationMinutes"))));
+                }
+            });
+        }
+
+        synchronized (this) {
+            pending.forEach(fresh::apply);
+            pending = null;
+            state = fresh;
+        }
+        System.out.println("DentistAvailabilityIndex: Indexed " + fresh.bookings.size() + " appointments");
+    }
+
+    @Scheduled(fixedDelayString = "${dentistplus.availability.evict-interval:1h}")
+    public synchronized void evictPastDays() {
+        state.evictBefore(retentionCutoff());
+    }
+
+    /**
+     * Mark the appointment's time as busy, replacing any earlier time of the same
+     * appointment. This node's view may lag behind writes made on other nodes, so it never
+     * decides whether a booking is allowed - slot reservations do.
+     */
+    public synchronized void book(String appointmentId, String dentistId, LocalDateTime start, Integer durationMinutes) {
+        Booking booking = new Booking(appointmentId, dentistId, start, minutes(durationMinutes));
+        state.remove(appointmentId);
+        state.put(booking);
+        record(new Change(appointmentId, booking));
+    }
+
+    public synchronized void release(String appointmentId) {
+        state.remove(appointmentId);
+        record(new Change(appointmentId, null));
+    }
+
+    /**
+     * Free intervals of a dentist within [from, to), limited to opening hours
+     */
+    public synchronized List<TimeSlot> freeSlots(String dentistId, LocalDateTime from, LocalDateTime to) {
+        Map<LocalDate, Day> days = state.calendars.getOrDefault(dentistId, Map.of());
+        List<TimeSlot> free = new ArrayList<>();
+
+        for (LocalDate date = from.toLocalDate(); date.atStartOfDay().isBefore(to); date = date.plusDays(1)) {
+            LocalDateTime open = max(from, date.atTime(openingTime));
+            LocalDateTime close = min(to, date.atTime(closingTime));
+            if (!open.isBefore(close)) {
+                continue;
+            }
+
+            Day day = days.get(date);
+            int first = ceilSlot(date, open);
+            int last = floorSlot(date, close);
+            int runStart = -1;
+            for (int slot = first; slot <= last; slot++) {
+                boolean busy = slot == last || (day != null && day.isBusy(slot));
+                if (!busy && runStart < 0) {
+                    runStart = slot;
+                } else if (busy && runStart >= 0) {
+                    free.add(new TimeSlot(slotTime(date, runStart), slotTime(date, slot)));
+                    runStart = -1;
+                }
+            }
+        }
+        return free;
+    }
+
+    private void record(Change change) {
+        if (pending != null) {
+            pending.add(change);
+        }
+    }
+
+    private LocalDate retentionCutoff() {
+        return LocalDate.now().minusDays(retentionDays);
+    }
+
+    private static int minutes(Integer durationMinutes) {
+        return durationMinutes != null && durationMinutes > 0 ? durationMinutes : DEFAULT_DURATION_MINUTES;
+    }
+
+    private static int floorSlot(LocalDate date, LocalDateTime time) {
+        if (!time.toLocalDate().equals(date)) {
+            return SLOTS_PER_DAY;
+        }
+        return (time.getHour() * 60 + time.getMinute()) / SLOT_MINUTES;
+    }
+
+    private static int ceilSlot(LocalDate date, LocalDateTime time) {
+        if (!time.toLocalDate().equals(date)) {
+            return SLOTS_PER_DAY;
+        }
+        int minute = time.getHour() * 60 + time.getMinute() + (time.getSecond() > 0 || time.getNano() > 0 ? 1 : 0);
+        return (minute + SLOT_MINUTES - 1) / SLOT_MINUTES;
+    }
+
+    private static LocalDateTime slotTime(LocalDate date, int slot) {
+        return date.atStartOfDay().plusMinutes((long) slot * SLOT_MINUTES);
+    }
+
+    private static LocalDateTime max(LocalDateTime a, LocalDateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private record Booking(String appointmentId, String dentistId, LocalDateTime start, int minutes) {
+
+        LocalDateTime end() {
+            return start.plusMinutes(minutes);
+        }
+
+        /**
+         * Call the visitor with [fromSlot, toSlot) for every day the booking touches
+         */
+        void forEachDay(DaySpanVisitor visitor) {
+            LocalDateTime end = end();
+            for (LocalDate date = start.toLocalDate(); date.atStartOfDay().isBefore(end); date = date.plusDays(1)) {
+                int from = date.equals(start.toLocalDate()) ? floorSlot(date, start) : 0;
+                int to = ceilSlot(date, end);
+                if (from < to) {
+                    visitor.visit(date, from, to);
+                }
+            }
+        }
+    }
+
+    private record Change(String appointmentId, Booking booking) {}
+
+    @FunctionalInterface
+    private interface DaySpanVisitor {
+        void visit(LocalDate date, int fromSlot, int toSlot);
+    }
+
+    private static final class State {
+        private final Map<String, Booking> bookings = new HashMap<>();
+        private final Map<String, Map<LocalDate, Day>> calendars = new HashMap<>();
+
+        private void put(Booking booking) {
+            bookings.put(booking.appointmentId(), booking);
+            booking.forEachDay((date, from, to) -> calendars
+                .computeIfAbsent(booking.dentistId(), id -> new HashMap<>())
+                .computeIfAbsent(date, d -> new Day())
+                .add(booking.appointmentId(), from, to));
+        }
+
+        private Booking remove(String appointmentId) {
+            Booking booking = bookings.remove(appointmentId);
+            if (booking != null) {
+                Map<LocalDate, Day> days = calendars.get(booking.dentistId());
+                booking.forEachDay((date, from, to) -> {
+                    Day day = days != null ? days.get(date) : null;
+                    if (day != null && day.remove(appointmentId)) {
+                        days.remove(date);
+                    }
+                });
+            }
+            return booking;
+        }
+
+        private void apply(Change change) {
+            remove(change.appointmentId());
+            if (change.booking() != null) {
+                put(change.booking());
+            }
+        }
+
+        private void evictBefore(LocalDate cutoff) {
+            bookings.values().removeIf(booking -> booking.end().toLocalDate().isBefore(cutoff));
+            calendars.values().forEach(days -> days.keySet().removeIf(date -> date.isBefore(cutoff)));
+            calendars.values().removeIf(Map::isEmpty);
+        }
+    }
+
+    private static final class Day {
+        private final long[] busy = new long[(SLOTS_PER_DAY + 63) / 64];
+        private final Map<String, int[]> spans = new HashMap<>(4);
+
+        private void add(String appointmentId, int from, int to) {
+            spans.put(appointmentId, new int[] { from, to });
+            mark(from, to);
+        }
+
+        /**
+         * Returns true when the day has no appointments left
+         */
+        private boolean remove(String appointmentId) {
+            if (spans.remove(appointmentId) != null) {
+                // Spans may overlap (legacy data), so recompute instead of clearing bits
+                Arrays.fill(busy, 0L);
+                spans.values().forEach(span -> mark(span[0], span[1]));
+            }
+            return spans.isEmpty();
+        }
+
+        private boolean isBusy(int slot) {
+            return (busy[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        private void mark(int from, int to) {
+            for (int slot = from; slot < to; slot++) {
+                busy[slot >>> 6] |= 1L << slot;
+            }
+        }
+    }
+}
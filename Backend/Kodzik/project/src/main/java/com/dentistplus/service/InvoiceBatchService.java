@@ -0,0 +1,372 @@
+package com.dentistplus.service;
+
+import com.dentistplus.exception.ConflictException;
+import com.dentistplus.exception.ResourceNotFoundException;
+import com.dentistplus.model.Invoice;
+import com.dentistplus.model.InvoiceBatch;
+import com.dentistplus.model.PatientProfile;
+import com.dentistplus.model.TreatmentPlan;
+import com.mongodb.DBRef;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Month-end invoicing for the whole clinic. Patients are split into id ranges of about the
+ * same size with $bucketAuto; the ranges are worked through in parallel on a bounded pool,
+ * a page of patients at a time. Per page, procedures are claimed, invoices inserted and
+ * procedures marked invoiced with one bulk write each, using the same claim protocol and
+ * line items as InvoiceService.createInvoice, so a page that is repeated after a crash
+ * bills nothing twice. Each range is leased by the node that runs it, and every page ends
+ * with a checkpoint in invoice_batches that renews the lease; a range whose lease runs out
+ * is taken over by any node and picked up again from its last checkpoint.
+ */
+@Service
+public class InvoiceBatchService {
+
+    private final MongoTemplate mongoTemplate;
+    private final AuthService authService;
+    private final InvoiceService invoiceService;
+    private final ExecutorService executor;
+    private final int partitions;
+    private final int pageSize;
+    private final Duration staleAfter;
+
+    // Identifies this node in partition leases
+    private final String owner = new ObjectId().toHexString();
+
+    // Partitions (batch id:index) queued or running on this node
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public InvoiceBatchService(MongoTemplate mongoTemplate,
+                               AuthService authService,
+                               InvoiceService invoiceService,
+                               @Value("${dentistplus.invoicing.batch.threads:4}") int threads,
+                               @Value("${dentistplus.invoicing.batch.partitions:16}") int partitions,
+                               @Value("${dentistplus.invoicing.batch.page-size:200}") int pageSize,
+                               @Value("${dentistplus.invoicing.batch.stale-after:2m}") Duration staleAfter) {
+        this.mongoTemplate = mongoTemplate;
+        this.authService = authService;
+        this.invoiceService = invoiceService;
+        this.partitions = partitions;
+        this.pageSize = pageSize;
+        this.staleAfter = staleAfter;
+
+        AtomicInteger workers = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "invoice-batch-" + workers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * At most one RUNNING batch at a time
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        mongoTemplate.indexOps(InvoiceBatch.class).ensureIndex(new Index()
+            .on("status", Sort.Direction.ASC).unique().named("one_running")
+            .partial(PartialIndexFilter.of(Criteria.where("status").is("RUNNING"))));
+    }
+
+    public InvoiceBatch startBatch(String adminUserId) {
+        authService.validateUserRole(adminUserId, "ROLE_ADMIN");
+
+        InvoiceBatch batch = new InvoiceBatch();
+        batch.setStatus("RUNNING");
+        batch.setStartedBy(adminUserId);
+        batch.setStartedAt(LocalDateTime.now());
+        batch.setHeartbeatAt(batch.getStartedAt());
+        batch.setPartitions(partition());
+        try {
+            batch = mongoTemplate.insert(batch);
+        } catch (DuplicateKeyException e) {
+            throw new ConflictException("An invoice batch is already running");
+        }
+
+        System.out.println("InvoiceBatchService: Started batch " + batch.getId() + " for " + batch.getPatientCount()
+            + " patients in " + batch.getPartitions().size() + " partitions");
+        run(batch);
+        return batch;
+    }
+
+    public InvoiceBatch getBatch(String batchId, String adminUserId) {
+        authService.validateUserRole(adminUserId, "ROLE_ADMIN");
+        InvoiceBatch batch = mongoTemplate.findById(batchId, InvoiceBatch.class);
+        if (batch == null) {
+            throw new ResourceNotFoundException("Invoice batch not found with id: " + batchId);
+        }
+        return batch;
+    }
+
+    /**
+     * Take over the partitions of the RUNNING batch whose lease ran out, e.g. because their
+     * node died or restarted; partitions still leased by a live node are left to it
+     */
+    @Scheduled(fixedDelayString = "${dentistplus.invoicing.batch.stale-after:2m}")
+    public void resumeStalled() {
+        Query stalled = new Query(Criteria.where("status").is("RUNNING")
+            .and("partitions").elemMatch(open(LocalDateTime.now())));
+        InvoiceBatch batch = mongoTemplate.findOne(stalled, InvoiceBatch.class);
+        if (batch != null) {
+            System.out.println("InvoiceBatchService: Resuming batch " + batch.getId() + " after "
+                + batch.getPatientsProcessed() + " patients");
+            run(batch);
+        }
+    }
+
+    /**
+     * A partition left to run whose lease, if any, has expired
+     */
+    private static Criteria open(LocalDateTime now) {
+        return Criteria.where("status").in("PENDING", "RUNNING")
+            .orOperator(Criteria.where("leaseUntil").is(null), Criteria.where("leaseUntil").lt(now));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Patient id ranges of about equal size. A $bucketAuto max is the next bucket's min, so
+     * it is excluded from every range but the last, where it is the highest patient id.
+     */
+    private List<InvoiceBatch.Partition> partition() {
+        Aggregation aggregation = Aggregation.newAggregation(Aggregation.bucketAuto("_id", partitions));
+        List<Document> buckets = mongoTemplate.aggregate(aggregation, PatientProfile.class, Document.class).getMappedResults();
+        List<InvoiceBatch.Partition> ranges = new ArrayList<>();
+        for (Document bucket : buckets) {
+            Document bounds = bucket.get("_id", Document.class);
+            ranges.add(new InvoiceBatch.Partition(ranges.size(), bounds.get("min").toString(), bounds.get("max").toString(),
+                ranges.size() == buckets.size() - 1, ((Number) bucket.get("count")).longValue()));
+        }
+        return ranges;
+    }
+
+    private void run(InvoiceBatch batch) {
+        int[] open = { 0 };
+        batch.getPartitions().forEach(partition -> {
+            if (partition.getStatus().equals("PENDING") || partition.getStatus().equals("RUNNING")) {
+                String key = batch.getId() + ":" + partition.getIndex();
+                if (queued.add(key)) {
+                    executor.execute(() -> {
+                        try {
+                            runPartition(batch.getId(), partition.getIndex());
+                        } finally {
+                            queued.remove(key);
+                        }
+                    });
+                }
+                open[0]++;
+            }
+        });
+        if (open[0] == 0) {
+            finish(batch.getId());
+        }
+    }
+
+    /**
+     * Lease the partition for this node, unless another node holds a live lease on it or it
+     * is done; returns it as of its last checkpoint, or null
+     */
+    private InvoiceBatch.Partition lease(String batchId, int index) {
+        String path = "partitions." + index;
+        LocalDateTime now = LocalDateTime.now();
+        Query free = new Query(Criteria.where("_id").is(batchId).and("status").is("RUNNING")
+            .and(path + ".status").in("PENDING", "RUNNING")
+            .orOperator(Criteria.where(path + ".leaseUntil").is(null), Criteria.where(path + ".leaseUntil").lt(now)));
+        InvoiceBatch batch = mongoTemplate.findAndModify(free, new Update()
+                .set(path + ".status", "RUNNING").set(path + ".owner", owner).set(path + ".leaseUntil", now.plus(staleAfter)),
+            FindAndModifyOptions.options().returnNew(true), InvoiceBatch.class);
+        return batch != null ? batch.getPartitions().get(index) : null;
+    }
+
+    private void runPartition(String batchId, int index) {
+        InvoiceBatch.Partition partition = lease(batchId, index);
+        if (partition == null) {
+            return;
+        }
+
+        String path = "partitions." + index;
+        // Writes to the partition only count while this node still holds it
+        Query owned = new Query(Criteria.where("_id").is(batchId).and(path + ".owner").is(owner));
+        try {
+            String last = partition.getLastPatientId();
+            while (true) {
+                Criteria range = last != null ? Criteria.where("_id").gt(new ObjectId(last)) : Criteria.where("_id").gte(new ObjectId(partition.getFromId()));
+                ObjectId toId = new ObjectId(partition.getToId());
+                Query page = new Query(partition.isLast() ? range.lte(toId) : range.lt(toId))
+                    .with(Sort.by(Sort.Direction.ASC, "_id")).limit(pageSize);
+                page.fields().include("_id");
+                List<ObjectId> patientIds = new ArrayList<>();
+                for (Document patient : mongoTemplate.find(page, Document.class, mongoTemplate.getCollectionName(PatientProfile.class))) {
+                    patientIds.add(patient.getObjectId("_id"));
+                }
+                if (patientIds.isEmpty()) {
+                    break;
+                }
+
+                int invoices = invoicePage(patientIds);
+                last = patientIds.get(patientIds.size() - 1).toHexString();
+                LocalDateTime now = LocalDateTime.now();
+                if (mongoTemplate.updateFirst(owned, new Update()
+                        .set(path + ".lastPatientId", last)
+                        .inc(path + ".patientsProcessed", patientIds.size())
+                        .inc(path + ".invoicesCreated", invoices)
+                        .set(path + ".leaseUntil", now.plus(staleAfter))
+                        .set("heartbeatAt", now), InvoiceBatch.class).getModifiedCount() == 0) {
+                    // The lease ran out and another node took over; it repeats this page at most
+                    System.out.println("InvoiceBatchService: Partition " + index + " of batch " + batchId + " was taken over");
+                    return;
+                }
+            }
+
+            mongoTemplate.updateFirst(owned, new Update().set(path + ".status", "COMPLETED").unset(path + ".leaseUntil"), InvoiceBatch.class);
+        } catch (RuntimeException e) {
+            System.out.println("InvoiceBatchService: Partition " + index + " of batch " + batchId + " failed: " + e.getMessage());
+            mongoTemplate.updateFirst(owned, new Update().set(path + ".status", "FAILED").set(path + ".error", e.getMessage())
+                .unset(path + ".leaseUntil"), InvoiceBatch.class);
+        }
+        finish(batchId);
+    }
+
+    /**
+     * Invoice one page of patients; returns the number of invoices inserted
+     */
+    private int invoicePage(List<ObjectId> patientIds) {
+        Criteria patients = Criteria.where("patientProfile.$id").in(patientIds);
+        String plansCollection = mongoTemplate.getCollectionName(TreatmentPlan.class);
+
+        // 1. Claim the new work of every patient for a fresh invoice id
+        Query withWork = InvoiceService.uninvoiced(patients);
+        withWork.fields().include("patientProfile");
+        Set<Object> toClaim = new LinkedHashSet<>();
+        for (Document plan : mongoTemplate.find(withWork, Document.class, plansCollection)) {
+            if (plan.get("patientProfile") instanceof DBRef patient) {
+                toClaim.add(patient.getId());
+            }
+        }
+        if (!toClaim.isEmpty()) {
+            BulkOperations claims = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TreatmentPlan.class);
+            for (Object patientId : toClaim) {
+                claims.updateMulti(InvoiceService.uninvoiced(Criteria.where("patientProfile.$id").is(patientId)),
+                    InvoiceService.claim(new ObjectId().toHexString()));
+            }
+            claims.execute();
+        }
+
+        // 2. Everything claimed and not yet invoiced, including claims left by an interrupted run
+        Query claimed = InvoiceService.claimed(Criteria.where("patientProfile.$id").in(patientIds));
+        claimed.fields().include("patientProfile", "procedures");
+        Map<String, List<TreatmentPlan.PlannedProcedure>> byInvoice = new LinkedHashMap<>();
+        Map<String, Object> patientOf = new LinkedHashMap<>();
+        for (Document plan : mongoTemplate.find(claimed, Document.class, plansCollection)) {
+            if (!(plan.get("patientProfile") instanceof DBRef patient)) {
+                continue;
+            }
+            for (Document stored : plan.getList("procedures", Document.class, List.of())) {
+                TreatmentPlan.PlannedProcedure procedure = mongoTemplate.getConverter().read(TreatmentPlan.PlannedProcedure.class, stored);
+                if (InvoiceService.isClaimed(procedure)) {
+                    byInvoice.computeIfAbsent(procedure.getInvoiceId(), id -> new ArrayList<>()).add(procedure);
+                    patientOf.put(procedure.getInvoiceId(), patient.getId());
+                }
+            }
+        }
+        if (byInvoice.isEmpty()) {
+            return 0;
+        }
+
+        // 3. Insert the invoices. An id already present was inserted before an interruption,
+        // or by a concurrent InvoiceService call that may have seen only part of the claim
+        List<Invoice> invoices = new ArrayList<>();
+        byInvoice.forEach((invoiceId, procedures) -> {
+            PatientProfile patient = new PatientProfile();
+            patient.setId(patientOf.get(invoiceId).toString());
+            Invoice invoice = InvoiceService.buildInvoice(patient, procedures);
+            invoice.setId(invoiceId);
+            invoices.add(invoice);
+        });
+        int inserted;
+        try {
+            inserted = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Invoice.class)
+                .insert(invoices).execute().getInsertedCount();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != 11000) {
+                    throw e;
+                }
+            }
+            for (BulkWriteError error : e.getErrors()) {
+                Invoice invoice = invoices.get(error.getIndex());
+                invoiceService.addMissingLineItems(invoice.getPatientProfile(), invoice.getId(), byInvoice.get(invoice.getId()));
+            }
+            inserted = e.getResult().getInsertedCount();
+        }
+
+        // 4. Mark the procedures invoiced
+        BulkOperations marks = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TreatmentPlan.class);
+        byInvoice.forEach((invoiceId, procedures) -> marks.updateMulti(
+            new Query(Criteria.where("patientProfile.$id").is(patientOf.get(invoiceId)).and("procedures.invoiceId").is(invoiceId)),
+            InvoiceService.markInvoiced(invoiceId)));
+        marks.execute();
+        return inserted;
+    }
+
+    /**
+     * Close the batch once no partition is left to run
+     */
+    private void finish(String batchId) {
+        Criteria done = Criteria.where("_id").is(batchId).and("status").is("RUNNING")
+            .and("partitions").not().elemMatch(Criteria.where("status").in("PENDING", "RUNNING"));
+        Query completed = new Query(new Criteria().andOperator(done,
+            Criteria.where("partitions").not().elemMatch(Criteria.where("status").is("FAILED"))));
+
+        LocalDateTime now = LocalDateTime.now();
+        if (mongoTemplate.updateFirst(completed, new Update().set("status", "COMPLETED").set("finishedAt", now), InvoiceBatch.class).getModifiedCount() == 0) {
+            mongoTemplate.updateFirst(new Query(done), new Update().set("status", "FAILED").set("finishedAt", now), InvoiceBatch.class);
+        }
+
+        InvoiceBatch batch = mongoTemplate.findById(batchId, InvoiceBatch.class);
+        if (batch != null && !batch.getStatus().equals("RUNNING")) {
+            System.out.println("InvoiceBatchService: Batch " + batchId + " " + batch.getStatus().toLowerCase() + ": "
+                + batch.getInvoicesCreated() + " invoices for " + batch.getPatientsProcessed() + " patients");
+        }
+    }
+}
@@ -1,24 +1,48 @@
 package com.dentistplus.service;
 
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import com.dentistplus.dto.InvoiceSummary;
 import com.dentistplus.dto.PaymentRequest;
+import com.dentistplus.exception.ConflictException;
 import com.dentistplus.exception.ResourceNotFoundException;
 import com.dentistplus.model.Invoice;
 import com.dentistplus.model.PatientProfile;
 import com.dentistplus.model.TreatmentPlan;
+import com.dentistplus.repository.CursorPaging;
 import com.dentistplus.repository.InvoiceRepository;
 import com.dentistplus.repository.PatientProfileRepository;
-import com.dentistplus.repository.TreatmentPlanRepository;
+import com.mongodb.DBRef;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @Service
 public class InvoiceService {
+
+    private static final String[] SUMMARY_FIELDS = { "issueDate", "lineItems", "totalAmount", "status", "createdAt", "updatedAt" };
     
     @Autowired
     private InvoiceRepository invoiceRepository;
@@ -26,91 +50,322 @@ public class InvoiceService {
     @Autowired
     private PatientProfileRepository patientProfileRepository;
     
-    @Autowired
-    private TreatmentPlanRepository treatmentPlanRepository;
-    
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private CursorPaging cursorPaging;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Bill the patient's completed procedures that are on no invoice yet. They are first
+     * claimed for a new invoice id with one updateMany, so concurrent calls never claim the
+     * same procedure; the invoice is then built from exactly the claimed procedures and
+     * inserted under that id. A claim whose invoice was never written (a crash in between)
+     * is finished by the next call. With nothing new to bill, the patient's newest unpaid
+     * invoice is returned instead of a new one.
+     */
     public Invoice createInvoice(String patientId, String dentistUserId) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
         
         PatientProfile patient = patientProfileRepository.findById(patientId)
             .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + patientId));
 
-        // Get all completed procedures from treatment plans
-        List<TreatmentPlan> treatmentPlans = treatmentPlanRepository.findByPatientProfile(patient);
-        List<Invoice.LineItem> lineItems = new ArrayList<>();
-        BigDecimal totalAmount = BigDecimal.ZERO;
+        String invoiceId = new ObjectId().toHexString();
+        claimUninvoiced(CursorPaging.byReference("patientProfile", patientId), invoiceId);
+        Invoice created = finishClaimedInvoices(patient).get(invoiceId);
+        if (created != null) {
+            return created;
+        }
 
-        for (TreatmentPlan plan : treatmentPlans) {
-            if (plan.getProcedures() != null) {
-                for (TreatmentPlan.PlannedProcedure procedure : plan.getProcedures()) {
-                    if ("COMPLETED".equals(procedure.getStatus())) {
-                        Invoice.LineItem lineItem = new Invoice.LineItem(
-                            procedure.getProcedureName(),
-                            procedure.getCostEstimate(),
-                            1
-                        );
-                        lineItem.setProcedureCode(procedure.getProcedureCode());
-                        lineItems.add(lineItem);
-                        totalAmount = totalAmount.add(procedure.getCostEstimate());
-                    }
+        Query draft = new Query(CursorPaging.byReference("patientProfile", patientId).and("status").is("UNPAID"))
+            .with(Sort.by(Sort.Direction.DESC, "_id"));
+        Invoice existing = mongoTemplate.findOne(draft, Invoice.class);
+        if (existing == null) {
+            throw new ConflictException("No completed procedures to invoice");
+        }
+        return existing;
+    }
+
+    /**
+     * Claim the completed, not yet invoiced procedures of the matching plans for the given
+     * invoice id; each plan is claimed atomically
+     */
+    void claimUninvoiced(Criteria plans, String invoiceId) {
+        mongoTemplate.updateMulti(uninvoiced(plans), claim(invoiceId), TreatmentPlan.class);
+    }
+
+    static Query uninvoiced(Criteria plans) {
+        return new Query(plans.and("procedures").elemMatch(Criteria.where("status").is("COMPLETED").and("invoiceId").is(null)));
+    }
+
+    static Update claim(String invoiceId) {
+        return new Update().set("procedures.$[p].invoiceId", invoiceId)
+            .filterArray(Criteria.where("p.status").is("COMPLETED").and("p.invoiceId").is(null));
+    }
+
+    /**
+     * Plans holding procedures claimed for an invoice that is not written yet
+     */
+    static Query claimed(Criteria plans) {
+        return new Query(plans.and("procedures").elemMatch(Criteria.where("invoiceId").ne(null).and("invoicedAt").is(null)));
+    }
+
+    static boolean isClaimed(TreatmentPlan.PlannedProcedure procedure) {
+        return procedure.getInvoiceId() != null && procedure.getInvoicedAt() == null;
+    }
+
+    static Update markInvoiced(String invoiceId) {
+        return new Update().set("procedures.$[p].invoicedAt", LocalDateTime.now())
+            .filterArray(Criteria.where("p.invoiceId").is(invoiceId));
+    }
+
+    /**
+     * Write the invoices for the patient's claimed but not yet invoiced procedures and mark
+     * those procedures invoiced. Safe to repeat: the invoice id is fixed by the claim.
+     */
+    Map<String, Invoice> finishClaimedInvoices(PatientProfile patient) {
+        Query query = claimed(CursorPaging.byReference("patientProfile", patient.getId()));
+        query.fields().include("procedures");
+
+        Map<String, List<TreatmentPlan.PlannedProcedure>> claimed = new LinkedHashMap<>();
+        for (TreatmentPlan plan : mongoTemplate.find(query, TreatmentPlan.class)) {
+            for (TreatmentPlan.PlannedProcedure procedure : plan.getProcedures()) {
+                if (isClaimed(procedure)) {
+                    claimed.computeIfAbsent(procedure.getInvoiceId(), id -> new ArrayList<>()).add(procedure);
                 }
             }
         }
 
+        Map<String, Invoice> invoices = new LinkedHashMap<>();
+        claimed.forEach((invoiceId, procedures) -> {
+            Invoice invoice = buildInvoice(patient, procedures);
+            invoice.setId(invoiceId);
+            try {
+                invoice = mongoTemplate.insert(invoice);
+            } catch (DuplicateKeyException e) {
+                // Written by a concurrent call, which may have read the claim before it reached every plan
+                invoice = addMissingLineItems(patient, invoiceId, procedures);
+            }
+            mongoTemplate.updateMulti(new Query(CursorPaging.byReference("patientProfile", patient.getId()).and("procedures.invoiceId").is(invoiceId)),
+                markInvoiced(invoiceId), TreatmentPlan.class);
+            invoices.put(invoiceId, invoice);
+        });
+        return invoices;
+    }
+
+    /**
+     * Bring an invoice written by a concurrent call up to the given claimed procedures: the
+     * line items it lacks are appended, conditional on the item count it was read with, so
+     * two callers never append the same item. Once the invoice is no longer unpaid, the
+     * procedures it lacks are released instead, to be billed by the next invoice. Also used
+     * by InvoiceBatchService.
+     */
+    Invoice addMissingLineItems(PatientProfile patient, String invoiceId, List<TreatmentPlan.PlannedProcedure> procedures) {
+        while (true) {
+            Invoice stored = invoiceRepository.findById(invoiceId)
+                .orElseThrow(() -> new ResourceNotFoundException("Invoice not found with id: " + invoiceId));
+            List<Invoice.LineItem> lineItems = stored.getLineItems() != null ? stored.getLineItems() : List.of();
+            Set<String> billed = new HashSet<>();
+            lineItems.forEach(lineItem -> billed.add(lineItem.getProcedureId()));
+            List<TreatmentPlan.PlannedProcedure> missing = procedures.stream()
+                .filter(procedure -> !billed.contains(procedure.getId())).toList();
+            if (missing.isEmpty()) {
+                return stored;
+            }
+
+            List<String> missingIds = missing.stream().map(TreatmentPlan.PlannedProcedure::getId).toList();
+            if (!"UNPAID".equals(stored.getStatus())) {
+                mongoTemplate.updateMulti(new Query(CursorPaging.byReference("patientProfile", patient.getId()).and("procedures._id").in(missingIds)),
+                    new Update().unset("procedures.$[p].invoiceId")
+                        .filterArray(Criteria.where("p._id").in(missingIds).and("p.invoiceId").is(invoiceId).and("p.invoicedAt").is(null)),
+                    TreatmentPlan.class);
+                return stored;
+            }
+
+            Invoice additions = buildInvoice(patient, missing);
+            BigDecimal totalAmount = (stored.getTotalAmount() != null ? stored.getTotalAmount() : BigDecimal.ZERO)
+                .add(additions.getTotalAmount());
+            Query unchanged = new Query(Criteria.where("_id").is(invoiceId).and("status").is("UNPAID")
+                .and("lineItems").size(lineItems.size()));
+            Update update = new Update().set("totalAmount", totalAmount).set("updatedAt", LocalDateTime.now());
+            update.push("lineItems").each(additions.getLineItems().toArray());
+            if (mongoTemplate.updateFirst(unchanged, update, Invoice.class).getModifiedCount() > 0) {
+                return invoiceRepository.findById(invoiceId).orElse(stored);
+            }
+        }
+    }
+
+    /**
+     * An unpaid invoice with one line item per procedure
+     */
+    static Invoice buildInvoice(PatientProfile patient, List<TreatmentPlan.PlannedProcedure> procedures) {
+        List<Invoice.LineItem> lineItems = new ArrayList<>();
+        BigDecimal totalAmount = BigDecimal.ZERO;
+        for (TreatmentPlan.PlannedProcedure procedure : procedures) {
+            BigDecimal cost = procedure.getCostEstimate() != null ? procedure.getCostEstimate() : BigDecimal.ZERO;
+            Invoice.LineItem lineItem = new Invoice.LineItem(procedure.getProcedureName(), cost, 1);
+            lineItem.setProcedureCode(procedure.getProcedureCode());
+            lineItem.setProcedureId(procedure.getId());
+            lineItems.add(lineItem);
+            totalAmount = totalAmount.add(cost);
+        }
+
         Invoice invoice = new Invoice(patient, LocalDate.now());
         invoice.setLineItems(lineItems);
         invoice.setTotalAmount(totalAmount);
-        
-        return invoiceRepository.save(invoice);
+        return invoice;
+    }
+
+    /**
+     * Invoices created before procedures were tracked billed every procedure completed by
+     * then. Link such procedures to the first of those invoices created after they were
+     * completed, so they are not billed again. Completed procedures without such an invoice
+     * stay open for the next createInvoice.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void markLegacyInvoicedProcedures() {
+        Query query = new Query(Criteria.where("procedures").elemMatch(Criteria.where("status").is("COMPLETED").and("invoiceId").is(null)));
+        query.fields().include("patientProfile", "procedures._id", "procedures.status", "procedures.invoiceId", "procedures.updatedAt");
+
+        String plansCollection = mongoTemplate.getCollectionName(TreatmentPlan.class);
+        String invoicesCollection = mongoTemplate.getCollectionName(Invoice.class);
+        Map<Object, List<Document>> legacyInvoices = new HashMap<>();
+        int[] marked = { 0 };
+        try (Stream<Document> plans = mongoTemplate.stream(query, Document.class, plansCollection)) {
+            plans.forEach(plan -> {
+                if (!(plan.get("patientProfile") instanceof DBRef patient)) {
+                    return;
+                }
+                List<Document> invoices = legacyInvoices.computeIfAbsent(patient.getId(), id -> {
+                    Query legacy = new Query(Criteria.where("patientProfile.$id").is(id).and("lineItems.procedureId").exists(false))
+                        .with(Sort.by(Sort.Direction.ASC, "createdAt"));
+                    legacy.fields().include("createdAt");
+                    return mongoTemplate.find(legacy, Document.class, invoicesCollection);
+                });
+
+                for (Document procedure : plan.getList("procedures", Document.class, List.of())) {
+                    if (!"COMPLETED".equals(procedure.get("status")) || procedure.get("invoiceId") != null
+                            || !(procedure.get("updatedAt") instanceof Date completedAt)) {
+                        continue;
+                    }
+                    for (Document invoice : invoices) {
+                        if (invoice.get("createdAt") instanceof Date createdAt && !createdAt.before(completedAt)) {
+                            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(plan.get("_id"))),
+                                new Update().set("procedures.$[p].invoiceId", invoice.get("_id").toString())
+                                    .set("procedures.$[p].invoicedAt", createdAt)
+                                    .filterArray(Criteria.where("p._id").is(procedure.get("_id")).and("p.invoiceId").is(null)),
+                                plansCollection);
+                            marked[0]++;
+                            break;
+                        }
+                    }
+                }
+            });
+        }
+        if (marked[0] > 0) {
+            System.out.println("InvoiceService: Linked " + marked[0] + " completed procedures to invoices created before tracking");
+        }
     }
 
-    public List<Invoice> getPatientInvoices(String patientId, String dentistUserId) {
+    public CursorPage<InvoiceSummary> getPatientInvoices(String patientId, String dentistUserId, CursorPageRequest page) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
         
-        PatientProfile patient = patientProfileRepository.findById(patientId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + patientId));
+        if (!patientProfileRepository.existsById(patientId)) {
+            throw new ResourceNotFoundException("Patient not found with id: " + patientId);
+        }
 
-        return invoiceRepository.findByPatientProfile(patient);
+        return cursorPaging.findSummaries(CursorPaging.byReference("patientProfile", patientId), page,
+            Invoice.class, InvoiceSummary.class, SUMMARY_FIELDS);
     }
 
-    public List<Invoice> getMyInvoices(String patientUserId) {
+    public CursorPage<InvoiceSummary> getMyInvoices(String patientUserId, CursorPageRequest page) {
         authService.validateUserRole(patientUserId, "ROLE_PATIENT");
         
-        PatientProfile patient = patientProfileRepository.findByUser_Id(patientUserId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found"));
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
 
-        return invoiceRepository.findByPatientProfile(patient);
+        return cursorPaging.findSummaries(CursorPaging.byReference("patientProfile", patientProfileId), page,
+            Invoice.class, InvoiceSummary.class, SUMMARY_FIELDS);
     }
 
+    /**
+     * Pay several invoices with a fixed number of round trips: one $in read to check that
+     * they all exist, belong to the patient and are UNPAID/PARTIAL, then one conditional
+     * updateMany that only moves those to PAID. Nothing is written unless every invoice passes
+     * the checks. Each invoice is paid by exactly one request, even with concurrent duplicate
+     * submissions; the paymentId stamped in the same update tells which one, and the invoices
+     * another request paid in between are reported as a conflict.
+     */
     public List<Invoice> processPayment(String patientUserId, PaymentRequest paymentRequest) {
         authService.validateUserRole(patientUserId, "ROLE_PATIENT");
         
-        PatientProfile patient = patientProfileRepository.findByUser_Id(patientUserId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found"));
-
-        List<Invoice> updatedInvoices = new ArrayList<>();
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
 
-        for (String invoiceId : paymentRequest.getInvoiceIds()) {
-            Invoice invoice = invoiceRepository.findById(invoiceId)
-                .orElseThrow(() -> new ResourceNotFoundException("Invoice not found with id: " + invoiceId));
+        List<String> invoiceIds = paymentRequest.getInvoiceIds() != null
+            ? paymentRequest.getInvoiceIds().stream().distinct().toList() : List.of();
+        if (invoiceIds.isEmpty()) {
+            throw new IllegalArgumentException("No invoices given");
+        }
+        List<ObjectId> ids = new ArrayList<>();
+        for (String invoiceId : invoiceIds) {
+            if (!ObjectId.isValid(invoiceId)) {
+                throw new ResourceNotFoundException("Invoice not found with id: " + invoiceId);
+            }
+            ids.add(new ObjectId(invoiceId));
+        }
 
+        // Ownership from the raw reference, without resolving the patient profiles
+        Query query = new Query(Criteria.where("_id").in(ids));
+        query.fields().include("patientProfile", "status");
+        Map<String, Document> found = new HashMap<>();
+        for (Document invoice : mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(Invoice.class))) {
+            found.put(invoice.getObjectId("_id").toHexString(), invoice);
+        }
+        for (String invoiceId : invoiceIds) {
+            Document invoice = found.get(invoiceId);
+            if (invoice == null) {
+                throw new ResourceNotFoundException("Invoice not found with id: " + invoiceId);
+            }
             // Verify invoice belongs to this patient
-            if (!invoice.getPatientProfile().getId().equals(patient.getId())) {
+            if (!(invoice.get("patientProfile") instanceof DBRef patient) || !patient.getId().toString().equals(patientProfileId)) {
                 throw new IllegalArgumentException("Invoice does not belong to this patient");
             }
+            String status = invoice.getString("status");
+            if (!"UNPAID".equals(status) && !"PARTIAL".equals(status)) {
+                throw new ConflictException("Invoice " + invoiceId + " cannot be paid, it is " + status);
+            }
+        }
 
-            // Process payment (in real app, would integrate with payment gateway)
-            // For now, just mark as PAID
-            invoice.setStatus("PAID");
-            invoice.setUpdatedAt(LocalDateTime.now());
-            
-            Invoice saved = invoiceRepository.save(invoice);
-            updatedInvoices.add(saved);
+        // Process payment (in real app, would integrate with payment gateway)
+        // For now, just mark as PAID
+        LocalDateTime now = LocalDateTime.now();
+        String paymentId = new ObjectId().toHexString();
+        Query payable = new Query(Criteria.where("_id").in(ids)
+            .and("patientProfile.$id").is(new ObjectId(patientProfileId))
+            .and("status").in("UNPAID", "PARTIAL"));
+        long modified = mongoTemplate.updateMulti(payable, new Update()
+            .set("status", "PAID")
+            .set("paymentId", paymentId)
+            .set("paidAt", now)
+            .set("updatedAt", now), Invoice.class).getModifiedCount();
+
+        if (modified < ids.size()) {
+            // Another request paid (or cancelled) some of them after the read
+            Query notOurs = new Query(Criteria.where("_id").in(ids).and("paymentId").ne(paymentId));
+            notOurs.fields().include("_id");
+            List<String> unpaid = mongoTemplate.find(notOurs, Document.class, mongoTemplate.getCollectionName(Invoice.class))
+                .stream().map(invoice -> invoice.getObjectId("_id").toHexString()).toList();
+            throw new ConflictException("Invoices not paid by this request: " + String.join(", ", unpaid));
         }
 
-        return updatedInvoices;
+        Query paid = new Query(Criteria.where("_id").in(ids));
+        paid.fields().exclude("patientProfile");
+        Map<String, Invoice> invoices = new HashMap<>();
+        for (Invoice invoice : mongoTemplate.find(paid, Invoice.class)) {
+            invoices.put(invoice.getId(), invoice);
+        }
+        return invoiceIds.stream().map(invoices::get).toList();
     }
 }
\ No newline at end of file
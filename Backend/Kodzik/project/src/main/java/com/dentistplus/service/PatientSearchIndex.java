@@ -0,0 +1,277 @@
+package com.dentistplus.service;
+
+import com.dentistplus.model.PatientProfile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * In-memory prefix index over patient names, phone numbers and dates of birth.
+ * Terms are diacritic-folded ("Łukasz" matches "lukasz") and kept in a sorted map,
+ * so a prefix lookup is a range scan instead of a regex scan of patient_profiles.
+ * The index is built on startup, updated incrementally by the services that write
+ * profiles and fully rebuilt periodically to pick up writes made by other nodes.
+ */
+@Component
+public class PatientSearchIndex {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[\\s\\-'.,/]+");
+    private static final Pattern NON_DIGITS = Pattern.compile("\\D+");
+    private static final Pattern PHONE_OR_DATE = Pattern.compile("[+\\d][\\d\\s\\-./()]*");
+
+    private static final int EXACT_MATCH = 3;
+    private static final int PREFIX_MATCH = 1;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private volatile Index index = new Index();
+    // Changes made while a rebuild is reading Mongo, replayed onto the fresh index
+    private List<Change> pending;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${dentistplus.patient-search.refresh:10m}",
+               fixedDelayString = "${dentistplus.patient-search.refresh:10m}")
+    public void rebuild() {
+        synchronized (this) {
+            pending = new ArrayList<>();
+        }
+
+        Query query = new Query();
+        query.fields().include("firstName", "lastName", "dateOfBirth", "contactPhone");
+
+        Index fresh = new Index();
+        try (Stream<PatientProfile> profiles = mongoTemplate.stream(query, PatientProfile.class)) {
+            profiles.forEach(fresh::put);
+        }
+
+        synchronized (this) {
+            pending.forEach(fresh::apply);
+            pending = null;
+            index = fresh;
+        }
+        System.out.println("PatientSearchIndex: Indexed " + fresh.entries.size() + " patients");
+    }
+
+    /**
+     * Add or refresh a single profile after it was written
+     */
+    public synchronized void index(PatientProfile profile) {
+        if (profile != null && profile.getId() != null) {
+            index.put(profile);
+            record(new Change(profile.getId(), profile));
+        }
+    }
+
+    public synchronized void remove(String patientProfileId) {
+        index.remove(patientProfileId);
+        record(new Change(patientProfileId, null));
+    }
+
+    /**
+     * Ranked ids of patients matching every token of the query, best matches first. Only the
+     * best limit matches are kept while scanning (a heap of that size), so a short prefix
+     * matching most patients costs no full sort.
+     */
+    public List<String> search(String query, int limit) {
+        List<String> tokens = queryTokens(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        Index current = index;
+        Map<String, Integer> scores = null;
+        for (String token : tokens) {
+            Map<String, Integer> matches = current.match(token);
+            if (scores == null) {
+                scores = matches;
+            } else {
+                Map<String, Integer> merged = new HashMap<>();
+                for (Map.Entry<String, Integer> match : matches.entrySet()) {
+                    Integer previous = scores.get(match.getKey());
+                    if (previous != null) {
+                        merged.put(match.getKey(), previous + match.getValue());
+                    }
+                }
+                scores = merged;
+            }
+            if (scores.isEmpty()) {
+                return List.of();
+            }
+        }
+
+        Map<String, Integer> ranked = scores;
+        Comparator<Entry> order = Comparator.<Entry>comparingInt(entry -> ranked.get(entry.id)).reversed()
+            .thenComparing(entry -> entry.sortKey);
+
+        // Worst kept match at the head, so it is the one dropped for a better one
+        PriorityQueue<Entry> best = new PriorityQueue<>(Math.min(limit, ranked.size()), order.reversed());
+        for (String id : ranked.keySet()) {
+            Entry entry = current.entries.get(id);
+            if (entry == null) {
+                continue;
+            }
+            if (best.size() < limit) {
+                best.add(entry);
+            } else if (order.compare(entry, best.peek()) < 0) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+        return best.stream()
+            .sorted(order)
+            .map(entry -> entry.id)
+            .toList();
+    }
+
+    private void record(Change change) {
+        if (pending != null) {
+            pending.add(change);
+        }
+    }
+
+    static String normalize(String value) {
+        String folded = Normalizer.normalize(value, Normalizer.Form.NFD);
+        folded = DIACRITICS.matcher(folded).replaceAll("");
+        // Ł/ł has no combining-mark decomposition
+        return folded.replace('ł', 'l').replace('Ł', 'L').toLowerCase(Locale.ROOT);
+    }
+
+    private static List<String> queryTokens(String query) {
+        if (query == null || query.isBlank()) {
+            return List.of();
+        }
+        String trimmed = query.trim();
+
+        // Phone numbers and dates come with arbitrary separators ("600 123 456", "15.03.1985")
+        if (PHONE_OR_DATE.matcher(trimmed).matches()) {
+            return List.of(NON_DIGITS.matcher(trimmed).replaceAll(""));
+        }
+
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARATORS.split(normalize(trimmed))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static Set<String> terms(PatientProfile profile) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String name : new String[] { profile.getFirstName(), profile.getLastName() }) {
+            if (name != null) {
+                for (String part : SEPARATORS.split(normalize(name))) {
+                    if (!part.isEmpty()) {
+                        terms.add(part);
+                    }
+                }
+            }
+        }
+
+        if (profile.getContactPhone() != null) {
+            String digits = NON_DIGITS.matcher(profile.getContactPhone()).replaceAll("");
+            if (!digits.isEmpty()) {
+                terms.add(digits);
+                // Allow searching Polish numbers without the country code
+                if (digits.startsWith("48") && digits.length() == 11) {
+                    terms.add(digits.substring(2));
+                }
+            }
+        }
+
+        LocalDate dob = profile.getDateOfBirth();
+        if (dob != null) {
+            terms.add(String.format("%04d%02d%02d", dob.getYear(), dob.getMonthValue(), dob.getDayOfMonth()));
+            terms.add(String.format("%02d%02d%04d", dob.getDayOfMonth(), dob.getMonthValue(), dob.getYear()));
+        }
+        return terms;
+    }
+
+    private record Change(String patientProfileId, PatientProfile profile) {}
+
+    private static final class Entry {
+        private final String id;
+        private final String sortKey;
+        private final Set<String> terms;
+
+        private Entry(PatientProfile profile) {
+            this.id = profile.getId();
+            this.sortKey = normalize(Objects.toString(profile.getLastName(), "") + " " + Objects.toString(profile.getFirstName(), ""));
+            this.terms = terms(profile);
+        }
+    }
+
+    private static final class Index {
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<String, Set<String>> postings = new ConcurrentSkipListMap<>();
+
+        private void put(PatientProfile profile) {
+            Entry entry = new Entry(profile);
+            Entry previous = entries.put(entry.id, entry);
+            if (previous != null) {
+                unlink(previous);
+            }
+            for (String term : entry.terms) {
+                postings.computeIfAbsent(term, t -> ConcurrentHashMap.newKeySet()).add(entry.id);
+            }
+        }
+
+        private void remove(String id) {
+            Entry previous = entries.remove(id);
+            if (previous != null) {
+                unlink(previous);
+            }
+        }
+
+        private void apply(Change change) {
+            if (change.profile() != null) {
+                put(change.profile());
+            } else {
+                remove(change.patientProfileId());
+            }
+        }
+
+        private void unlink(Entry entry) {
+            for (String term : entry.terms) {
+                postings.computeIfPresent(term, (t, ids) -> {
+                    ids.remove(entry.id);
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+        }
+
+        private Map<String, Integer> match(String prefix) {
+            Map<String, Integer> matches = new HashMap<>();
+            for (Map.Entry<String, Set<String>> posting : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, true).entrySet()) {
+                int score = posting.getKey().length() == prefix.length() ? EXACT_MATCH : PREFIX_MATCH;
+                for (String id : posting.getValue()) {
+                    matches.merge(id, score, Math::max);
+                }
+            }
+            return matches;
+        }
+    }
+}
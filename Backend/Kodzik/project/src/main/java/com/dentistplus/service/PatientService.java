@@ -1,18 +1,30 @@
 package com.dentistplus.service;
 
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import com.dentistplus.dto.PatientSummary;
 import com.dentistplus.exception.ResourceNotFoundException;
 import com.dentistplus.model.PatientProfile;
 import com.dentistplus.model.User;
+import com.dentistplus.repository.CursorPaging;
 import com.dentistplus.repository.PatientProfileRepository;
+import com.dentistplus.repository.SummaryReader;
 import com.dentistplus.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 @Service
 public class PatientService {
+
+    private static final String[] SUMMARY_FIELDS = { "firstName", "lastName", "dateOfBirth", "contactPhone", "address" };
     
     @Autowired
     private PatientProfileRepository patientProfileRepository;
@@ -23,14 +35,42 @@ public class PatientService {
     @Autowired
     private AuthService authService;
 
-    public List<PatientProfile> getAllPatients(String dentistUserId) {
+    @Autowired
+    private PatientSearchIndex patientSearchIndex;
+
+    @Autowired
+    private CursorPaging cursorPaging;
+
+    @Autowired
+    private SummaryReader summaryReader;
+
+    public CursorPage<PatientSummary> getAllPatients(String dentistUserId, CursorPageRequest page) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
-        return patientProfileRepository.findAll();
+        return cursorPaging.findSummaries(null, page, PatientProfile.class, PatientSummary.class, SUMMARY_FIELDS);
     }
 
-    public List<PatientProfile> searchPatients(String query, String dentistUserId) {
+    public List<PatientSummary> searchPatients(String query, int limit, String dentistUserId) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
-        return patientProfileRepository.findByFirstNameContainingIgnoreCaseOrLastNameContainingIgnoreCase(query, query);
+        if (limit < 1 || limit > CursorPageRequest.MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + CursorPageRequest.MAX_LIMIT);
+        }
+
+        List<String> rankedIds = patientSearchIndex.search(query, limit);
+        if (rankedIds.isEmpty()) {
+            return List.of();
+        }
+
+        // One $in lookup for the page, then restore the index ranking
+        Query lookup = new Query(Criteria.where("_id").in(rankedIds));
+        lookup.fields().include(SUMMARY_FIELDS);
+
+        Map<String, PatientSummary> profiles = new HashMap<>();
+        summaryReader.find(lookup, PatientProfile.class, PatientSummary.class)
+            .forEach(profile -> profiles.put(profile.getId(), profile));
+        return rankedIds.stream()
+            .map(profiles::get)
+            .filter(Objects::nonNull)
+            .toList();
     }
 
     public PatientProfile getPatientById(String patientId, String dentistUserId) {
@@ -55,7 +95,9 @@ public class PatientService {
         existingProfile.setInsuranceDetails(updatedProfile.getInsuranceDetails());
         existingProfile.setUpdatedAt(LocalDateTime.now());
 
-        return patientProfileRepository.save(existingProfile);
+        PatientProfile saved = patientProfileRepository.save(existingProfile);
+        patientSearchIndex.index(saved);
+        return saved;
     }
 
     public PatientProfile getMyProfile(String patientUserId) {
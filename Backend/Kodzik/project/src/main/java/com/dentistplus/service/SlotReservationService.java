@@ -0,0 +1,186 @@
+package com.dentistplus.service;
+
+import com.dentistplus.exception.ConflictException;
+import com.dentistplus.model.Appointment;
+import com.dentistplus.model.SlotReservation;
+import com.mongodb.DBRef;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Race-free booking across any number of nodes. An appointment claims each of its
+ * 5-minute slots twice, once for the dentist and once for the patient, by inserting
+ * slot_reservations documents. The unique (ownerType, ownerId, slotStart) index lets
+ * exactly one concurrent claim win; the loser removes its partial claim and gets a 409.
+ */
+@Service
+public class SlotReservationService {
+
+    static final String DENTIST = "DENTIST";
+    static final String PATIENT = "PATIENT";
+
+    private static final int SLOT_MINUTES = DentistAvailabilityIndex.SLOT_MINUTES;
+    private static final int DEFAULT_DURATION_MINUTES = 30;
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${dentistplus.availability.retention-days:7}")
+    private int retentionDays;
+
+    /**
+     * Claim the appointment's time for its dentist and patient. Slots the appointment
+     * already holds are kept and the rest are released, so this also moves a rescheduled
+     * appointment. On conflict nothing changes.
+     */
+    public void claim(String appointmentId, String dentistId, String patientProfileId, LocalDateTime start, Integer durationMinutes) {
+        List<SlotReservation> held = mongoTemplate.find(byAppointment(appointmentId), SlotReservation.class);
+        Set<String> heldKeys = new HashSet<>();
+        held.forEach(reservation -> heldKeys.add(key(reservation)));
+
+        List<SlotReservation> wanted = new ArrayList<>();
+        wanted.addAll(reservations(appointmentId, DENTIST, dentistId, start, durationMinutes));
+        wanted.addAll(reservations(appointmentId, PATIENT, patientProfileId, start, durationMinutes));
+
+        List<SlotReservation> dentistClaims = new ArrayList<>();
+        List<SlotReservation> patientClaims = new ArrayList<>();
+        Set<String> wantedKeys = new HashSet<>();
+        for (SlotReservation reservation : wanted) {
+            wantedKeys.add(key(reservation));
+            if (!heldKeys.contains(key(reservation))) {
+                (DENTIST.equals(reservation.getOwnerType()) ? dentistClaims : patientClaims).add(reservation);
+            }
+        }
+
+        List<String> attempted = new ArrayList<>();
+        try {
+            insert(dentistClaims, attempted, "Dentist is not available at the requested time");
+            insert(patientClaims, attempted, "You already have an appointment at the requested time");
+        } catch (RuntimeException e) {
+            // An ordered insert stops at the first duplicate; remove whatever got in before it
+            if (!attempted.isEmpty()) {
+                mongoTemplate.remove(new Query(Criteria.where("_id").in(attempted)), SlotReservation.class);
+            }
+            throw e;
+        }
+
+        List<String> stale = held.stream()
+            .filter(reservation -> !wantedKeys.contains(key(reservation)))
+            .map(SlotReservation::getId)
+            .toList();
+        if (!stale.isEmpty()) {
+            mongoTemplate.remove(new Query(Criteria.where("_id").in(stale)), SlotReservation.class);
+        }
+    }
+
+    public void release(String appointmentId) {
+        mongoTemplate.remove(byAppointment(appointmentId), SlotReservation.class);
+    }
+
+    /**
+     * Create reservations for upcoming appointments booked before reservations existed.
+     * Already claimed slots are skipped; overlapping legacy appointments keep the first claim.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        Query query = new Query(Criteria.where("appointmentDate").gte(LocalDateTime.now().minusDays(1))
+            .and("status").ne("CANCELLED"));
+        query.fields().include("dentist", "patientProfile", "appointmentDate", "durationMinutes");
+
+        List<SlotReservation> batch = new ArrayList<>();
+        int[] inserted = { 0 };
+        try (Stream<Document> rows = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(Appointment.class))) {
+            rows.forEach(row -> {
+                if (row.get("dentist") instanceof DBRef dentist && row.get("patientProfile") instanceof DBRef patient
+                        && row.get("appointmentDate") instanceof Date date) {
+                    // LocalDateTime is stored as a Date in the JVM's zone
+                    LocalDateTime start = LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+                    String appointmentId = row.get("_id").toString();
+                    Integer duration = row.getInteger("durationMinutes");
+                    batch.addAll(reservations(appointmentId, DENTIST, dentist.getId().toString(), start, duration));
+                    batch.addAll(reservations(appointmentId, PATIENT, patient.getId().toString(), start, duration));
+                }
+                if (batch.size() >= BACKFILL_BATCH_SIZE) {
+                    inserted[0] += insertIgnoringClaimed(batch);
+                    batch.clear();
+                }
+            });
+        }
+        inserted[0] += insertIgnoringClaimed(batch);
+        System.out.println("SlotReservationService: Backfilled " + inserted[0] + " slot reservations");
+    }
+
+    private void insert(List<SlotReservation> claims, List<String> attempted, String conflictMessage) {
+        if (claims.isEmpty()) {
+            return;
+        }
+        claims.forEach(claim -> attempted.add(claim.getId()));
+        try {
+            mongoTemplate.insert(claims, SlotReservation.class);
+        } catch (DuplicateKeyException e) {
+            throw new ConflictException(conflictMessage);
+        }
+    }
+
+    private int insertIgnoringClaimed(List<SlotReservation> reservations) {
+        if (reservations.isEmpty()) {
+            return 0;
+        }
+        try {
+            return mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SlotReservation.class)
+                .insert(reservations)
+                .execute()
+                .getInsertedCount();
+        } catch (BulkOperationException e) {
+            if (!e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY)) {
+                throw e;
+            }
+            return e.getResult().getInsertedCount();
+        }
+    }
+
+    private List<SlotReservation> reservations(String appointmentId, String ownerType, String ownerId,
+                                               LocalDateTime start, Integer durationMinutes) {
+        int minutes = durationMinutes != null && durationMinutes > 0 ? durationMinutes : DEFAULT_DURATION_MINUTES;
+        LocalDateTime end = start.plusMinutes(minutes);
+        LocalDateTime expiresAt = end.plusDays(retentionDays);
+
+        // Align to the slot grid: 10:02-10:32 occupies 10:00, 10:05, ..., 10:30
+        LocalDateTime slot = start.withSecond(0).withNano(0).minusMinutes(start.getMinute() % SLOT_MINUTES);
+        List<SlotReservation> reservations = new ArrayList<>();
+        for (; slot.isBefore(end); slot = slot.plusMinutes(SLOT_MINUTES)) {
+            reservations.add(new SlotReservation(new ObjectId().toHexString(), ownerType, ownerId, slot, appointmentId, expiresAt));
+        }
+        return reservations;
+    }
+
+    private static Query byAppointment(String appointmentId) {
+        return new Query(Criteria.where("appointmentId").is(appointmentId));
+    }
+
+    private static String key(SlotReservation reservation) {
+        return reservation.getOwnerType() + "/" + reservation.getOwnerId() + "/" + reservation.getSlotStart();
+    }
+}
@@ -1,20 +1,40 @@
 package com.dentistplus.service;
 
+import com.dentistplus.dto.CursorPage;
+import com.dentistplus.dto.CursorPageRequest;
+import com.dentistplus.dto.ProcedureStatusChange;
+import com.dentistplus.dto.ProcedureStatusResult;
+import com.dentistplus.dto.ProcedureUpdate;
 import com.dentistplus.exception.ResourceNotFoundException;
 import com.dentistplus.model.PatientProfile;
 import com.dentistplus.model.TreatmentPlan;
+import com.dentistplus.repository.CursorPaging;
 import com.dentistplus.repository.PatientProfileRepository;
 import com.dentistplus.repository.TreatmentPlanRepository;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @Service
 public class TreatmentPlanService {
+
+    private static final int MAX_STATUS_CHANGES = 500;
+
+    static final Set<String> PROCEDURE_STATUSES = Set.of("PLANNED", "IN_PROGRESS", "COMPLETED", "CANCELLED");
     
     @Autowired
     private TreatmentPlanRepository treatmentPlanRepository;
@@ -25,13 +45,21 @@ public class TreatmentPlanService {
     @Autowired
     private AuthService authService;
 
-    public List<TreatmentPlan> getTreatmentPlans(String patientId, String dentistUserId) {
+    @Autowired
+    private CursorPaging cursorPaging;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    public CursorPage<TreatmentPlan> getTreatmentPlans(String patientId, String dentistUserId, CursorPageRequest page) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
         
-        PatientProfile patient = patientProfileRepository.findById(patientId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient not found with id: " + patientId));
+        if (!patientProfileRepository.existsById(patientId)) {
+            throw new ResourceNotFoundException("Patient not found with id: " + patientId);
+        }
 
-        return treatmentPlanRepository.findByPatientProfile(patient);
+        return cursorPaging.find(CursorPaging.byReference("patientProfile", patientId), page,
+            TreatmentPlan.class, TreatmentPlan::getId);
     }
 
     public TreatmentPlan createTreatmentPlan(String patientId, TreatmentPlan treatmentPlan, String dentistUserId) {
@@ -48,53 +76,201 @@ public class TreatmentPlanService {
         return treatmentPlanRepository.save(treatmentPlan);
     }
 
+    /**
+     * Append the procedure with one $push, so concurrent claims and status changes on the
+     * plan's other procedures are never overwritten by a stale copy of the plan
+     */
     public TreatmentPlan addProcedureToTreatmentPlan(String planId, TreatmentPlan.PlannedProcedure procedure, String dentistUserId) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
-        
-        TreatmentPlan plan = treatmentPlanRepository.findById(planId)
-            .orElseThrow(() -> new ResourceNotFoundException("Treatment plan not found with id: " + planId));
 
-        if (plan.getProcedures() == null) {
-            plan.setProcedures(new ArrayList<>());
-        }
-        
         procedure.setId(UUID.randomUUID().toString());
-        plan.getProcedures().add(procedure);
-        plan.setUpdatedAt(LocalDateTime.now());
-        
-        return treatmentPlanRepository.save(plan);
+        TreatmentPlan plan = mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(planId)),
+            new Update().push("procedures", procedure).set("updatedAt", LocalDateTime.now()),
+            FindAndModifyOptions.options().returnNew(true), TreatmentPlan.class);
+        if (plan == null) {
+            throw new ResourceNotFoundException("Treatment plan not found with id: " + planId);
+        }
+        return plan;
     }
 
+    /**
+     * Replace the editable fields of the procedure in place; the plan is found through the
+     * procedures._id index. createdAt and the invoicing state are kept.
+     */
     public TreatmentPlan updateProcedure(String procedureId, TreatmentPlan.PlannedProcedure updatedProcedure, String dentistUserId) {
         authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
-        
-        List<TreatmentPlan> allPlans = treatmentPlanRepository.findAll();
-        
-        for (TreatmentPlan plan : allPlans) {
-            if (plan.getProcedures() != null) {
-                for (int i = 0; i < plan.getProcedures().size(); i++) {
-                    TreatmentPlan.PlannedProcedure procedure = plan.getProcedures().get(i);
-                    if (procedureId.equals(procedure.getId())) {
-                        // Update the procedure
-                        updatedProcedure.setId(procedureId);
-                        updatedProcedure.setUpdatedAt(LocalDateTime.now());
-                        plan.getProcedures().set(i, updatedProcedure);
-                        plan.setUpdatedAt(LocalDateTime.now());
-                        return treatmentPlanRepository.save(plan);
-                    }
+
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+            .set("procedures.$.procedureName", updatedProcedure.getProcedureName())
+            .set("procedures.$.procedureCode", updatedProcedure.getProcedureCode())
+            .set("procedures.$.toothNumbers", updatedProcedure.getToothNumbers())
+            .set("procedures.$.costEstimate", updatedProcedure.getCostEstimate())
+            .set("procedures.$.status", updatedProcedure.getStatus())
+            .set("procedures.$.notes", updatedProcedure.getNotes())
+            .set("procedures.$.scheduledDate", updatedProcedure.getScheduledDate())
+            .set("procedures.$.updatedAt", now)
+            .set("updatedAt", now);
+        return modifyProcedure(procedureId, update);
+    }
+
+    /**
+     * Set only the given fields of the procedure, e.g. just its status or cost
+     */
+    public TreatmentPlan patchProcedure(String procedureId, ProcedureUpdate changes, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+
+        Update update = new Update();
+        setIfPresent(update, "procedureName", changes.getProcedureName());
+        setIfPresent(update, "procedureCode", changes.getProcedureCode());
+        setIfPresent(update, "toothNumbers", changes.getToothNumbers());
+        setIfPresent(update, "costEstimate", changes.getCostEstimate());
+        setIfPresent(update, "status", changes.getStatus() != null ? requireStatus(changes.getStatus()) : null);
+        setIfPresent(update, "notes", changes.getNotes());
+        setIfPresent(update, "scheduledDate", changes.getScheduledDate());
+        if (update.getUpdateObject().isEmpty()) {
+            throw new IllegalArgumentException("No procedure changes given");
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        return modifyProcedure(procedureId, update.set("procedures.$.updatedAt", now).set("updatedAt", now));
+    }
+
+    /**
+     * Move many procedures of one patient, across any of their plans, to new statuses with a
+     * fixed number of round trips: one read of the current statuses, then a single
+     * updateMany with one array filter per target status. The update only matches plans
+     * that still hold a procedure to change; if it modified fewer plans than the read
+     * expected, a concurrent request got in between and the statuses are read again.
+     */
+    public List<ProcedureStatusResult> updateProcedureStatuses(String patientId, List<ProcedureStatusChange> changes, String dentistUserId) {
+        authService.validateUserRole(dentistUserId, "ROLE_DENTIST");
+        if (changes == null || changes.isEmpty()) {
+            throw new IllegalArgumentException("No procedure status changes given");
+        }
+        if (changes.size() > MAX_STATUS_CHANGES) {
+            throw new IllegalArgumentException("At most " + MAX_STATUS_CHANGES + " procedure status changes per request");
+        }
+
+        Map<String, String> targets = new LinkedHashMap<>();
+        for (ProcedureStatusChange change : changes) {
+            if (change.getProcedureId() == null || change.getProcedureId().isBlank()) {
+                throw new IllegalArgumentException("procedureId is required");
+            }
+            String previous = targets.put(change.getProcedureId(), requireStatus(change.getStatus()));
+            if (previous != null && !previous.equals(change.getStatus())) {
+                throw new IllegalArgumentException("Conflicting statuses for procedure " + change.getProcedureId());
+            }
+        }
+        if (!patientProfileRepository.existsById(patientId)) {
+            throw new ResourceNotFoundException("Patient not found with id: " + patientId);
+        }
+
+        String collection = mongoTemplate.getCollectionName(TreatmentPlan.class);
+        Map<String, String[]> current = currentStatuses(patientId, targets.keySet(), collection);
+
+        List<ProcedureStatusResult> results = new ArrayList<>();
+        Map<String, List<String>> byStatus = new LinkedHashMap<>();
+        targets.forEach((procedureId, status) -> {
+            String[] found = current.get(procedureId);
+            if (found == null) {
+                results.add(new ProcedureStatusResult(procedureId, null, null, status, "NOT_FOUND"));
+            } else if (status.equals(found[1])) {
+                results.add(new ProcedureStatusResult(procedureId, found[0], found[1], status, "UNCHANGED"));
+            } else {
+                results.add(new ProcedureStatusResult(procedureId, found[0], found[1], status, "UPDATED"));
+                byStatus.computeIfAbsent(status, key -> new ArrayList<>()).add(procedureId);
+            }
+        });
+        if (byStatus.isEmpty()) {
+            return results;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update().set("updatedAt", now);
+        List<Criteria> pending = new ArrayList<>();
+        int[] filter = { 0 };
+        byStatus.forEach((status, procedureIds) -> {
+            String identifier = "s" + filter[0]++;
+            update.set("procedures.$[" + identifier + "].status", status)
+                .set("procedures.$[" + identifier + "].updatedAt", now)
+                .filterArray(Criteria.where(identifier + "._id").in(procedureIds).and(identifier + ".status").ne(status));
+            pending.add(Criteria.where("procedures").elemMatch(Criteria.where("_id").in(procedureIds).and("status").ne(status)));
+        });
+        long modified = mongoTemplate.updateMulti(new Query(CursorPaging.byReference("patientProfile", patientId)
+            .orOperator(pending.toArray(new Criteria[0]))), update, collection).getModifiedCount();
+
+        long plans = results.stream().filter(result -> "UPDATED".equals(result.getResult()))
+            .map(ProcedureStatusResult::getPlanId).distinct().count();
+        if (modified != plans) {
+            // Report what the procedures hold now: removed ones as NOT_FOUND, ones moved
+            // to yet another status by the concurrent request as CONFLICT
+            Map<String, String[]> after = currentStatuses(patientId, targets.keySet(), collection);
+            for (ProcedureStatusResult result : results) {
+                if (!"UPDATED".equals(result.getResult())) {
+                    continue;
+                }
+                String[] found = after.get(result.getProcedureId());
+                if (found == null) {
+                    result.setResult("NOT_FOUND");
+                } else if (!result.getStatus().equals(found[1])) {
+                    result.setStatus(found[1]);
+                    result.setResult("CONFLICT");
                 }
             }
         }
-        
-        throw new ResourceNotFoundException("Procedure not found with id: " + procedureId);
+        return results;
     }
 
-    public List<TreatmentPlan> getMyTreatmentPlans(String patientUserId) {
+    /**
+     * procedure id -> { plan id, current status } for the given procedures of the patient
+     */
+    private Map<String, String[]> currentStatuses(String patientId, Set<String> procedureIds, String collection) {
+        Query query = new Query(CursorPaging.byReference("patientProfile", patientId).and("procedures._id").in(procedureIds));
+        query.fields().include("procedures._id", "procedures.status");
+        Map<String, String[]> current = new HashMap<>();
+        for (Document plan : mongoTemplate.find(query, Document.class, collection)) {
+            for (Document procedure : plan.getList("procedures", Document.class, List.of())) {
+                Object id = procedure.get("_id");
+                if (id != null && procedureIds.contains(id.toString())) {
+                    current.put(id.toString(), new String[] { plan.get("_id").toString(), procedure.getString("status") });
+                }
+            }
+        }
+        return current;
+    }
+
+    public CursorPage<TreatmentPlan> getMyTreatmentPlans(String patientUserId, CursorPageRequest page) {
         authService.validateUserRole(patientUserId, "ROLE_PATIENT");
         
-        PatientProfile patient = patientProfileRepository.findByUser_Id(patientUserId)
-            .orElseThrow(() -> new ResourceNotFoundException("Patient profile not found"));
+        String patientProfileId = authService.getPatientProfileId(patientUserId);
 
-        return treatmentPlanRepository.findByPatientProfile(patient);
+        return cursorPaging.find(CursorPaging.byReference("patientProfile", patientProfileId), page,
+            TreatmentPlan.class, TreatmentPlan::getId);
+    }
+
+    static String requireStatus(String status) {
+        if (!PROCEDURE_STATUSES.contains(status)) {
+            throw new IllegalArgumentException("status must be one of " + PROCEDURE_STATUSES);
+        }
+        return status;
+    }
+
+    private static void setIfPresent(Update update, String field, Object value) {
+        if (value != null) {
+            update.set("procedures.$." + field, value);
+        }
+    }
+
+    /**
+     * One positional update of the matched procedure, returning the modified plan
+     */
+    private TreatmentPlan modifyProcedure(String procedureId, Update update) {
+        TreatmentPlan plan = mongoTemplate.findAndModify(new Query(Criteria.where("procedures.id").is(procedureId)),
+            update, FindAndModifyOptions.options().returnNew(true), TreatmentPlan.class);
+        if (plan == null) {
+            throw new ResourceNotFoundException("Procedure not found with id: " + procedureId);
+        }
+        return plan;
     }
 }
\ No newline at end of file
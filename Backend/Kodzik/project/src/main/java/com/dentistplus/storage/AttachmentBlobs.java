@@ -0,0 +1,160 @@
+package com.dentistplus.storage;
+
+import com.dentistplus.model.AttachmentBlob;
+import com.dentistplus.model.AttachmentBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed index over AttachmentStorage (attachment_blobs, keyed by SHA-256).
+ * Identical uploads share one stored object: the first one becomes the blob, later ones
+ * only add their entry id to its refs and their own copy is deleted again. Adding and
+ * removing an id is idempotent, so an entry counted twice (a retried migration, two nodes)
+ * still counts once.
+ *
+ * Storage savings are published as attachments.storage.* gauges, refreshed periodically
+ * from an aggregation over the blobs.
+ */
+@Component
+public class AttachmentBlobs {
+
+    private final MongoTemplate mongoTemplate;
+    private final AttachmentStorage storage;
+
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong logicalBytes = new AtomicLong();
+    private final AtomicLong blobCount = new AtomicLong();
+    private final Counter deduplicated;
+
+    @Autowired
+    public AttachmentBlobs(MongoTemplate mongoTemplate, AttachmentStorage storage, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.storage = storage;
+
+        Gauge.builder("attachments.storage.bytes", storedBytes, AtomicLong::doubleValue)
+            .tag("kind", "stored").baseUnit("bytes")
+            .description("Bytes of distinct attachment content in storage")
+            .register(meterRegistry);
+        Gauge.builder("attachments.storage.bytes", logicalBytes, AtomicLong::doubleValue)
+            .tag("kind", "logical").baseUnit("bytes")
+            .description("Bytes of all attachments as if every copy were stored")
+            .register(meterRegistry);
+        Gauge.builder("attachments.storage.saved", this, blobs -> blobs.logicalBytes.get() - blobs.storedBytes.get())
+            .baseUnit("bytes")
+            .description("Bytes not stored thanks to deduplication")
+            .register(meterRegistry);
+        Gauge.builder("attachments.storage.blobs", blobCount, AtomicLong::doubleValue)
+            .description("Distinct attachment contents")
+            .register(meterRegistry);
+        this.deduplicated = Counter.builder("attachments.storage.deduplicated")
+            .description("Uploads whose content was already stored")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Add the attachment entry as a reference to the content just stored. Returns the storage
+     * key every entry with this content must use; when the content was already stored, the
+     * new copy is deleted.
+     */
+    public String acquire(StoredContent stored, String attachmentId) {
+        AttachmentBlob blob;
+        try {
+            blob = upsert(stored, attachmentId);
+        } catch (DuplicateKeyException e) {
+            // A concurrent upload of the same content created the blob first
+            blob = upsert(stored, attachmentId);
+        }
+        if (!blob.getStorageKey().equals(stored.getKey())) {
+            storage.delete(stored.getKey());
+            deduplicated.increment();
+        }
+        return blob.getStorageKey();
+    }
+
+    /**
+     * Drop the attachment entry's reference. Only a blob holding the entry's storage key is
+     * touched; the content is deleted once no entry points at it, neither in refs nor in
+     * the attachment buckets (entries not counted yet, e.g. written by an older node).
+     */
+    public void release(String sha256, String storageKey, String attachmentId) {
+        Document refs = new Document("$setDifference", List.of(new Document("$ifNull", List.of("$refs", List.of())), List.of(attachmentId)));
+        AttachmentBlob blob = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(sha256).and("storageKey").is(storageKey)), withRefs(refs),
+            FindAndModifyOptions.options().returnNew(true), AttachmentBlob.class);
+        if (blob == null || blob.getRefCount() > 0) {
+            return;
+        }
+
+        Object entryId = ObjectId.isValid(attachmentId) ? new ObjectId(attachmentId) : attachmentId;
+        Query inUse = new Query(Criteria.where("entries").elemMatch(Criteria.where("storageKey").is(storageKey).and("_id").ne(entryId)));
+        if (mongoTemplate.exists(inUse, AttachmentBucket.class)) {
+            System.out.println("AttachmentBlobs: Keeping content " + sha256 + ", still used by entries not counted yet");
+            return;
+        }
+        // Only delete if no upload re-acquired it in the meantime
+        Query unreferenced = new Query(Criteria.where("_id").is(sha256).and("storageKey").is(storageKey).and("refCount").lte(0));
+        if (mongoTemplate.remove(unreferenced, AttachmentBlob.class).getDeletedCount() == 1) {
+            storage.delete(storageKey);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${dentistplus.attachments.stats-refresh:1m}")
+    public void refreshStats() {
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.group()
+                .count().as("blobs")
+                .sum("size").as("stored")
+                .sum(ArithmeticOperators.Multiply.valueOf("size").multiplyBy("refCount")).as("logical"));
+        Document totals = mongoTemplate.aggregate(aggregation, AttachmentBlob.class, Document.class).getUniqueMappedResult();
+
+        blobCount.set(totals != null ? ((Number) totals.get("blobs")).longValue() : 0);
+        storedBytes.set(totals != null ? ((Number) totals.get("stored")).longValue() : 0);
+        logicalBytes.set(totals != null ? ((Number) totals.get("logical")).longValue() : 0);
+    }
+
+    private AttachmentBlob upsert(StoredContent stored, String attachmentId) {
+        Document refs = new Document("$setUnion", List.of(new Document("$ifNull", List.of("$refs", List.of())), List.of(attachmentId)));
+        AggregationUpdate update = withRefs(refs)
+            .set("storageKey").toValue(ifMissing("storageKey", stored.getKey()))
+            .set("size").toValue(ifMissing("size", stored.getSize()))
+            .set("createdAt").toValue(ifMissing("createdAt", new Date()));
+        return mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(stored.getSha256())), update,
+            FindAndModifyOptions.options().upsert(true).returnNew(true), AttachmentBlob.class);
+    }
+
+    /**
+     * Pipeline update setting refs and, from it, refCount in one write
+     */
+    private static AggregationUpdate withRefs(Document refs) {
+        return AggregationUpdate.update()
+            .set("refs").toValue(expression(refs))
+            .set("refCount").toValue(expression(new Document("$size", "$refs")));
+    }
+
+    private static AggregationExpression ifMissing(String field, Object value) {
+        return expression(new Document("$ifNull", List.of("$" + field, new Document("$literal", value))));
+    }
+
+    private static AggregationExpression expression(Document expression) {
+        return context -> expression;
+    }
+}
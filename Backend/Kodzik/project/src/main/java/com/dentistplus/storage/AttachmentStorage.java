@@ -0,0 +1,31 @@
+package com.dentistplus.storage;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Binary content of record attachments. Content is written and read as streams, so
+ * whole files never sit in the heap. The backend is chosen with dentistplus.attachments.storage.
+ */
+public interface AttachmentStorage {
+
+    /**
+     * Stream the content into a new object; fails with IllegalArgumentException past maxBytes
+     */
+    StoredContent store(InputStream content, String contentType, long maxBytes);
+
+    /**
+     * Stream of the object starting at the given byte offset
+     */
+    InputStream open(String key, long offset);
+
+    /**
+     * Local file holding the object, when the backend keeps files on disk; lets downloads
+     * use sendfile/transferTo instead of copying through the heap
+     */
+    default Path localFile(String key) {
+        return null;
+    }
+
+    void delete(String key);
+}
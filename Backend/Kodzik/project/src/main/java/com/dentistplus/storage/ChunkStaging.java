@@ -0,0 +1,158 @@
+package com.dentistplus.storage;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Chunks of resumable uploads, one directory per upload session and one file per chunk.
+ * A chunk is written to a private temp file and renamed into place only after its size
+ * and SHA-256 check out, so retried or parallel PUTs of the same chunk cannot leave a
+ * torn file behind. The root must be shared between nodes that serve the same uploads.
+ */
+@Component
+public class ChunkStaging {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+
+    @Autowired
+    public ChunkStaging(@Value("${dentistplus.attachments.uploads.root:data/uploads}") String root) {
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        try {
+            Files.createDirectories(this.root);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create upload directory " + this.root, e);
+        }
+    }
+
+    /**
+     * Store one chunk; fails with IllegalArgumentException when the content does not have
+     * exactly the expected length and SHA-256 (hex)
+     */
+    public void writeChunk(String sessionId, int index, InputStream content, long expectedLength, String expectedSha256) {
+        Path dir = sessionDir(sessionId);
+        Path part = dir.resolve(index + ".part-" + new ObjectId().toHexString());
+        HashingInputStream in = new HashingInputStream(content, expectedLength);
+        try {
+            Files.createDirectories(dir);
+            try (FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                    while (chunk.hasRemaining()) {
+                        out.write(chunk);
+                    }
+                }
+                out.force(true);
+            }
+            if (in.size() != expectedLength) {
+                throw new IllegalArgumentException("Chunk " + index + " must be " + expectedLength + " bytes, got " + in.size());
+            }
+            if (!in.sha256().equalsIgnoreCase(expectedSha256)) {
+                throw new IllegalArgumentException("Checksum mismatch for chunk " + index);
+            }
+            Files.move(part, dir.resolve(Integer.toString(index)), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (HashingInputStream.TooLargeException e) {
+            throw new IllegalArgumentException("Chunk " + index + " must be " + expectedLength + " bytes");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                System.out.println("ChunkStaging: Could not delete " + part + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * All chunks of a session read back to back; each chunk file is opened only when the
+     * previous one is exhausted
+     */
+    public InputStream openAll(String sessionId, int chunkCount) {
+        Path dir = sessionDir(sessionId);
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < chunkCount;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (next >= chunkCount) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return Files.newInputStream(dir.resolve(Integer.toString(next++)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    public void deleteSession(String sessionId) {
+        Path dir = sessionDir(sessionId);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            System.out.println("ChunkStaging: Could not delete " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ids of all sessions that have chunks on disk
+     */
+    public List<String> sessionIds() {
+        List<String> ids = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root)) {
+            for (Path dir : dirs) {
+                String name = dir.getFileName().toString();
+                if (Files.isDirectory(dir) && ObjectId.isValid(name)) {
+                    ids.add(name);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("ChunkStaging: Could not list " + root + ": " + e.getMessage());
+            return Collections.emptyList();
+        }
+        return ids;
+    }
+
+    private Path sessionDir(String sessionId) {
+        if (!ObjectId.isValid(sessionId)) {
+            throw new IllegalArgumentException("Invalid upload id: " + sessionId);
+        }
+        return root.resolve(sessionId);
+    }
+}
@@ -0,0 +1,76 @@
+package com.dentistplus.storage;
+
+import com.mongodb.MongoGridFSException;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Attachments in GridFS (fs.files / fs.chunks of the application database). The driver
+ * uploads in 255 KB chunks and seeks by chunk on skip, so ranges do not read the whole file.
+ */
+@Component
+@ConditionalOnProperty(name = "dentistplus.attachments.storage", havingValue = "gridfs")
+public class GridFsAttachmentStorage implements AttachmentStorage {
+
+    @Autowired
+    private GridFsTemplate gridFsTemplate;
+
+    @Override
+    public StoredContent store(InputStream content, String contentType, long maxBytes) {
+        HashingInputStream in = new HashingInputStream(content, maxBytes);
+        try {
+            ObjectId id = gridFsTemplate.store(in, new ObjectId().toHexString(), contentType);
+            return new StoredContent(id.toHexString(), in.size(), in.sha256());
+        } catch (MongoGridFSException e) {
+            // The driver aborts the upload and removes its chunks on I/O errors
+            if (e.getCause() instanceof HashingInputStream.TooLargeException tooLarge) {
+                throw new IllegalArgumentException(tooLarge.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream open(String key, long offset) {
+        GridFSFile file = gridFsTemplate.findOne(byId(key));
+        if (file == null) {
+            throw new IllegalStateException("Attachment content missing: " + key);
+        }
+        try {
+            InputStream in = gridFsTemplate.getResource(file).getInputStream();
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+            return in;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        gridFsTemplate.delete(byId(key));
+    }
+
+    private static Query byId(String key) {
+        if (!ObjectId.isValid(key)) {
+            throw new IllegalArgumentException("Invalid attachment key: " + key);
+        }
+        return new Query(Criteria.where("_id").is(new ObjectId(key)));
+    }
+}
@@ -0,0 +1,78 @@
+package com.dentistplus.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Counts and SHA-256-hashes the bytes read through it and stops at a size limit
+ */
+class HashingInputStream extends FilterInputStream {
+
+    private final MessageDigest digest;
+    private final long maxBytes;
+    private long size;
+
+    HashingInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            count(1);
+            digest.update((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = super.read(buffer, offset, length);
+        if (n > 0) {
+            count(n);
+            digest.update(buffer, offset, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        // Every byte must be hashed
+        return 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    String sha256() {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void count(int n) throws TooLargeException {
+        size += n;
+        if (size > maxBytes) {
+            throw new TooLargeException(maxBytes);
+        }
+    }
+
+    /**
+     * An IOException, so stores that abort on I/O errors (GridFS) clean up partial uploads
+     */
+    static class TooLargeException extends IOException {
+        TooLargeException(long maxBytes) {
+            super("Attachment exceeds the maximum size of " + maxBytes + " bytes");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.dentistplus.storage;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Attachments as files under a root directory, spread over 256 subdirectories. Uploads
+ * are written to tmp/ through a fixed buffer, fsynced and atomically moved into place, so
+ * a file under its final name is always complete.
+ */
+@Component
+@ConditionalOnProperty(name = "dentistplus.attachments.storage", havingValue = "local", matchIfMissing = true)
+public class LocalAttachmentStorage implements AttachmentStorage {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final Path tmp;
+
+    @Autowired
+    public LocalAttachmentStorage(@Value("${dentistplus.attachments.local.root:data/attachments}") String root) {
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        this.tmp = this.root.resolve("tmp");
+        try {
+            Files.createDirectories(tmp);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create attachment directory " + tmp, e);
+        }
+        System.out.println("LocalAttachmentStorage: Storing attachments in " + this.root);
+    }
+
+    @Override
+    public StoredContent store(InputStream content, String contentType, long maxBytes) {
+        String key = new ObjectId().toHexString();
+        Path upload = tmp.resolve(key);
+        HashingInputStream in = new HashingInputStream(content, maxBytes);
+        try {
+            try (FileChannel out = FileChannel.open(upload, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                    while (chunk.hasRemaining()) {
+                        out.write(chunk);
+                    }
+                }
+                out.force(true);
+            }
+            Path target = path(key);
+            Files.createDirectories(target.getParent());
+            Files.move(upload, target, StandardCopyOption.ATOMIC_MOVE);
+            return new StoredContent(key, in.size(), in.sha256());
+        } catch (HashingInputStream.TooLargeException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deleteQuietly(upload);
+        }
+    }
+
+    @Override
+    public InputStream open(String key, long offset) {
+        try {
+            FileChannel channel = FileChannel.open(path(key), StandardOpenOption.READ);
+            channel.position(offset);
+            return Channels.newInputStream(channel);
+        } catch (NoSuchFileException e) {
+            throw new IllegalStateException("Attachment content missing: " + key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Path localFile(String key) {
+        return path(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        deleteQuietly(path(key));
+    }
+
+    private Path path(String key) {
+        // Keys are generated here; never let a stored key point outside the root
+        if (!ObjectId.isValid(key)) {
+            throw new IllegalArgumentException("Invalid attachment key: " + key);
+        }
+        return root.resolve(key.substring(key.length() - 2)).resolve(key);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("LocalAttachmentStorage: Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.dentistplus.storage;
+
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directory of generated files bounded by total size. The least recently used files are
+ * deleted once the size limit is exceeded; after a restart, recency starts from the file
+ * modification times. Files are written under a temporary name and renamed into place, so
+ * readers never see a partial file.
+ */
+public class PreviewCache {
+
+    @FunctionalInterface
+    public interface Writer {
+        void write(Path target) throws IOException;
+    }
+
+    private final Path root;
+    private final long maxBytes;
+
+    // name -> size in bytes, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public PreviewCache(Path root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(root);
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(root)) {
+                for (Path file : dir) {
+                    if (file.getFileName().toString().contains(".tmp-")) {
+                        Files.deleteIfExists(file);
+                    } else if (Files.isRegularFile(file)) {
+                        files.add(file);
+                    }
+                }
+            }
+            files.sort(Comparator.comparing(PreviewCache::lastModified));
+            for (Path file : files) {
+                long size = Files.size(file);
+                entries.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open preview cache " + root, e);
+        }
+        synchronized (this) {
+            evict(null);
+        }
+    }
+
+    /**
+     * The cached file, or null when it is not cached
+     */
+    public synchronized Path get(String name) {
+        Long size = entries.get(name);
+        if (size == null) {
+            return null;
+        }
+        Path file = root.resolve(name);
+        if (!Files.exists(file)) {
+            entries.remove(name);
+            totalBytes -= size;
+            return null;
+        }
+        return file;
+    }
+
+    public Path put(String name, Writer writer) throws IOException {
+        Path tmp = root.resolve(name + ".tmp-" + new ObjectId().toHexString());
+        Path target = root.resolve(name);
+        try {
+            writer.write(tmp);
+            long size = Files.size(tmp);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (this) {
+                Long previous = entries.put(name, size);
+                totalBytes += size - (previous != null ? previous : 0);
+                evict(name);
+            }
+            return target;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(root.resolve(entry.getKey()));
+            } catch (IOException e) {
+                System.out.println("PreviewCache: Could not delete " + entry.getKey() + ": " + e.getMessage());
+            }
+            totalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
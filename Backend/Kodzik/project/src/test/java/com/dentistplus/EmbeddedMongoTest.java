@@ -0,0 +1,49 @@
+package com.dentistplus;
+
+import de.flapdoodle.embed.mongo.commands.ServerAddress;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.mongo.transitions.Mongod;
+import de.flapdoodle.embed.mongo.transitions.RunningMongodProcess;
+import de.flapdoodle.reverse.TransitionWalker;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Base for tests that run the whole application against an embedded mongod. The server
+ * is started once per JVM and shared by all test classes; each run uses a fresh data
+ * directory and its own attachment, upload and preview roots.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public abstract class EmbeddedMongoTest {
+
+    private static final TransitionWalker.ReachedState<RunningMongodProcess> MONGOD = Mongod.instance().start(Version.Main.V6_0);
+    private static final Path FILES;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(MONGOD::close));
+        try {
+            FILES = Files.createTempDirectory("dentistplus-test");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @DynamicPropertySource
+    static void mongoProperties(DynamicPropertyRegistry registry) {
+        ServerAddress address = MONGOD.current().getServerAddress();
+        registry.add("spring.data.mongodb.uri", () -> "mongodb://" + address.getHost() + ":" + address.getPort() + "/dentistplus");
+        registry.add("dentistplus.attachments.local.root", () -> FILES.resolve("attachments").toString());
+        registry.add("dentistplus.attachments.uploads.root", () -> FILES.resolve("uploads").toString());
+        registry.add("dentistplus.attachments.previews.root", () -> FILES.resolve("previews").toString());
+    }
+}
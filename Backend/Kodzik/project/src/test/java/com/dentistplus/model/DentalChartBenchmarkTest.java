@@ -0,0 +1,121 @@
+package com.dentistplus.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Heap footprint and serialization time of the packed chart against the nested string
+ * map it replaced. Both depend on the machine and the collector, so they are only
+ * reported, and the class is excluded from the default build; run it with
+ * {@code mvn test -Dtest.excludedGroups= -Dgroups=benchmark}. The stored sizes are
+ * asserted by {@link DentalChartSizeTest}.
+ */
+@Tag("benchmark")
+class DentalChartBenchmarkTest {
+
+    private static final int COPIES = 20_000;
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 100_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DocumentCodec codec = new DocumentCodec();
+
+    @Test
+    void heapPerChart() {
+        Map<String, Map<String, String>> map = fullChart();
+
+        long mapBytes = retainedBytesPerCopy(() -> copy(map));
+        long packedBytes = retainedBytesPerCopy(() -> DentalChart.fromMap(map));
+        System.out.println("DentalChartBenchmarkTest: heap per chart - map " + mapBytes + " B, packed " + packedBytes + " B");
+    }
+
+    @Test
+    void serializationTime() {
+        Map<String, Map<String, String>> map = fullChart();
+        DentalChart chart = DentalChart.fromMap(map);
+
+        System.out.println("DentalChartBenchmarkTest: BSON encode map " + nanosPerOp(() -> bson(new Document("dentalChart", map)))
+            + " ns, packed " + nanosPerOp(() -> bson(new Document("chart", chart.toStored()))) + " ns");
+        RawBsonDocument storedMap = bson(new Document("dentalChart", map));
+        RawBsonDocument storedChart = bson(new Document("chart", chart.toStored()));
+        System.out.println("DentalChartBenchmarkTest: BSON decode map " + nanosPerOp(() -> storedMap.decode(codec).get("dentalChart"))
+            + " ns, packed " + nanosPerOp(() -> DentalChart.fromStored(storedChart.decode(codec).getList("chart", Integer.class))) + " ns");
+        System.out.println("DentalChartBenchmarkTest: JSON write map " + nanosPerOp(() -> json(map))
+            + " ns, compact " + nanosPerOp(() -> json(chart.codes())) + " ns");
+    }
+
+    private static Map<String, Map<String, String>> fullChart() {
+        return DentalChartSizeTest.fullChart();
+    }
+
+    /**
+     * A map as the mapping layer builds it from a document: every key and value its own String
+     */
+    private static Map<String, Map<String, String>> copy(Map<String, Map<String, String>> chart) {
+        Map<String, Map<String, String>> copy = new LinkedHashMap<>();
+        chart.forEach((tooth, surfaces) -> {
+            Map<String, String> surfacesCopy = new LinkedHashMap<>();
+            surfaces.forEach((surface, condition) -> surfacesCopy.put(new String(surface), new String(condition)));
+            copy.put(new String(tooth), surfacesCopy);
+        });
+        return copy;
+    }
+
+    private static long retainedBytesPerCopy(Supplier<Object> factory) {
+        List<Object> copies = new ArrayList<>(COPIES);
+        long before = usedHeap();
+        for (int i = 0; i < COPIES; i++) {
+            copies.add(factory.get());
+        }
+        long after = usedHeap();
+        assertEquals(COPIES, copies.size());
+        return (after - before) / COPIES;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private RawBsonDocument bson(Document document) {
+        return new RawBsonDocument(document, codec);
+    }
+
+    private byte[] json(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long nanosPerOp(Supplier<Object> op) {
+        Object sink = null;
+        for (int i = 0; i < WARMUP; i++) {
+            sink = op.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = op.get();
+        }
+        long nanos = (System.nanoTime() - start) / ITERATIONS;
+        assertTrue(sink != null);
+        return nanos;
+    }
+}
@@ -0,0 +1,57 @@
+package com.dentistplus.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stored and sent size of the packed chart against the nested string map it replaced,
+ * for a fully charted permanent dentition
+ */
+class DentalChartSizeTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DocumentCodec codec = new DocumentCodec();
+
+    @Test
+    void packedChartRoundTripsTheMap() {
+        Map<String, Map<String, String>> map = fullChart();
+        assertEquals(map, DentalChart.fromMap(map).toMap());
+        assertEquals(map, DentalChart.fromStored(DentalChart.fromMap(map).toStored()).toMap());
+    }
+
+    @Test
+    void packedChartIsSmallerToStoreAndSend() throws Exception {
+        Map<String, Map<String, String>> map = fullChart();
+        DentalChart chart = DentalChart.fromMap(map);
+
+        int mapBson = new RawBsonDocument(new Document("dentalChart", map), codec).getByteBuffer().remaining();
+        int packedBson = new RawBsonDocument(new Document("chart", chart.toStored()), codec).getByteBuffer().remaining();
+        int mapJson = objectMapper.writeValueAsBytes(map).length;
+        int packedJson = objectMapper.writeValueAsBytes(chart.codes()).length;
+
+        assertTrue(packedBson * 5 < mapBson, "BSON packed " + packedBson + " B vs map " + mapBson + " B");
+        assertTrue(packedJson * 5 < mapJson, "JSON compact " + packedJson + " B vs map " + mapJson + " B");
+    }
+
+    static Map<String, Map<String, String>> fullChart() {
+        DentalChart.Condition[] conditions = DentalChart.Condition.values();
+        Map<String, Map<String, String>> map = new LinkedHashMap<>();
+        for (int tooth = 0; tooth < 32; tooth++) {
+            Map<String, String> surfaces = new LinkedHashMap<>();
+            for (DentalChart.Surface surface : DentalChart.Surface.values()) {
+                surfaces.put(surface.key(), conditions[(tooth + surface.ordinal()) % conditions.length].name());
+            }
+            map.put("tooth_" + DentalChart.fdi(tooth), surfaces);
+        }
+        return map;
+    }
+}
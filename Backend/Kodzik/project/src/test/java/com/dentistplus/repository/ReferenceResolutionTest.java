@@ -0,0 +1,178 @@
+package com.dentistplus.repository;
+
+import com.dentistplus.EmbeddedMongoTest;
+import com.dentistplus.model.Appointment;
+import com.dentistplus.model.PatientProfile;
+import com.dentistplus.model.TreatmentPlan;
+import com.dentistplus.model.User;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Mongo commands per list request must not grow with the number of rows (no N+1 DBRef
+ * lookups), and writes made during a request must not be hidden by its reference cache.
+ */
+class ReferenceResolutionTest extends EmbeddedMongoTest {
+
+    private static final int MAX_COMMANDS_PER_PAGE = 6;
+
+    @TestConfiguration
+    static class CountingConfig {
+        @Bean
+        CommandCounter commandCounter() {
+            return new CommandCounter();
+        }
+
+        @Bean
+        MongoClientSettingsBuilderCustomizer countCommands(CommandCounter counter) {
+            return settings -> settings.addCommandListener(counter);
+        }
+    }
+
+    /**
+     * Counts the commands issued by the test thread only, so scheduled jobs do not interfere
+     */
+    static class CommandCounter implements CommandListener {
+        private volatile Thread watched;
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void commandStarted(CommandStartedEvent event) {
+            if (Thread.currentThread() == watched) {
+                count.incrementAndGet();
+            }
+        }
+
+        int count(ThrowingRunnable action) throws Exception {
+            count.set(0);
+            watched = Thread.currentThread();
+            try {
+                action.run();
+            } finally {
+                watched = null;
+            }
+            return count.get();
+        }
+    }
+
+    @FunctionalInterface
+    interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private EntityReader entityReader;
+
+    @Autowired
+    private CommandCounter commandCounter;
+
+    @AfterEach
+    void clearRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void appointmentListCostIsIndependentOfPageSize() throws Exception {
+        String few = patientWith(3);
+        String many = patientWith(60);
+
+        int fewCommands = measure("/api/my/appointments?limit=200", few);
+        int manyCommands = measure("/api/my/appointments?limit=200", many);
+
+        assertEquals(fewCommands, manyCommands, "appointment page issued per-row reference lookups");
+        assertTrue(manyCommands <= MAX_COMMANDS_PER_PAGE, "appointment page took " + manyCommands + " commands");
+    }
+
+    @Test
+    void treatmentPlanListCostIsIndependentOfPageSize() throws Exception {
+        String few = patientWith(3);
+        String many = patientWith(60);
+
+        int fewCommands = measure("/api/my/plans?limit=200", few);
+        int manyCommands = measure("/api/my/plans?limit=200", many);
+
+        assertEquals(fewCommands, manyCommands, "plan page issued per-row reference lookups");
+        assertTrue(manyCommands <= MAX_COMMANDS_PER_PAGE, "plan page took " + manyCommands + " commands");
+    }
+
+    @Test
+    void templateUpdateInvalidatesRequestCache() {
+        PatientProfile profile = profile();
+        TreatmentPlan plan = mongoTemplate.insert(new TreatmentPlan(profile, "Cache check"));
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+
+        Query byId = new Query(Criteria.where("_id").is(new ObjectId(plan.getId())));
+        assertEquals(profile.getFirstName(), entityReader.find(byId, TreatmentPlan.class).get(0).getPatientProfile().getFirstName());
+
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(new ObjectId(profile.getId()))),
+            new Update().set("firstName", "Renamed"), PatientProfile.class);
+
+        assertEquals("Renamed", entityReader.find(byId, TreatmentPlan.class).get(0).getPatientProfile().getFirstName());
+    }
+
+    /**
+     * Commands of a second identical request; the first one warms the principal cache
+     */
+    private int measure(String url, String userId) throws Exception {
+        mockMvc.perform(get(url).header("X-User-ID", userId)).andExpect(status().isOk());
+        return commandCounter.count(() ->
+            mockMvc.perform(get(url).header("X-User-ID", userId)).andExpect(status().isOk()));
+    }
+
+    /**
+     * A new patient with the given number of appointments (spread over three dentists) and plans;
+     * returns the patient's user id
+     */
+    private String patientWith(int rows) {
+        PatientProfile profile = profile();
+        List<User> dentists = List.of(dentist(), dentist(), dentist());
+        LocalDateTime start = LocalDate.now().plusDays(30).atTime(9, 0);
+        for (int i = 0; i < rows; i++) {
+            mongoTemplate.insert(new Appointment(profile, dentists.get(i % dentists.size()), start.plusDays(i), "CHECKUP"));
+            mongoTemplate.insert(new TreatmentPlan(profile, "Plan " + i));
+        }
+        return profile.getUser().getId();
+    }
+
+    private PatientProfile profile() {
+        String suffix = new ObjectId().toHexString();
+        User user = mongoTemplate.insert(new User("patient-" + suffix, "secret", suffix + "@example.com", List.of("ROLE_PATIENT")));
+        return mongoTemplate.insert(new PatientProfile(user, "Test", "Patient", LocalDate.of(1990, 1, 1)));
+    }
+
+    private User dentist() {
+        String suffix = new ObjectId().toHexString();
+        return mongoTemplate.insert(new User("dentist-" + suffix, "secret", suffix + "@example.com", "Test", "Dentist", List.of("ROLE_DENTIST")));
+    }
+}
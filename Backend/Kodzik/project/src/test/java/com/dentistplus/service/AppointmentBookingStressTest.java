@@ -0,0 +1,219 @@
+package com.dentistplus.service;
+
+import com.dentistplus.EmbeddedMongoTest;
+import com.dentistplus.exception.ConflictException;
+import com.dentistplus.model.Appointment;
+import com.dentistplus.model.PatientProfile;
+import com.dentistplus.model.SlotReservation;
+import com.dentistplus.model.User;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Hundreds of parallel booking attempts for the same dentist or patient must never end in
+ * two appointments that overlap.
+ */
+class AppointmentBookingStressTest extends EmbeddedMongoTest {
+
+    private static final int ATTEMPTS = 300;
+    private static final int THREADS = 48;
+    private static final int DURATION_MINUTES = 30;
+
+    private static ExecutorService executor;
+
+    @Autowired
+    private AppointmentService appointmentService;
+
+    @Autowired
+    private DentistAvailabilityIndex availabilityIndex;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeAll
+    static void startPool() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void onlyOnePatientGetsTheSameSlot() throws Exception {
+        User dentist = dentist();
+        LocalDateTime start = day(1).atTime(10, 0);
+        List<String> patients = new ArrayList<>();
+        for (int i = 0; i < ATTEMPTS; i++) {
+            patients.add(patient().getUser().getId());
+        }
+
+        int booked = race(patients.stream()
+            .map(patient -> (Callable<Appointment>) () -> appointmentService.bookAppointment(patient, dentist.getId(), start.toString(), "CHECKUP"))
+            .toList());
+
+        assertEquals(1, booked);
+        assertEquals(1, appointmentsOf("dentist", dentist.getId()).size());
+    }
+
+    @Test
+    void staggeredBookingsOfOneDentistNeverOverlap() throws Exception {
+        User dentist = dentist();
+        LocalDateTime opening = day(2).atTime(8, 0);
+        List<Callable<Appointment>> attempts = new ArrayList<>();
+        for (int i = 0; i < ATTEMPTS; i++) {
+            String patient = patient().getUser().getId();
+            // Starts on every 5-minute mark of a four hour window, so most attempts partially overlap
+            LocalDateTime start = opening.plusMinutes(5L * (i % 48));
+            attempts.add(() -> appointmentService.bookAppointment(patient, dentist.getId(), start.toString(), "CHECKUP"));
+        }
+
+        int booked = race(attempts);
+
+        List<Appointment> appointments = appointmentsOf("dentist", dentist.getId());
+        assertEquals(booked, appointments.size());
+        assertNoOverlaps(appointments);
+    }
+
+    @Test
+    void patientCannotBeBookedWithTwoDentistsAtOnce() throws Exception {
+        PatientProfile patient = patient();
+        LocalDateTime start = day(3).atTime(14, 0);
+        List<Callable<Appointment>> attempts = new ArrayList<>();
+        for (int i = 0; i < ATTEMPTS; i++) {
+            String dentist = dentist().getId();
+            attempts.add(() -> appointmentService.bookAppointment(patient.getUser().getId(), dentist, start.toString(), "CHECKUP"));
+        }
+
+        int booked = race(attempts);
+
+        assertEquals(1, booked);
+        assertEquals(1, appointmentsOf("patientProfile", patient.getId()).size());
+    }
+
+    @Test
+    void slotFreedOnAnotherNodeCanBeBookedAtOnce() {
+        User dentist = dentist();
+        LocalDateTime start = day(4).atTime(11, 0);
+        Appointment first = appointmentService.bookAppointment(patient().getUser().getId(), dentist.getId(), start.toString(), "CHECKUP");
+
+        // Another node cancels: reservations are released there, this node's index is not told
+        mongoTemplate.remove(new Query(Criteria.where("appointmentId").is(first.getId())), SlotReservation.class);
+        mongoTemplate.remove(new Query(Criteria.where("_id").is(new ObjectId(first.getId()))), Appointment.class);
+        assertEquals(List.of(), availabilityIndex.freeSlots(dentist.getId(), start, start.plusMinutes(DURATION_MINUTES)));
+
+        Appointment second = appointmentService.bookAppointment(patient().getUser().getId(), dentist.getId(), start.toString(), "CHECKUP");
+        assertNotNull(second.getId());
+    }
+
+    @Test
+    void concurrentReschedulesLeaveTheAppointmentReserved() throws Exception {
+        User dentist = dentist();
+        PatientProfile patient = patient();
+        LocalDateTime opening = day(5).atTime(8, 0);
+        Appointment appointment = appointmentService.bookAppointment(patient.getUser().getId(), dentist.getId(), opening.toString(), "CHECKUP");
+
+        List<Callable<Appointment>> attempts = new ArrayList<>();
+        for (int i = 1; i <= THREADS; i++) {
+            LocalDateTime start = opening.plusMinutes(DURATION_MINUTES * (long) i);
+            attempts.add(() -> {
+                appointmentService.rescheduleAppointment(appointment.getId(), start.toString(), patient.getUser().getId());
+                return appointment;
+            });
+        }
+        race(attempts);
+
+        // Whichever reschedule won, the dentist's reservations cover exactly its time
+        LocalDateTime date = mongoTemplate.findById(appointment.getId(), Appointment.class).getAppointmentDate();
+        List<LocalDateTime> reserved = mongoTemplate.find(new Query(Criteria.where("appointmentId").is(appointment.getId())
+                .and("ownerType").is(SlotReservationService.DENTIST)).with(Sort.by("slotStart")), SlotReservation.class)
+            .stream().map(SlotReservation::getSlotStart).toList();
+        List<LocalDateTime> expected = new ArrayList<>();
+        for (int minutes = 0; minutes < DURATION_MINUTES; minutes += DentistAvailabilityIndex.SLOT_MINUTES) {
+            expected.add(date.plusMinutes(minutes));
+        }
+        assertEquals(expected, reserved);
+    }
+
+    /**
+     * Run all attempts at once; every one must either book or fail with 409. Returns the number booked.
+     */
+    private static int race(List<Callable<Appointment>> attempts) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Future<Appointment>> results = new ArrayList<>();
+        for (Callable<Appointment> attempt : attempts) {
+            results.add(executor.submit(() -> {
+                ready.await();
+                return attempt.call();
+            }));
+        }
+        ready.countDown();
+
+        int booked = 0;
+        for (Future<Appointment> result : results) {
+            try {
+                result.get(2, TimeUnit.MINUTES);
+                booked++;
+            } catch (ExecutionException e) {
+                assertInstanceOf(ConflictException.class, e.getCause());
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+        return booked;
+    }
+
+    private List<Appointment> appointmentsOf(String field, String id) {
+        Query query = new Query(Criteria.where(field + ".$id").is(new ObjectId(id)).and("status").ne("CANCELLED"))
+            .with(Sort.by("appointmentDate"));
+        return mongoTemplate.find(query, Appointment.class);
+    }
+
+    private static void assertNoOverlaps(List<Appointment> sorted) {
+        for (int i = 1; i < sorted.size(); i++) {
+            LocalDateTime previousEnd = sorted.get(i - 1).getAppointmentDate().plusMinutes(sorted.get(i - 1).getDurationMinutes());
+            LocalDateTime start = sorted.get(i).getAppointmentDate();
+            assertFalse(start.isBefore(previousEnd), "appointments overlap at " + start);
+        }
+    }
+
+    private static LocalDate day(int offset) {
+        return LocalDate.now().plusDays(60 + offset);
+    }
+
+    private User dentist() {
+        String suffix = new ObjectId().toHexString();
+        return mongoTemplate.insert(new User("dentist-" + suffix, "secret", suffix + "@example.com", "Test", "Dentist", List.of("ROLE_DENTIST")));
+    }
+
+    private PatientProfile patient() {
+        String suffix = new ObjectId().toHexString();
+        User user = mongoTemplate.insert(new User("patient-" + suffix, "secret", suffix + "@example.com", List.of("ROLE_PATIENT")));
+        return mongoTemplate.insert(new PatientProfile(user, "Test", "Patient", LocalDate.of(1990, 1, 1)));
+    }
+}
@@ -88,8 +88,13 @@ const login = async (username: string, password: string) => {
     // Clear all cached queries before logging in
     queryClient.clear();
     
-    const resp: any = await apiClient.login({ username, password });
-console.log('login resp', resp);
+    const loginResp: any = await apiClient.login({ username, password });
+
+    // Backend zwraca { token, expiresAt, user } – podpisany token zastępuje sam X-User-ID
+    if (loginResp?.token) {
+      apiClient.setAuthToken(loginResp.token);
+    }
+    const resp: any = loginResp?.user ?? loginResp;
 
     // Save user ID regardless of role
     if (resp?.id) {
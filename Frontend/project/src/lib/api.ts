@@ -51,10 +51,27 @@ class ApiClient {
   }
 
 private async request<T>(endpoint: string, options: RequestInit = {}): Promise<T> {
+  return (await this.send<T>(endpoint, options)).data;
+}
+
+// List endpoints return one page per call; follow X-Next-Cursor until the last one
+private async requestAll<T>(endpoint: string): Promise<T[]> {
+  const items: T[] = [];
+  let cursor: string | null = null;
+  do {
+    const separator = endpoint.includes('?') ? '&' : '?';
+    const page = await this.send<T[]>(cursor ? `${endpoint}${separator}cursor=${encodeURIComponent(cursor)}` : endpoint);
+    if (Array.isArray(page.data)) items.push(...page.data);
+    cursor = page.headers.get('X-Next-Cursor');
+  } while (cursor);
+  return items;
+}
+
+private async send<T>(endpoint: string, options: RequestInit = {}): Promise<{ data: T; headers: Headers }> {
   const url = `${BASE_URL}${endpoint}`;
 
-  // 1) bazowe nagłówki
-  const base = new Headers({ 'Content-Type': 'application/json; charset=utf-8' });
+  // 1) bazowe nagłówki (FormData sets its own multipart boundary)
+  const base = new Headers(options.body instanceof FormData ? {} : { 'Content-Type': 'application/json; charset=utf-8' });
 
   // 2) dolej ewentualne nagłówki z options (niezależnie od formatu)
   if (options.headers) {
@@ -92,11 +109,11 @@ private async request<T>(endpoint: string, options: RequestInit = {}): Promise<T
 
     console.log('←', status, ct, raw ? `(len=${raw.length})` : '(empty body)');
 
-    if (!raw) return {} as T;
+    if (!raw) return { data: {} as T, headers: response.headers };
     if (ct.includes('application/json')) {
-      try { return JSON.parse(raw) as T; } catch {}
+      try { return { data: JSON.parse(raw) as T, headers: response.headers }; } catch {}
     }
-    return {} as T;
+    return { data: {} as T, headers: response.headers };
   } catch (err) {
     if (err instanceof TypeError) {
       throw { message: 'Network error. Please check your connection.', code: 'NETWORK_ERROR' };
@@ -151,7 +168,7 @@ async login(credentials: LoginRequest): Promise<LoginResponse> {
 
   // Patient Management (Dentist endpoints)
   async getAllPatients(): Promise<PatientProfile[]> {
-    return this.request<PatientProfile[]>('/api/patients');
+    return this.requestAll<PatientProfile>('/api/patients');
   }
 
   async getPatientById(patientId: string): Promise<PatientProfile> {
@@ -167,7 +184,7 @@ async login(credentials: LoginRequest): Promise<LoginResponse> {
 
   // Treatment Planning
   async getPatientTreatmentPlans(patientId: string): Promise<TreatmentPlan[]> {
-    return this.request<TreatmentPlan[]>(`/api/patients/${patientId}/plans`);
+    return this.requestAll<TreatmentPlan>(`/api/patients/${patientId}/plans`);
   }
 
   async createTreatmentPlan(patientId: string, plan: Omit<TreatmentPlan, 'id' | 'patientId' | 'createdAt' | 'updatedAt'>): Promise<TreatmentPlan> {
@@ -186,7 +203,7 @@ async login(credentials: LoginRequest): Promise<LoginResponse> {
 
   async updateProcedure(procedureId: string, data: Partial<PlannedProcedure>): Promise<PlannedProcedure> {
     return this.request<PlannedProcedure>(`/api/procedures/${procedureId}`, {
-      method: 'PUT',
+      method: 'PATCH',
       body: JSON.stringify(data),
     });
   }
@@ -203,6 +220,14 @@ async login(credentials: LoginRequest): Promise<LoginResponse> {
     });
   }
 
+  // Only the changed teeth/surfaces; null clears a surface or a whole tooth
+  async patchDentalChart(patientId: string, changes: Record<string, Record<string, string | null> | null>): Promise<void> {
+    await this.request<void>(`/api/patients/${patientId}/record/chart`, {
+      method: 'PATCH',
+      body: JSON.stringify(changes),
+    });
+  }
+
   async addRecordAttachment(patientId: string, attachment: { filename: string; fileType: string; storageUrl: string }): Promise<any> {
     return this.request<any>(`/api/patients/${patientId}/record/attachments`, {
       method: 'POST',
@@ -210,9 +235,65 @@ async login(credentials: LoginRequest): Promise<LoginResponse> {
     });
   }
 
+  // Streams the file to attachment storage; returns the stored metadata
+  async uploadRecordAttachment(patientId: string, file: File, fileType: string): Promise<any> {
+    const form = new FormData();
+    form.append('file', file);
+    return this.request<any>(`/api/patients/${patientId}/record/attachments?fileType=${encodeURIComponent(fileType)}`, {
+      method: 'POST',
+      body: form,
+    });
+  }
+
+  // Chunked upload for large files: chunks are sent in parallel and each is retried on its own
+  async uploadRecordAttachmentResumable(patientId: string, file: File, fileType: string, parallel = 3): Promise<any> {
+    const base = `/api/patients/${patientId}/record/attachments/uploads`;
+    const session = await this.request<any>(base, {
+      method: 'POST',
+      body: JSON.stringify({ filename: file.name, fileType, contentType: file.type || undefined, size: file.size }),
+    });
+    const toHex = (buffer: ArrayBuffer) => Array.from(new Uint8Array(buffer)).map(b => b.toString(16).padStart(2, '0')).join('');
+    const sendChunk = async (index: number) => {
+      const chunk = await file.slice(index * session.chunkSize, (index + 1) * session.chunkSize).arrayBuffer();
+      const sha256 = toHex(await crypto.subtle.digest('SHA-256', chunk));
+      for (let attempt = 1; ; attempt++) {
+        try {
+          await this.request<void>(`${base}/${session.id}/chunks/${index}`, {
+            method: 'PUT',
+            headers: { 'Content-Type': 'application/octet-stream', 'X-Chunk-SHA256': sha256 },
+            body: chunk,
+          });
+          return;
+        } catch (err) {
+          if (attempt >= 3) throw err;
+          await new Promise(resolve => setTimeout(resolve, attempt * 1000));
+        }
+      }
+    };
+    const queue: number[] = [...session.missingChunks];
+    await Promise.all(Array.from({ length: Math.min(parallel, queue.length) }, async () => {
+      while (queue.length > 0) {
+        await sendChunk(queue.shift()!);
+      }
+    }));
+    return this.request<any>(`${base}/${session.id}/complete`, { method: 'POST' });
+  }
+
+  // Attachment content needs the auth headers, so it is fetched as a blob instead of linked
+  async downloadAttachment(storageUrl: string): Promise<Blob> {
+    const headers = new Headers();
+    if (this.token) headers.set('Authorization', `Bearer ${this.token}`);
+    if (this.userId) headers.set('X-User-ID', this.userId);
+    const response = await fetch(`${BASE_URL}${storageUrl}`, { credentials: 'include', headers });
+    if (!response.ok) {
+      throw { message: `HTTP ${response.status}`, code: String(response.status) };
+    }
+    return response.blob();
+  }
+
   // Billing
   async getPatientInvoices(patientId: string): Promise<Invoice[]> {
-    return this.request<Invoice[]>(`/api/patients/${patientId}/invoices`);
+    return this.requestAll<Invoice>(`/api/patients/${patientId}/invoices`);
   }
 
   async generateInvoice(patientId: string, invoiceData: Omit<Invoice, 'id' | 'patientId' | 'createdAt' | 'updatedAt'>): Promise<Invoice> {
@@ -234,11 +315,11 @@ async getMyProfile(): Promise<PatientProfile> {
 }
 
   async getMyTreatmentPlans(): Promise<TreatmentPlan[]> {
-    return this.request<TreatmentPlan[]>('/api/my/plans');
+    return this.requestAll<TreatmentPlan>('/api/my/plans');
   }
 
   async getMyInvoices(): Promise<Invoice[]> {
-    return this.request<Invoice[]>('/api/my/invoices');
+    return this.requestAll<Invoice>('/api/my/invoices');
   }
 
   async payInvoices(invoiceIds: string[], paymentMethod: any): Promise<Invoice[]> {
@@ -251,7 +332,7 @@ async getMyProfile(): Promise<PatientProfile> {
   async getMyAppointments(): Promise<Appointment[]> {
     console.log('API: getMyAppointments called');
     try {
-      const result = await this.request<Appointment[]>('/api/my/appointments');
+      const result = await this.requestAll<Appointment>('/api/my/appointments');
       console.log('API: getMyAppointments result:', result);
       return result;
     } catch (error) {
@@ -280,11 +361,11 @@ async getMyProfile(): Promise<PatientProfile> {
 
   // Admin Management
   async getAllDentists(): Promise<User[]> {
-    return this.request<User[]>('/api/my/dentists');
+    return this.requestAll<User>('/api/my/dentists');
   }
 
   async getDentistAppointments(): Promise<Appointment[]> {
-    return this.request<Appointment[]>('/api/dentist/appointments');
+    return this.requestAll<Appointment>('/api/dentist/appointments');
   }
 
   async getDentistTodayAppointments(): Promise<Appointment[]> {
@@ -292,7 +373,7 @@ async getMyProfile(): Promise<PatientProfile> {
   }
 
   async getAllPatientUsers(): Promise<User[]> {
-    return this.request<User[]>('/api/admin/patients');
+    return this.requestAll<User>('/api/admin/patients');
   }
 
   async createDentist(data: { username: string; firstName: string; lastName: string; email: string; password: string }): Promise<User> {
@@ -1,4 +1,4 @@
-import React, { useMemo, useState } from 'react';
+import React, { useEffect, useMemo, useState } from 'react';
 import { useParams, Link } from 'react-router-dom';
 import { useQuery, useMutation, useQueryClient } from '@tanstack/react-query';
 import { apiClient, queryKeys } from '../../lib/api';
@@ -10,6 +10,31 @@ import { formatDate } from '../../lib/utils';
 import { ArrowLeft, Upload, Image as ImageIcon, User } from 'lucide-react';
 
 const DEFAULT_SURFACES = ['occlusal', 'buccal', 'lingual', 'mesial', 'distal'];
+// Larger files go through chunked uploads so a dropped connection only costs one chunk
+const RESUMABLE_UPLOAD_THRESHOLD = 8 * 1024 * 1024;
+
+// Thumbnail of an uploaded image; the preview endpoint needs auth headers, so it is fetched as a blob
+const AttachmentThumbnail: React.FC<{ storageUrl: string; contentType?: string }> = ({ storageUrl, contentType }) => {
+  const { data: blob } = useQuery({
+    queryKey: ['attachment-preview', storageUrl],
+    queryFn: () => apiClient.downloadAttachment(`${storageUrl}/preview?size=thumbnail`),
+    enabled: !!contentType?.startsWith('image/'),
+    staleTime: Infinity,
+    retry: 2,
+  });
+  const [url, setUrl] = useState<string | null>(null);
+  useEffect(() => {
+    if (!blob) return;
+    const objectUrl = URL.createObjectURL(blob);
+    setUrl(objectUrl);
+    return () => URL.revokeObjectURL(objectUrl);
+  }, [blob]);
+
+  if (!url) {
+    return <div className="h-12 w-12 rounded bg-gray-100 flex items-center justify-center"><ImageIcon className="h-5 w-5 text-gray-400"/></div>;
+  }
+  return <img src={url} alt="" className="h-12 w-12 rounded object-cover" />;
+};
 
 export const PatientDetailsPage: React.FC = () => {
   const { id: patientId } = useParams();
@@ -28,16 +53,18 @@ export const PatientDetailsPage: React.FC = () => {
   });
 
   const updateChartMutation = useMutation({
-    mutationFn: (dentalChart: Record<string, Record<string, string>>) =>
-      apiClient.updateDentalChart(patientId!, dentalChart),
+    mutationFn: (changes: Record<string, Record<string, string>>) =>
+      apiClient.patchDentalChart(patientId!, changes),
     onSuccess: () => {
       queryClient.invalidateQueries({ queryKey: ['patient', patientId, 'record'] });
     },
   });
 
   const addAttachmentMutation = useMutation({
-    mutationFn: (payload: { filename: string; fileType: string; storageUrl: string }) =>
-      apiClient.addRecordAttachment(patientId!, payload),
+    mutationFn: (payload: { file: File; fileType: string }) =>
+      payload.file.size > RESUMABLE_UPLOAD_THRESHOLD
+        ? apiClient.uploadRecordAttachmentResumable(patientId!, payload.file, payload.fileType)
+        : apiClient.uploadRecordAttachment(patientId!, payload.file, payload.fileType),
     onSuccess: () => queryClient.invalidateQueries({ queryKey: ['patient', patientId, 'record'] }),
   });
 
@@ -72,23 +99,25 @@ export const PatientDetailsPage: React.FC = () => {
   }, [record]);
 
   const handleToothUpdate = (toothNumber: number, status: any, notes?: string) => {
-    const currentChart: Record<string, Record<string, string>> = { ...(record?.dentalChart || {}) };
     const key = `tooth_${toothNumber}`;
     // Simple rule: set all known surfaces to the same status for this tooth
-    currentChart[key] = Object.fromEntries(DEFAULT_SURFACES.map(s => [s, status]));
-    updateChartMutation.mutate(currentChart);
+    updateChartMutation.mutate({ [key]: Object.fromEntries(DEFAULT_SURFACES.map(s => [s, status])) });
   };
 
   const handleAddAttachment = (e: React.FormEvent) => {
     e.preventDefault();
     if (!selectedFile) return;
-    const filename = selectedFile.name;
-    // Simulated storage path until file upload backend exists
-    const storageUrl = `/storage/images/${filename}`;
-    addAttachmentMutation.mutate({ filename, fileType, storageUrl });
+    addAttachmentMutation.mutate({ file: selectedFile, fileType });
     setSelectedFile(null);
   };
 
+  const handleOpenAttachment = async (storageUrl: string) => {
+    const blob = await apiClient.downloadAttachment(storageUrl);
+    const url = URL.createObjectURL(blob);
+    window.open(url, '_blank', 'noopener');
+    setTimeout(() => URL.revokeObjectURL(url), 60_000);
+  };
+
   if (loadingProfile || loadingRecord) {
     return (
       <div className="flex items-center justify-center h-96">
@@ -176,9 +205,11 @@ export const PatientDetailsPage: React.FC = () => {
                     {selectedFile ? selectedFile.name : 'No file selected'}
                   </span>
 
-                  <Button type="submit" disabled={!selectedFile}><Upload className="h-4 w-4 mr-2"/>Upload</Button>
+                  <Button type="submit" disabled={!selectedFile || addAttachmentMutation.isPending}><Upload className="h-4 w-4 mr-2"/>Upload</Button>
                 </div>
-                <p className="text-xs text-gray-500 break-words">Uploads store metadata only for now.</p>
+                {addAttachmentMutation.isError && (
+                  <p className="text-xs text-red-600 break-words">Upload failed.</p>
+                )}
               </form>
 
               <div className="space-y-3">
@@ -187,11 +218,18 @@ export const PatientDetailsPage: React.FC = () => {
                 )}
                 {(record?.attachments || []).map((att: any, idx: number) => (
                   <div key={idx} className="flex justify-between items-center border rounded-md px-3 py-2">
-                    <div>
-                      <p className="font-medium text-gray-900 text-sm">{att.filename}</p>
-                      <p className="text-xs text-gray-500">{att.fileType} • {att.uploadDate ? formatDate(att.uploadDate) : ''}</p>
+                    <div className="flex items-center gap-3">
+                      {att.id && <AttachmentThumbnail storageUrl={att.storageUrl} contentType={att.contentType} />}
+                      <div>
+                        <p className="font-medium text-gray-900 text-sm">{att.filename}</p>
+                        <p className="text-xs text-gray-500">{att.fileType} • {att.uploadDate ? formatDate(att.uploadDate) : ''}</p>
+                      </div>
                     </div>
-                    <a href={att.storageUrl} className="text-blue-600 text-sm hover:underline" target="_blank" rel="noreferrer">Open</a>
+                    {att.id ? (
+                      <button type="button" className="text-blue-600 text-sm hover:underline" onClick={() => handleOpenAttachment(att.storageUrl)}>Open</button>
+                    ) : (
+                      <a href={att.storageUrl} className="text-blue-600 text-sm hover:underline" target="_blank" rel="noreferrer">Open</a>
+                    )}
                   </div>
                 ))}
               </div>